@@ -0,0 +1,60 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.admission.AdmissionLimit;
+import eu.ill.webxdemo.services.AdmissionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of the admission checks when many clients reconnect from the same address (all threads contend on one bucket)
+// and from distinct addresses
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AdmissionBenchmark {
+
+    @Setup
+    public void setup() {
+        Benchmarks.quietLogging();
+        AdmissionService.instance().start(
+                new AdmissionLimit("user", 0, 0, 0),
+                new AdmissionLimit("ip", 1.0e9, 1000, 0),
+                new AdmissionLimit("host", 1.0e9, 1000, 1000000));
+    }
+
+    @TearDown
+    public void tearDown() {
+        AdmissionService.instance().stop();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean upgradeSameAddress() {
+        return AdmissionService.instance().admitUpgrade("10.0.0.1");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean upgradeDistinctAddresses() {
+        return AdmissionService.instance().admitUpgrade("10.0." + Thread.currentThread().threadId() % 256 + ".1");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean tunnel() {
+        AdmissionService.Ticket ticket = AdmissionService.instance().admitTunnel("10.0.0.1", "user", "host:5555");
+        if (ticket != null) {
+            ticket.release();
+            return true;
+        }
+        return false;
+    }
+}
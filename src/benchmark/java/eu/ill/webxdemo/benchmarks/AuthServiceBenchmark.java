@@ -0,0 +1,57 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.directory.InMemorySessionDirectory;
+import eu.ill.webxdemo.model.Credentials;
+import eu.ill.webxdemo.services.AuthService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+// Token creation and consumption under contention (a login storm), with the expiry sweeper running
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AuthServiceBenchmark {
+
+    @Setup
+    public void setup() {
+        Benchmarks.quietLogging();
+        AuthService.instance().start(new InMemorySessionDirectory(Integer.MAX_VALUE));
+    }
+
+    @TearDown
+    public void tearDown() {
+        AuthService.instance().stop();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Credentials login() {
+        String token = AuthService.instance().addAuthorisation("user:password");
+        return AuthService.instance().getCredentials(token);
+    }
+
+    @Benchmark
+    @Group("storm")
+    @GroupThreads(6)
+    public String addAuthorisation() {
+        return AuthService.instance().addAuthorisation("user:password");
+    }
+
+    @Benchmark
+    @Group("storm")
+    @GroupThreads(2)
+    public Credentials getUnknownCredentials() {
+        return AuthService.instance().getCredentials("00000000000000000000000000000000");
+    }
+}
@@ -0,0 +1,15 @@
+package eu.ill.webxdemo.benchmarks;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    // The application logs at debug level: keep the console out of the measurements
+    static void quietLogging() {
+        Logger.getRootLogger().setLevel(Level.WARN);
+    }
+}
@@ -0,0 +1,76 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.memory.BufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// GC pressure of the network buffers of WebSocket frames: each operation leases a buffer for a frame of the message
+// mix, writes the frame into it and releases it, as Jetty does for every frame read or written, from 4 threads. Run
+// with -prof gc: heap allocates a new buffer per frame (no pool), jetty uses Jetty's default pool and pool the relay's
+// BufferPool. gc.alloc.rate.norm is the garbage per frame and gc.count the number of collections it causes
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class BufferPoolBenchmark {
+
+    private static final int FRAME_HEADER_LENGTH = 14;
+
+    @State(Scope.Benchmark)
+    public static class Pool {
+
+        @Param({"heap", "jetty", "pool"})
+        private String pool;
+
+        private ByteBufferPool byteBufferPool;
+
+        @Setup
+        public void setup() {
+            if (this.pool.equals("jetty")) {
+                this.byteBufferPool = new MappedByteBufferPool();
+
+            } else if (this.pool.equals("pool")) {
+                this.byteBufferPool = BufferPool.instance();
+            }
+        }
+    }
+
+    private byte[][] messages;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        Benchmarks.quietLogging();
+        this.messages = WebXMessages.mix(256, 42);
+    }
+
+    @Benchmark
+    public int frame(Pool pool) {
+        byte[] message = this.messages[this.index];
+        this.index = (this.index + 1) % this.messages.length;
+
+        int size = FRAME_HEADER_LENGTH + message.length;
+        ByteBuffer buffer = pool.byteBufferPool == null ? ByteBuffer.allocate(size) : pool.byteBufferPool.acquire(size, true);
+        buffer.clear();
+        buffer.position(FRAME_HEADER_LENGTH);
+        buffer.put(message);
+        buffer.flip();
+        int remaining = buffer.remaining();
+        if (pool.byteBufferPool != null) {
+            pool.byteBufferPool.release(buffer);
+        }
+        return remaining;
+    }
+}
@@ -0,0 +1,124 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.memory.BufferPool;
+import eu.ill.webxdemo.ws.MessageCompression;
+import eu.ill.webxdemo.ws.WebXMessageHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Compression of 1MB of outbound messages: the time per operation is the CPU time spent per MB sent to a client that
+// requested compression. Images are skipped, so the worst case is a stream of incompressible non-image messages
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompressionBenchmark {
+
+    private static final int TOTAL_BYTES = 1024 * 1024;
+
+    @Param({"windows", "cursor", "incompressible", "mixed"})
+    private String messages;
+
+    private byte[][] data;
+    private MessageCompression.State state;
+
+    @Setup
+    public void setup() {
+        Benchmarks.quietLogging();
+        MessageCompression.instance().start(1, 512);
+
+        Random random = new Random(42);
+        List<byte[]> data = new ArrayList<>();
+        int size = 0;
+        while (size < TOTAL_BYTES) {
+            byte[] message;
+            switch (this.messages) {
+                case "windows":
+                    message = windows(random);
+                    break;
+                case "cursor":
+                    message = cursor(random);
+                    break;
+                case "incompressible":
+                    message = incompressible(random);
+                    break;
+                default:
+                    int kind = random.nextInt(4);
+                    message = kind == 0 ? windows(random) : kind == 1 ? cursor(random) : kind == 2 ? incompressible(random) : WebXMessages.create(WebXMessageHeader.IMAGE, 1, 64 * 1024);
+            }
+            data.add(message);
+            size += message.length;
+        }
+        this.data = data.toArray(new byte[0][]);
+        this.state = new MessageCompression.State();
+    }
+
+    @Benchmark
+    public long compress() {
+        MessageCompression messageCompression = MessageCompression.instance();
+        long compressedBytes = 0;
+        for (byte[] message : this.data) {
+            ByteBuffer compressed = messageCompression.compress(message, this.state);
+            if (compressed != null) {
+                compressedBytes += compressed.remaining();
+                BufferPool.instance().release(compressed);
+
+            } else {
+                compressedBytes += message.length;
+            }
+        }
+        return compressedBytes;
+    }
+
+    // Window list: id, position and size of a few dozen windows
+    private static byte[] windows(Random random) {
+        int count = 10 + random.nextInt(50);
+        byte[] message = WebXMessages.create(WebXMessageHeader.WINDOWS, 0, WebXMessageHeader.MESSAGE_HEADER_LENGTH + 4 + count * 20);
+        ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(WebXMessageHeader.MESSAGE_HEADER_LENGTH);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(0x2000000 + i * 16).putInt(random.nextInt(1920)).putInt(random.nextInt(1080)).putInt(200 + random.nextInt(8) * 100).putInt(100 + random.nextInt(8) * 100);
+        }
+        return message;
+    }
+
+    // Raw 32x32 RGBA cursor bitmap: mostly transparent with an opaque shape
+    private static byte[] cursor(Random random) {
+        int side = 32;
+        byte[] message = WebXMessages.create(WebXMessageHeader.CURSOR_IMAGE, 0, WebXMessageHeader.MESSAGE_HEADER_LENGTH + 24 + side * side * 4);
+        int offset = WebXMessageHeader.MESSAGE_HEADER_LENGTH + 24;
+        int width = 8 + random.nextInt(12);
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < Math.min(y, width); x++) {
+                int pixel = offset + (y * side + x) * 4;
+                message[pixel + 3] = (byte) 0xff;
+                if (x == 0 || x == Math.min(y, width) - 1) {
+                    message[pixel] = message[pixel + 1] = message[pixel + 2] = (byte) 0xff;
+                }
+            }
+        }
+        return message;
+    }
+
+    // Already compressed content: compressed in full then sent uncompressed
+    private static byte[] incompressible(Random random) {
+        byte[] message = WebXMessages.create(WebXMessageHeader.CLIPBOARD, 0, 4096 + random.nextInt(28 * 1024));
+        byte[] payload = new byte[message.length - WebXMessageHeader.MESSAGE_HEADER_LENGTH];
+        random.nextBytes(payload);
+        System.arraycopy(payload, 0, message, WebXMessageHeader.MESSAGE_HEADER_LENGTH, payload.length);
+        return message;
+    }
+}
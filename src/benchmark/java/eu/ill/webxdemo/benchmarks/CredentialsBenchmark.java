@@ -0,0 +1,26 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.model.Credentials;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CredentialsBenchmark {
+
+    @Param({"user:password", "a-much-longer-user-name:with-a-rather-long-password-0123456789", "invalid"})
+    public String raw;
+
+    @Benchmark
+    public boolean parse() {
+        return new Credentials(this.raw).isValid();
+    }
+}
@@ -0,0 +1,140 @@
+package eu.ill.webxdemo.benchmarks;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Remote endpoint completing every write immediately (or when completeWrites is called, as over a slow network),
+// counting the bytes and frames sent
+public class FakeRemoteEndpoint implements RemoteEndpoint {
+
+    private final LongAdder frameCount = new LongAdder();
+    private final LongAdder byteCount = new LongAdder();
+    private BatchMode batchMode = BatchMode.AUTO;
+    private List<WriteCallback> pendingWrites = null;
+    private Consumer<ByteBuffer> frameListener = null;
+
+    // Writes are then only completed by completeWrites
+    public synchronized void setDeferred(boolean deferred) {
+        this.pendingWrites = deferred ? new ArrayList<>() : null;
+    }
+
+    // Completes the writes made so far, returning their number
+    public int completeWrites() {
+        List<WriteCallback> callbacks;
+        synchronized (this) {
+            callbacks = this.pendingWrites;
+            this.pendingWrites = new ArrayList<>();
+        }
+        for (WriteCallback callback : callbacks) {
+            callback.writeSuccess();
+        }
+        return callbacks.size();
+    }
+
+    // Called with each frame sent
+    public void setFrameListener(Consumer<ByteBuffer> frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    public long getFrameCount() {
+        return this.frameCount.sum();
+    }
+
+    public long getByteCount() {
+        return this.byteCount.sum();
+    }
+
+    @Override
+    public void sendBytes(ByteBuffer data) {
+        if (this.frameListener != null) {
+            this.frameListener.accept(data);
+        }
+        this.frameCount.increment();
+        this.byteCount.add(data.remaining());
+    }
+
+    @Override
+    public Future<Void> sendBytesByFuture(ByteBuffer data) {
+        this.sendBytes(data);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void sendBytes(ByteBuffer data, WriteCallback callback) {
+        this.sendBytes(data);
+        synchronized (this) {
+            if (this.pendingWrites != null) {
+                this.pendingWrites.add(callback);
+                return;
+            }
+        }
+        if (callback != null) {
+            callback.writeSuccess();
+        }
+    }
+
+    @Override
+    public void sendPartialBytes(ByteBuffer fragment, boolean isLast) {
+        this.byteCount.add(fragment.remaining());
+        if (isLast) {
+            this.frameCount.increment();
+        }
+    }
+
+    @Override
+    public void sendPartialString(String fragment, boolean isLast) {
+    }
+
+    @Override
+    public void sendPing(ByteBuffer applicationData) {
+    }
+
+    @Override
+    public void sendPong(ByteBuffer applicationData) {
+    }
+
+    @Override
+    public void sendString(String text) {
+    }
+
+    @Override
+    public Future<Void> sendStringByFuture(String text) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void sendString(String text, WriteCallback callback) {
+        if (callback != null) {
+            callback.writeSuccess();
+        }
+    }
+
+    @Override
+    public BatchMode getBatchMode() {
+        return this.batchMode;
+    }
+
+    @Override
+    public void setBatchMode(BatchMode batchMode) {
+        this.batchMode = batchMode;
+    }
+
+    @Override
+    public InetSocketAddress getInetSocketAddress() {
+        return new InetSocketAddress("127.0.0.1", 0);
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,140 @@
+package eu.ill.webxdemo.benchmarks;
+
+import org.eclipse.jetty.util.MultiMap;
+import org.eclipse.jetty.util.UrlEncoded;
+import org.eclipse.jetty.websocket.api.CloseStatus;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.SuspendToken;
+import org.eclipse.jetty.websocket.api.UpgradeRequest;
+import org.eclipse.jetty.websocket.api.UpgradeResponse;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.UpgradeRequestAdapter;
+import org.eclipse.jetty.websocket.common.UpgradeResponseAdapter;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// In-process Jetty session: the upgrade request is built from a URI whose query parameters are decoded by Jetty
+public class FakeSession implements Session {
+
+    private final UpgradeRequest upgradeRequest;
+    private final UpgradeResponse upgradeResponse = new UpgradeResponseAdapter();
+    private final FakeRemoteEndpoint remote = new FakeRemoteEndpoint();
+    private final WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+    private volatile boolean open = true;
+    private volatile int closeStatusCode = 0;
+    private final CountDownLatch resumedOrClosed = new CountDownLatch(1);
+
+    // Jetty requires an absolute ws:// URI: paths are relative to ws://localhost
+    public FakeSession(String requestUri) {
+        this.upgradeRequest = new FakeUpgradeRequest(URI.create(requestUri.startsWith("/") ? "ws://localhost" + requestUri : requestUri));
+    }
+
+    public int getCloseStatusCode() {
+        return closeStatusCode;
+    }
+
+    // Waits until reads suspended during the connection to the WebX host are resumed, or the session is closed
+    public boolean awaitResumedOrClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.resumedOrClosed.await(timeout, unit);
+    }
+
+    @Override
+    public void close() {
+        this.close(1000, null);
+    }
+
+    @Override
+    public void close(CloseStatus closeStatus) {
+        this.close(closeStatus.getCode(), closeStatus.getPhrase());
+    }
+
+    @Override
+    public void close(int statusCode, String reason) {
+        this.closeStatusCode = statusCode;
+        this.open = false;
+        this.resumedOrClosed.countDown();
+    }
+
+    @Override
+    public void disconnect() {
+        this.open = false;
+        this.resumedOrClosed.countDown();
+    }
+
+    @Override
+    public long getIdleTimeout() {
+        return this.policy.getIdleTimeout();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return new InetSocketAddress("127.0.0.1", 8080);
+    }
+
+    @Override
+    public WebSocketPolicy getPolicy() {
+        return this.policy;
+    }
+
+    @Override
+    public String getProtocolVersion() {
+        return "13";
+    }
+
+    @Override
+    public FakeRemoteEndpoint getRemote() {
+        return this.remote;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return new InetSocketAddress("127.0.0.1", 40000);
+    }
+
+    @Override
+    public UpgradeRequest getUpgradeRequest() {
+        return this.upgradeRequest;
+    }
+
+    @Override
+    public UpgradeResponse getUpgradeResponse() {
+        return this.upgradeResponse;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    @Override
+    public void setIdleTimeout(long ms) {
+        this.policy.setIdleTimeout(ms);
+    }
+
+    @Override
+    public SuspendToken suspend() {
+        return this.resumedOrClosed::countDown;
+    }
+
+    // The adapter keeps the URI as is: its query parameters are set by the server when upgrading a real request
+    private static class FakeUpgradeRequest extends UpgradeRequestAdapter {
+
+        private FakeUpgradeRequest(URI requestUri) {
+            super(requestUri);
+            MultiMap<String> parameters = new MultiMap<>();
+            if (requestUri.getRawQuery() != null) {
+                UrlEncoded.decodeUtf8To(requestUri.getRawQuery(), parameters);
+            }
+            this.setParameterMap(parameters);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.ws.RelayTunnel;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// In-process tunnel returning the same set of messages a fixed number of times, as a WebX host would
+public class FakeTunnel implements RelayTunnel {
+
+    private final byte[][] messages;
+    private final int messageCount;
+    private final LongAdder writtenBytes = new LongAdder();
+    private final LongAdder writeCount = new LongAdder();
+    private int readCount = 0;
+    private volatile boolean connected = true;
+
+    public FakeTunnel(byte[][] messages, int messageCount) {
+        this.messages = messages;
+        this.messageCount = messageCount;
+    }
+
+    public long getWrittenBytes() {
+        return this.writtenBytes.sum();
+    }
+
+    public long getWriteCount() {
+        return this.writeCount.sum();
+    }
+
+    @Override
+    public byte[] read() {
+        if (this.readCount == this.messageCount) {
+            return null;
+        }
+        return this.messages[this.readCount++ % this.messages.length];
+    }
+
+    @Override
+    public void write(byte[] data) {
+        this.writtenBytes.add(data.length);
+        this.writeCount.increment();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    @Override
+    public void disconnect() {
+        this.connected = false;
+    }
+}
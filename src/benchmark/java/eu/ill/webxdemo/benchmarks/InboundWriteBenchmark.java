@@ -0,0 +1,56 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.OutboundConfiguration;
+import eu.ill.webxdemo.services.MetricsService;
+import eu.ill.webxdemo.ws.ConnectionThread;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Client instructions written to the tunnel. Run with "-prof gc" to compare the allocation per instruction of a
+// whole message (passed through), a slice of a larger buffer, and a copy of every instruction (naive slice handling)
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InboundWriteBenchmark {
+
+    private static final int MOUSE_INSTRUCTION_LENGTH = 48;
+    private static final int SLICE_OFFSET = 16;
+
+    private byte[] instruction;
+    private byte[] buffer;
+    private FakeTunnel tunnel;
+    private ConnectionThread connectionThread;
+
+    @Setup
+    public void setup() {
+        Benchmarks.quietLogging();
+        this.instruction = new byte[MOUSE_INSTRUCTION_LENGTH];
+        this.buffer = new byte[4096];
+        this.tunnel = new FakeTunnel(new byte[0][], 0);
+        OutboundConfiguration configuration = new OutboundConfiguration();
+        this.connectionThread = new ConnectionThread(this.tunnel, new FakeSession("/ws"), configuration, MetricsService.instance().openSession("benchmark"));
+    }
+
+    @Benchmark
+    public void wholeMessage() {
+        this.connectionThread.write(this.instruction, 0, this.instruction.length);
+    }
+
+    @Benchmark
+    public void slicedMessage() {
+        this.connectionThread.write(this.buffer, SLICE_OFFSET, MOUSE_INSTRUCTION_LENGTH);
+    }
+
+    @Benchmark
+    public void copyAlways() {
+        this.tunnel.write(Arrays.copyOfRange(this.instruction, 0, this.instruction.length));
+    }
+}
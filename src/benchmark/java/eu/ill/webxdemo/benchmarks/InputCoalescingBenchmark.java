@@ -0,0 +1,112 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.OutboundConfiguration;
+import eu.ill.webxdemo.services.MetricsService;
+import eu.ill.webxdemo.ws.ConnectionThread;
+import eu.ill.webxdemo.ws.WebXInstructionHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+// Client instructions from a synthetic input generator (a high polling rate mouse with drags, clicks and key presses)
+// written with and without mouse move coalescing. With intervalMicros=0 the instructions arrive as fast as possible and
+// the benchmark measures the cost of an instruction. With intervalMicros=1000 they arrive at 1000Hz, as from a gaming
+// mouse, and the number of tunnel writes saved is printed at the end of each trial.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InputCoalescingBenchmark {
+
+    private static final int INSTRUCTION_LENGTH = 48;
+
+    @Param({"0", "4000"})
+    private int windowMicros;
+
+    @Param({"0", "1000"})
+    private int intervalMicros;
+
+    private byte[][] instructions;
+    private FakeTunnel tunnel;
+    private ConnectionThread connectionThread;
+    private int index = 0;
+    private long received = 0;
+    private long nextTime = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Benchmarks.quietLogging();
+        this.instructions = generate(1000);
+        this.tunnel = new FakeTunnel(new byte[0][], 0);
+        OutboundConfiguration configuration = new OutboundConfiguration();
+        this.connectionThread = new ConnectionThread(this.tunnel, new FakeSession("/ws"), configuration, MetricsService.instance().openSession("benchmark"));
+        if (this.windowMicros > 0) {
+            this.connectionThread.enableInputCoalescing(TimeUnit.MICROSECONDS.toNanos(this.windowMicros));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n%d instructions received, %d written to the tunnel%n", this.received, this.tunnel.getWriteCount());
+    }
+
+    @Benchmark
+    public void input() {
+        if (this.intervalMicros > 0) {
+            long now = System.nanoTime();
+            if (this.nextTime == 0) {
+                this.nextTime = now;
+            }
+            while (now < this.nextTime) {
+                Thread.onSpinWait();
+                now = System.nanoTime();
+            }
+            this.nextTime += TimeUnit.MICROSECONDS.toNanos(this.intervalMicros);
+        }
+
+        byte[] instruction = this.instructions[this.index];
+        this.index = (this.index + 1) % this.instructions.length;
+        this.connectionThread.write(instruction, 0, instruction.length);
+        this.received++;
+    }
+
+    // Mouse moves in a circle, with a click, a drag and a key press every few hundred moves
+    private static byte[][] generate(int count) {
+        byte[][] instructions = new byte[count][];
+        int buttonMask = 0;
+        for (int i = 0; i < count; i++) {
+            int step = i % 250;
+            if (step == 100) {
+                instructions[i] = instruction(WebXInstructionHeader.KEYBOARD, 0, 0, 0);
+                continue;
+            }
+            if (step == 200 || step == 220) {
+                buttonMask = step == 200 ? 1 << 8 : 0;
+            }
+            double angle = i * 2 * Math.PI / 500;
+            instructions[i] = instruction(WebXInstructionHeader.MOUSE, (int) (960 + 400 * Math.cos(angle)), (int) (540 + 400 * Math.sin(angle)), buttonMask);
+        }
+        return instructions;
+    }
+
+    private static byte[] instruction(int type, int x, int y, int buttonMask) {
+        byte[] instruction = new byte[INSTRUCTION_LENGTH];
+        ByteBuffer buffer = ByteBuffer.wrap(instruction).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(16, type);
+        buffer.putInt(24, INSTRUCTION_LENGTH);
+        buffer.putInt(32, x);
+        buffer.putInt(36, y);
+        buffer.putInt(40, buttonMask);
+        return instruction;
+    }
+}
@@ -0,0 +1,93 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.OutboundConfiguration;
+import eu.ill.webxdemo.ws.OutboundQueue;
+import eu.ill.webxdemo.ws.WebXMessageHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+// A full screen image followed by a window layout and a mouse position, sent to a WebSocket whose writes complete one
+// round at a time (as over a slow network). The time of an operation is the relay's cost; the bytes written to the
+// WebSocket before the mouse position, which are what delays the pointer on a real network, are printed at the end of
+// each trial for fifo (a single queue), priority (control and pointer messages ahead of queued images) and chunked
+// (priority with the image sent in 64KB chunks)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrioritySchedulingBenchmark {
+
+    private static final int IMAGE_SIZE = 2 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Param({"fifo", "priority", "chunked"})
+    private String scheduling;
+
+    private byte[] image;
+    private byte[] windows;
+    private byte[] mouse;
+    private FakeRemoteEndpoint remote;
+    private OutboundQueue outboundQueue;
+    private long bytesSent;
+    private long bytesAheadOfMouse;
+    private long bytesAheadOfMouseTotal = 0;
+    private long operationCount = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Benchmarks.quietLogging();
+        this.image = WebXMessages.create(WebXMessageHeader.IMAGE, 1, IMAGE_SIZE);
+        this.windows = WebXMessages.create(WebXMessageHeader.WINDOWS, 0, 256);
+        this.mouse = WebXMessages.create(WebXMessageHeader.MOUSE, 0, 48);
+
+        boolean prioritised = !this.scheduling.equals("fifo");
+        int chunkSize = this.scheduling.equals("chunked") ? CHUNK_SIZE : 0;
+        OutboundConfiguration configuration = new OutboundConfiguration();
+        configuration.setQueueSizes(4 * 1024 * 1024, 16 * 1024 * 1024, 32 * 1024 * 1024);
+        configuration.setPrioritised(prioritised);
+        configuration.setImageChunkSize(chunkSize);
+
+        FakeSession session = new FakeSession("/ws");
+        this.remote = session.getRemote();
+        this.remote.setDeferred(true);
+        this.remote.setFrameListener(frame -> {
+            if (frame.order(ByteOrder.LITTLE_ENDIAN).getInt(frame.position() + 16) == WebXMessageHeader.MOUSE) {
+                this.bytesAheadOfMouse = this.bytesSent;
+            }
+            this.bytesSent += frame.remaining();
+        });
+        this.outboundQueue = new OutboundQueue(session, configuration, () -> {});
+        this.outboundQueue.setChunking(chunkSize > 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long bytesAhead = this.bytesAheadOfMouseTotal / Math.max(1, this.operationCount);
+        System.out.printf("%n%s: %d bytes sent before the mouse position (%.1fms at 100Mbit/s)%n", this.scheduling, bytesAhead, bytesAhead * 8 / 100.0e3);
+    }
+
+    @Benchmark
+    public long screenUpdate() throws InterruptedException {
+        this.bytesSent = 0;
+        this.outboundQueue.offer(this.image);
+        this.outboundQueue.offer(this.windows);
+        this.outboundQueue.offer(this.mouse);
+        while (this.remote.completeWrites() > 0) {
+            // Next round of writes
+        }
+
+        this.bytesAheadOfMouseTotal += this.bytesAheadOfMouse;
+        this.operationCount++;
+        return this.bytesSent;
+    }
+}
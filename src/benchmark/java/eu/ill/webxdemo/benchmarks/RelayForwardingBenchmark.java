@@ -0,0 +1,44 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.OutboundConfiguration;
+import eu.ill.webxdemo.services.MetricsService;
+import eu.ill.webxdemo.ws.ConnectionThread;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Forwarding of messages read from a tunnel to the WebSocket: one operation is one message
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RelayForwardingBenchmark {
+
+    private static final int MESSAGES_PER_INVOCATION = 1000;
+
+    private byte[][] messages;
+    private OutboundConfiguration configuration;
+
+    @Setup
+    public void setup() {
+        Benchmarks.quietLogging();
+        this.messages = WebXMessages.mix(256, 42);
+        this.configuration = new OutboundConfiguration();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_INVOCATION)
+    public long forward() {
+        FakeSession session = new FakeSession("/ws");
+        ConnectionThread connectionThread = new ConnectionThread(new FakeTunnel(this.messages, MESSAGES_PER_INVOCATION), session, this.configuration, MetricsService.instance().openSession("benchmark"));
+        connectionThread.run();
+
+        return session.getRemote().getFrameCount();
+    }
+}
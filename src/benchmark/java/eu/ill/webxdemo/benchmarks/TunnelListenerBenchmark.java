@@ -0,0 +1,63 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.Configuration;
+import eu.ill.webxdemo.model.RelayMode;
+import eu.ill.webxdemo.services.AuthService;
+import eu.ill.webxdemo.services.RelayService;
+import eu.ill.webxdemo.ws.TunnelConnector;
+import eu.ill.webxdemo.ws.WebSocketTunnelListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Parameter parsing, token lookup and connection setup of a WebSocket, with a tunnel connecting immediately. The tunnel
+// is connected on the connect executor: the WebSocket is closed once it is connected (and the client's reads resumed)
+// so that the connection is measured rather than its cancellation
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TunnelListenerBenchmark {
+
+    private Configuration configuration;
+    private TunnelConnector connector;
+
+    @Setup
+    public void setup() {
+        Benchmarks.quietLogging();
+        this.configuration = new Configuration();
+        this.configuration.setRelayMode(RelayMode.VIRTUAL);
+        this.connector = (hostConfiguration, clientConfiguration, engineConfiguration) -> new FakeTunnel(new byte[0][], 0);
+        RelayService.instance().start(RelayMode.VIRTUAL, 0);
+    }
+
+    @Benchmark
+    public int connectWithToken() throws InterruptedException {
+        String token = AuthService.instance().addAuthorisation("user:password");
+        FakeSession session = new FakeSession("/ws?webxhost=localhost&webxport=5555&token=" + token + "&width=1920&height=1080&keyboard=fr&client-version=1.3.0");
+
+        WebSocketTunnelListener listener = new WebSocketTunnelListener(this.configuration, this.connector);
+        listener.onWebSocketConnect(session);
+        session.awaitResumedOrClosed(10, TimeUnit.SECONDS);
+        listener.onWebSocketClose(1000, null);
+
+        return session.getCloseStatusCode();
+    }
+
+    @Benchmark
+    public int connectToSession() throws InterruptedException {
+        FakeSession session = new FakeSession("/ws?webxhost=localhost&webxport=5555&sessionid=0123456789abcdef0123456789abcdef&client-version=1.3.0");
+
+        WebSocketTunnelListener listener = new WebSocketTunnelListener(this.configuration, this.connector);
+        listener.onWebSocketConnect(session);
+        session.awaitResumedOrClosed(10, TimeUnit.SECONDS);
+        listener.onWebSocketClose(1000, null);
+
+        return session.getCloseStatusCode();
+    }
+}
@@ -0,0 +1,43 @@
+package eu.ill.webxdemo.benchmarks;
+
+import eu.ill.webxdemo.ws.WebXMessageHeader;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+// Synthetic WebX engine messages with realistic sizes
+public final class WebXMessages {
+
+    private WebXMessages() {
+    }
+
+    public static byte[] create(int type, long windowId, int size) {
+        byte[] data = new byte[Math.max(size, WebXMessageHeader.MESSAGE_HEADER_LENGTH + 8)];
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(16, type);
+        buffer.putInt(24, data.length);
+        buffer.putInt(WebXMessageHeader.MESSAGE_HEADER_LENGTH + 4, (int) windowId);
+        return data;
+    }
+
+    // Mix of mouse, window, subimage and image messages
+    public static byte[][] mix(int count, long seed) {
+        Random random = new Random(seed);
+        byte[][] messages = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(10);
+            long windowId = random.nextInt(8);
+            if (kind < 4) {
+                messages[i] = create(WebXMessageHeader.MOUSE, 0, 48);
+            } else if (kind < 6) {
+                messages[i] = create(WebXMessageHeader.WINDOWS, 0, 64 + random.nextInt(512));
+            } else if (kind < 9) {
+                messages[i] = create(WebXMessageHeader.SUBIMAGES, windowId, 1024 + random.nextInt(32 * 1024));
+            } else {
+                messages[i] = create(WebXMessageHeader.IMAGE, windowId, 64 * 1024 + random.nextInt(512 * 1024));
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,38 @@
+package eu.ill.webxdemo.benchmarks.connect;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketListener;
+
+import java.util.concurrent.CompletableFuture;
+
+// Fake browser waiting for its WebSocket to be closed by the relay, keeping the status code
+public class CloseStatusClient implements WebSocketListener {
+
+    private final CompletableFuture<Integer> closeStatus = new CompletableFuture<>();
+
+    public CompletableFuture<Integer> getCloseStatus() {
+        return closeStatus;
+    }
+
+    @Override
+    public void onWebSocketConnect(final Session session) {
+    }
+
+    @Override
+    public void onWebSocketBinary(final byte[] payload, final int offset, final int length) {
+    }
+
+    @Override
+    public void onWebSocketText(final String message) {
+    }
+
+    @Override
+    public void onWebSocketClose(final int statusCode, final String reason) {
+        this.closeStatus.complete(statusCode);
+    }
+
+    @Override
+    public void onWebSocketError(final Throwable cause) {
+        this.closeStatus.completeExceptionally(cause);
+    }
+}
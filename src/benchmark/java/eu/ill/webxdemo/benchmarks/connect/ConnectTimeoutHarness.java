@@ -0,0 +1,144 @@
+package eu.ill.webxdemo.benchmarks.connect;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import eu.ill.webxdemo.Configuration;
+import eu.ill.webxdemo.model.RelayMode;
+import eu.ill.webxdemo.services.ConnectService;
+import eu.ill.webxdemo.services.RelayService;
+import eu.ill.webxdemo.ws.WebSocketTunnelServlet;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.eclipse.jetty.servlet.ServletContextHandler.NO_SESSIONS;
+
+// Check of the connect timeout against a deliberately slow WebX host: runs the relay's WebSocket servlet in-process with
+// a connector that takes --connect-delay-ms (longer than --connect-timeout-ms) to connect each tunnel, and checks that
+// every client's WebSocket is closed with 1013 (try again later) at the timeout, that the relay slots reserved for the
+// tunnels are released, and that the tunnels connected after the timeout are disconnected. Exits with 1 if a check fails:
+//   java -cp target/webx-demo-benchmarks.jar eu.ill.webxdemo.benchmarks.connect.ConnectTimeoutHarness --clients 20
+public class ConnectTimeoutHarness {
+
+    @Parameter(names = {"--clients"}, description = "Number of clients connecting at the same time (also the relay's maximum number of tunnels)")
+    private int clients = 20;
+
+    @Parameter(names = {"--connect-timeout-ms"}, description = "Connect timeout of the relay in milliseconds")
+    private long connectTimeoutMs = 500;
+
+    @Parameter(names = {"--connect-delay-ms"}, description = "Time in milliseconds taken by the fake WebX host to connect a tunnel")
+    private long connectDelayMs = 1500;
+
+    public static void main(String... argv) throws Exception {
+        final ConnectTimeoutHarness harness = new ConnectTimeoutHarness();
+        JCommander.newBuilder()
+                .addObject(harness)
+                .build()
+                .parse(argv);
+
+        boolean passed = harness.run();
+
+        // The executors of the relay's services are not stopped
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        if (this.connectDelayMs <= this.connectTimeoutMs) {
+            throw new IllegalArgumentException("The connect delay must be longer than the connect timeout");
+        }
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        Configuration configuration = new Configuration();
+        configuration.setStandaloneHost("slow");
+        configuration.setRelayMode(RelayMode.VIRTUAL);
+        configuration.setMaxTunnels(this.clients);
+        RelayService.instance().start(RelayMode.VIRTUAL, this.clients);
+        ConnectService.instance().start(this.clients, this.clients, this.connectTimeoutMs);
+
+        Queue<SlowTunnel> tunnels = new ConcurrentLinkedQueue<>();
+        WebSocketTunnelServlet servlet = new WebSocketTunnelServlet(configuration, (hostConfiguration, clientConfiguration, engineConfiguration) -> {
+            SlowTunnel tunnel = SlowTunnel.connect(this.connectDelayMs);
+            tunnels.add(tunnel);
+            return tunnel;
+        });
+
+        Server server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler(server, "/", NO_SESSIONS);
+        context.addServlet(new ServletHolder(servlet), "/ws");
+        server.start();
+
+        WebSocketClient webSocketClient = new WebSocketClient();
+        webSocketClient.start();
+        URI uri = URI.create("ws://localhost:" + connector.getLocalPort() + "/ws");
+        List<CloseStatusClient> clients = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < this.clients; i++) {
+            CloseStatusClient client = new CloseStatusClient();
+            clients.add(client);
+            webSocketClient.connect(client, uri).get(10, TimeUnit.SECONDS);
+        }
+
+        // Clients are closed at the timeout, before the tunnels are connected
+        int timedOutCount = 0;
+        for (CloseStatusClient client : clients) {
+            Integer closeStatus = client.getCloseStatus().get(this.connectDelayMs + 10000, TimeUnit.MILLISECONDS);
+            if (closeStatus == StatusCode.TRY_AGAIN_LATER) {
+                timedOutCount++;
+            }
+        }
+        long closeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        // All the relay slots must be free again: each can be reserved
+        int reservedCount = 0;
+        while (reservedCount < this.clients && RelayService.instance().reserve()) {
+            reservedCount++;
+        }
+        for (int i = 0; i < reservedCount; i++) {
+            RelayService.instance().release();
+        }
+
+        // Tunnels connected after the timeout are discarded
+        Thread.sleep(this.connectDelayMs);
+        int disconnectedCount = 0;
+        for (SlowTunnel tunnel : tunnels) {
+            if (tunnel.awaitDisconnected(5, TimeUnit.SECONDS)) {
+                disconnectedCount++;
+            }
+        }
+
+        System.out.printf("%nClients: %d, connect timeout: %dms, connect delay: %dms%n", this.clients, this.connectTimeoutMs, this.connectDelayMs);
+        boolean passed = check(String.format("WebSockets closed with %d after %dms", StatusCode.TRY_AGAIN_LATER, closeMs), timedOutCount, this.clients);
+        passed &= check("Connections timed out", (int) ConnectService.instance().getTimeoutCount(), this.clients);
+        passed &= check("Relay slots released", reservedCount, this.clients);
+        passed &= check("Relay threads started", (int) RelayService.instance().getStartedCount(), 0);
+        passed &= check("Late tunnels connected", tunnels.size(), this.clients);
+        passed &= check("Late tunnels disconnected", disconnectedCount, this.clients);
+
+        webSocketClient.stop();
+        server.stop();
+        RelayService.instance().stop();
+        ConnectService.instance().stop();
+        return passed;
+    }
+
+    private static boolean check(final String name, final int value, final int expected) {
+        boolean passed = value == expected;
+        System.out.printf("%s: %d (expected %d) %s%n", name, value, expected, passed ? "OK" : "FAILED");
+        return passed;
+    }
+}
@@ -0,0 +1,52 @@
+package eu.ill.webxdemo.benchmarks.connect;
+
+import eu.ill.webxdemo.ws.RelayTunnel;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Tunnel to a fake WebX host that takes a fixed time to connect (as a login starting a new X session would), then sends
+// nothing until it is disconnected
+public class SlowTunnel implements RelayTunnel {
+
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+
+    public static SlowTunnel connect(final long connectDelayMs) {
+        long connectTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectDelayMs);
+        long waitNanos;
+        while ((waitNanos = connectTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+        return new SlowTunnel();
+    }
+
+    public boolean awaitDisconnected(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return this.disconnected.await(timeout, unit);
+    }
+
+    @Override
+    public byte[] read() {
+        try {
+            this.disconnected.await();
+
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    @Override
+    public void write(final byte[] data) {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.disconnected.getCount() > 0;
+    }
+
+    @Override
+    public void disconnect() {
+        this.disconnected.countDown();
+    }
+}
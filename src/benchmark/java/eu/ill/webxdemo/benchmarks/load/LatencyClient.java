@@ -0,0 +1,68 @@
+package eu.ill.webxdemo.benchmarks.load;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketListener;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// Fake browser recording the latency of each frame received from a PacedTunnel: the time between its send time on the
+// fake host and its reception (the host and the client run in the same process)
+public class LatencyClient implements WebSocketListener {
+
+    private volatile Session session;
+    private long[] latencies = new long[1024];
+    private int frameCount = 0;
+    private boolean recording = false;
+
+    // Frames received before are not counted (warm-up)
+    public synchronized void startRecording() {
+        this.recording = true;
+    }
+
+    public synchronized void stopRecording() {
+        this.recording = false;
+    }
+
+    public synchronized long[] getLatencies() {
+        return Arrays.copyOf(this.latencies, this.frameCount);
+    }
+
+    @Override
+    public void onWebSocketConnect(final Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public synchronized void onWebSocketBinary(final byte[] payload, final int offset, final int length) {
+        if (!this.recording) {
+            return;
+        }
+        long latency = System.nanoTime() - ByteBuffer.wrap(payload, offset, length).order(ByteOrder.LITTLE_ENDIAN).getLong(offset + length - 8);
+        if (this.frameCount == this.latencies.length) {
+            this.latencies = Arrays.copyOf(this.latencies, this.latencies.length * 2);
+        }
+        this.latencies[this.frameCount++] = latency;
+    }
+
+    public void close() {
+        Session session = this.session;
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    @Override
+    public void onWebSocketText(final String message) {
+    }
+
+    @Override
+    public void onWebSocketClose(final int statusCode, final String reason) {
+        this.session = null;
+    }
+
+    @Override
+    public void onWebSocketError(final Throwable throwable) {
+    }
+}
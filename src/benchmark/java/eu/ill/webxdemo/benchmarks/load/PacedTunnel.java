@@ -0,0 +1,57 @@
+package eu.ill.webxdemo.benchmarks.load;
+
+import eu.ill.webxdemo.benchmarks.WebXMessages;
+import eu.ill.webxdemo.ws.RelayTunnel;
+import eu.ill.webxdemo.ws.WebXMessageHeader;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+// Fake WebX host sending subimages of a fixed size at a fixed rate, each one stamped with its send time (System.nanoTime
+// in its last 8 bytes) so that the client can measure its latency through the relay. Frames are spread over the
+// period so that tunnels don't all send at once. Instructions from the client are discarded
+public class PacedTunnel implements RelayTunnel {
+
+    private final int frameSize;
+    private final long periodNanos;
+    private long nextFrameTime;
+    private volatile boolean connected = true;
+
+    public PacedTunnel(final int frameSize, final int frameRate) {
+        this.frameSize = frameSize;
+        this.periodNanos = 1_000_000_000L / frameRate;
+        this.nextFrameTime = System.nanoTime() + ThreadLocalRandom.current().nextLong(this.periodNanos);
+    }
+
+    @Override
+    public byte[] read() {
+        long waitNanos;
+        while (this.connected && (waitNanos = this.nextFrameTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+        if (!this.connected) {
+            return null;
+        }
+        this.nextFrameTime += this.periodNanos;
+
+        byte[] frame = WebXMessages.create(WebXMessageHeader.SUBIMAGES, 1, this.frameSize);
+        ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN).putLong(frame.length - 8, System.nanoTime());
+        return frame;
+    }
+
+    @Override
+    public void write(final byte[] data) {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    @Override
+    public void disconnect() {
+        this.connected = false;
+    }
+}
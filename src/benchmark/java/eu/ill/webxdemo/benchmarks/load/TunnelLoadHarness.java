@@ -0,0 +1,179 @@
+package eu.ill.webxdemo.benchmarks.load;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import eu.ill.webxdemo.Configuration;
+import eu.ill.webxdemo.ServerConfiguration;
+import eu.ill.webxdemo.model.RelayMode;
+import eu.ill.webxdemo.model.ServerProfile;
+import eu.ill.webxdemo.services.RelayService;
+import eu.ill.webxdemo.ws.WebSocketTunnelServlet;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.eclipse.jetty.servlet.ServletContextHandler.NO_SESSIONS;
+
+// Load test of the relay's tunnel threads: runs the relay's WebSocket servlet in-process with --tunnels fake WebX hosts
+// each sending --frame-rate frames of --frame-size bytes per second to its own WebSocket client, and reports the peak
+// number of platform threads and of relay threads, the peak resident memory (RSS, Linux only) and the latency of the
+// frames through the relay. Each relay mode is run in its own JVM so that their memory is not mixed, eg:
+//   java -cp target/webx-demo-benchmarks.jar eu.ill.webxdemo.benchmarks.load.TunnelLoadHarness --tunnels 2000 --relay-mode platform --relay-mode virtual
+public class TunnelLoadHarness {
+
+    private static final long SAMPLE_INTERVAL_MS = 500;
+
+    @Parameter(names = {"--tunnels"}, description = "Number of simultaneous tunnels")
+    private int tunnels = 500;
+
+    @Parameter(names = {"--frame-rate"}, description = "Frames sent per second by each fake WebX host")
+    private int frameRate = 30;
+
+    @Parameter(names = {"--frame-size"}, description = "Size in bytes of the frames")
+    private int frameSize = 4096;
+
+    @Parameter(names = {"--duration-s"}, description = "Time in seconds during which latencies are measured, once all the tunnels are connected")
+    private int durationSeconds = 20;
+
+    @Parameter(names = {"--relay-mode"}, description = "Threads used to relay tunnel data: platform or virtual (can be repeated, each mode is run in a new JVM)")
+    private List<String> relayModes = new ArrayList<>(List.of("platform", "virtual"));
+
+    public static void main(String... argv) throws Exception {
+        final TunnelLoadHarness harness = new TunnelLoadHarness();
+        JCommander.newBuilder()
+                .addObject(harness)
+                .build()
+                .parse(argv);
+
+        if (harness.relayModes.size() == 1) {
+            harness.run(RelayMode.valueOf(harness.relayModes.get(0).toUpperCase()));
+
+            // The executors of the relay's services are not stopped
+            System.exit(0);
+
+        } else {
+            harness.fork();
+        }
+    }
+
+    private void fork() throws IOException, InterruptedException {
+        for (String relayMode : this.relayModes) {
+            List<String> command = new ArrayList<>(List.of(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    TunnelLoadHarness.class.getName(),
+                    "--tunnels", String.valueOf(this.tunnels),
+                    "--frame-rate", String.valueOf(this.frameRate),
+                    "--frame-size", String.valueOf(this.frameSize),
+                    "--duration-s", String.valueOf(this.durationSeconds),
+                    "--relay-mode", relayMode));
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            if (process.waitFor() != 0) {
+                System.out.printf("Run with %s threads failed%n", relayMode);
+            }
+        }
+    }
+
+    private void run(final RelayMode relayMode) throws Exception {
+        Logger.getRootLogger().setLevel(Level.WARN);
+        long startRss = getRss();
+
+        Configuration configuration = new Configuration();
+        configuration.setStandaloneHost("load");
+        configuration.setRelayMode(relayMode);
+        configuration.setServerConfiguration(ServerConfiguration.fromProfile(ServerProfile.MANY_SESSIONS));
+        RelayService.instance().start(relayMode, 0);
+        WebSocketTunnelServlet servlet = new WebSocketTunnelServlet(configuration, (hostConfiguration, clientConfiguration, engineConfiguration) ->
+                new PacedTunnel(this.frameSize, this.frameRate));
+
+        Server server = new Server(new QueuedThreadPool(200, 8));
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        connector.setAcceptQueueSize(1024);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler(server, "/", NO_SESSIONS);
+        context.addServlet(new ServletHolder(servlet), "/ws");
+        server.start();
+
+        WebSocketClient webSocketClient = new WebSocketClient();
+        webSocketClient.start();
+        URI uri = URI.create("ws://localhost:" + connector.getLocalPort() + "/ws");
+        List<LatencyClient> clients = new ArrayList<>();
+        for (int i = 0; i < this.tunnels; i++) {
+            LatencyClient client = new LatencyClient();
+            clients.add(client);
+            webSocketClient.connect(client, uri).get(30, TimeUnit.SECONDS);
+        }
+
+        // Relay threads are only visible as platform threads: virtual threads are mounted on the carrier threads
+        clients.forEach(LatencyClient::startRecording);
+        long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.durationSeconds);
+        int peakThreads = 0;
+        int peakRelayThreads = 0;
+        long peakRss = startRss;
+        while (System.nanoTime() < endTime) {
+            Thread.sleep(SAMPLE_INTERVAL_MS);
+            peakThreads = Math.max(peakThreads, ManagementFactory.getThreadMXBean().getThreadCount());
+            peakRelayThreads = Math.max(peakRelayThreads, (int) Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().startsWith("webx-relay-")).count());
+            peakRss = Math.max(peakRss, getRss());
+        }
+        clients.forEach(LatencyClient::stopRecording);
+
+        long[] latencies = clients.stream().map(LatencyClient::getLatencies).flatMapToLong(Arrays::stream).sorted().toArray();
+
+        System.out.printf("%nRelay mode: %s, tunnels: %d, %d frames/s of %d bytes each%n", relayMode.name().toLowerCase(), this.tunnels, this.frameRate, this.frameSize);
+        System.out.printf("Threads: %d platform threads at peak (relay and clients), %d of them relaying tunnels%n", peakThreads, peakRelayThreads);
+        System.out.printf("RSS: %s at peak (%s before connecting)%n", formatRss(peakRss), formatRss(startRss));
+        System.out.printf("Frames: %d received in %ds (%.0f/s, %d/s sent)%n", latencies.length, this.durationSeconds, latencies.length / (double) this.durationSeconds, this.tunnels * this.frameRate);
+        if (latencies.length > 0) {
+            System.out.printf("Latency per frame: p50 %.2fms, p99 %.2fms, max %.2fms%n", percentile(latencies, 0.5) / 1.0e6, percentile(latencies, 0.99) / 1.0e6, latencies[latencies.length - 1] / 1.0e6);
+        }
+
+        // The relay is stopped once its tunnels are closed, so that it doesn't write to closed WebSockets
+        clients.forEach(LatencyClient::close);
+        long closeDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (RelayService.instance().getActiveTunnelCount() > 0 && System.nanoTime() < closeDeadline) {
+            Thread.sleep(100);
+        }
+        webSocketClient.stop();
+        server.stop();
+        RelayService.instance().stop();
+    }
+
+    // Resident memory of this process in bytes, -1 if unknown
+    private static long getRss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    private static String formatRss(final long rss) {
+        return rss < 0 ? "unknown" : String.format("%.1fMB", rss / (1024.0 * 1024.0));
+    }
+
+    private static long percentile(final long[] sorted, final double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)))];
+    }
+}
@@ -0,0 +1,129 @@
+package eu.ill.webxdemo.benchmarks.replay;
+
+import eu.ill.webxdemo.recording.TunnelRecording;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+// Fake browser: sends the instructions of a recorded tunnel at their recorded times divided by the speed and measures
+// the messages received, disconnecting once all the recorded messages have been received. The lag of a message is the time between its scheduled time on the fake host and its reception
+public class ReplayClient implements WebSocketListener {
+
+    private final List<TunnelRecording.Message> instructions;
+    private final List<TunnelRecording.Message> messages;
+    private final double speed;
+    private final CountDownLatch closed;
+    private final long[] lags;
+
+    private volatile Session session;
+    private long startTime;
+    private int receivedCount = 0;
+    private long receivedBytes = 0;
+
+    public ReplayClient(final TunnelRecording recording, final double speed, final CountDownLatch closed) {
+        this.instructions = recording.getClientMessages();
+        this.messages = recording.getHostMessages();
+        this.speed = speed;
+        this.closed = closed;
+        this.lags = new long[this.messages.size()];
+    }
+
+    public synchronized int getReceivedCount() {
+        return receivedCount;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    // Lags in nanoseconds of the messages received (only meaningful when replaying at a given speed)
+    public synchronized long[] getLags() {
+        long[] lags = new long[Math.min(this.receivedCount, this.lags.length)];
+        System.arraycopy(this.lags, 0, lags, 0, lags.length);
+        return lags;
+    }
+
+    @Override
+    public void onWebSocketConnect(final Session session) {
+        synchronized (this) {
+            this.session = session;
+            this.startTime = System.nanoTime();
+        }
+
+        Thread thread = new Thread(this::sendInstructions, "replay-client");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void onWebSocketBinary(final byte[] payload, final int offset, final int length) {
+        if (this.speed > 0 && this.receivedCount < this.messages.size()) {
+            long scheduledTime = this.startTime + (long) (this.messages.get(this.receivedCount).getTimestampNanos() / this.speed);
+            this.lags[this.receivedCount] = Math.max(0, System.nanoTime() - scheduledTime);
+        }
+        this.receivedCount++;
+        this.receivedBytes += length;
+
+        if (this.receivedCount == this.messages.size()) {
+            this.session.close();
+        }
+    }
+
+    public void close() {
+        Session session = this.session;
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    public long getDurationNanos() {
+        return this.messages.isEmpty() ? 0 : this.messages.get(this.messages.size() - 1).getTimestampNanos();
+    }
+
+    @Override
+    public void onWebSocketText(final String message) {
+    }
+
+    @Override
+    public void onWebSocketClose(final int statusCode, final String reason) {
+        this.session = null;
+        this.closed.countDown();
+    }
+
+    @Override
+    public void onWebSocketError(final Throwable throwable) {
+    }
+
+    private void sendInstructions() {
+        long startTime;
+        synchronized (this) {
+            startTime = this.startTime;
+        }
+
+        for (TunnelRecording.Message instruction : this.instructions) {
+            if (this.speed > 0) {
+                long sendTime = startTime + (long) (instruction.getTimestampNanos() / this.speed);
+                long waitNanos;
+                while (this.session != null && (waitNanos = sendTime - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+            }
+
+            Session session = this.session;
+            if (session == null) {
+                return;
+            }
+            try {
+                session.getRemote().sendBytes(ByteBuffer.wrap(instruction.getData()));
+
+            } catch (IOException exception) {
+                return;
+            }
+        }
+    }
+}
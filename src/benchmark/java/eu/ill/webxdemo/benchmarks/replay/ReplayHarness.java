@@ -0,0 +1,228 @@
+package eu.ill.webxdemo.benchmarks.replay;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.sun.management.OperatingSystemMXBean;
+import eu.ill.webxdemo.Configuration;
+import eu.ill.webxdemo.ServerConfiguration;
+import eu.ill.webxdemo.TlsConfiguration;
+import eu.ill.webxdemo.memory.BufferPool;
+import eu.ill.webxdemo.memory.MemoryBudget;
+import eu.ill.webxdemo.model.RelayMode;
+import eu.ill.webxdemo.model.ServerProfile;
+import eu.ill.webxdemo.recording.TunnelRecording;
+import eu.ill.webxdemo.services.MetricsService;
+import eu.ill.webxdemo.services.RelayService;
+import eu.ill.webxdemo.tls.TlsContextFactory;
+import eu.ill.webxdemo.ws.WebSocketTunnelServlet;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.AbstractConnectionFactory;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.eclipse.jetty.servlet.ServletContextHandler.NO_SESSIONS;
+
+// Load test of the relay with recorded tunnels (see --record-dir): runs the relay's WebSocket servlet in-process with
+// tunnels replaying the WebX host side of the recordings, and connects clients replaying the browser side. Recordings
+// are assigned to the clients (and their tunnels) in turn. For example, to replay a recording with 100 clients at 10x:
+//   java -cp target/webx-demo-benchmarks.jar eu.ill.webxdemo.benchmarks.replay.ReplayHarness --clients 100 --speed 10 tunnel-1.webxrec
+public class ReplayHarness {
+
+    @Parameter(description = "Recordings to replay", required = true)
+    private List<String> recordings = new ArrayList<>();
+
+    @Parameter(names = {"--clients"}, description = "Number of simultaneous clients")
+    private int clients = 10;
+
+    @Parameter(names = {"--speed"}, description = "Replay speed relative to the recording (0 for as fast as possible)")
+    private double speed = 1;
+
+    @Parameter(names = {"--relay-mode"}, description = "Threads used to relay tunnel data: platform or virtual")
+    private RelayMode relayMode = RelayMode.PLATFORM;
+
+    @Parameter(names = {"--server-profile"}, description = "Jetty settings of the relay: default, many_sessions or large_sessions")
+    private ServerProfile serverProfile = ServerProfile.DEFAULT;
+
+    @Parameter(names = {"--batch-window-us"}, description = "Batch window of the relay in microseconds")
+    private int batchWindowMicros = 0;
+
+    @Parameter(names = {"--congestion-filter"}, description = "Enable the relay's congestion filter (lags are then not measured accurately)")
+    private boolean congestionFilter = false;
+
+    @Parameter(names = {"--mouse-coalesce-window-us"}, description = "Window of the relay's mouse move coalescing in microseconds")
+    private int mouseCoalesceWindowMicros = 0;
+
+    @Parameter(names = {"--buffer-pool"}, description = "Use the relay's buffer pool for the network buffers of the relay (instead of Jetty's default pool)")
+    private boolean bufferPool = false;
+
+    @Parameter(names = {"--memory-budget"}, description = "Memory budget of the relay in bytes (0 for no limit)")
+    private long memoryBudget = 0;
+
+    @Parameter(names = {"--tls"}, description = "Connect the clients with TLS, using a self-signed certificate generated with keytool")
+    private boolean tls = false;
+
+    public static void main(String... argv) throws Exception {
+        final ReplayHarness harness = new ReplayHarness();
+        JCommander.newBuilder()
+                .addObject(harness)
+                .build()
+                .parse(argv);
+        harness.run();
+    }
+
+    private void run() throws Exception {
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        List<TunnelRecording> recordings = new ArrayList<>();
+        for (String recording : this.recordings) {
+            recordings.add(TunnelRecording.read(Paths.get(recording)));
+        }
+
+        Configuration configuration = new Configuration();
+        configuration.setStandaloneHost("replay");
+        configuration.setRelayMode(this.relayMode);
+        configuration.setServerConfiguration(ServerConfiguration.fromProfile(this.serverProfile));
+        configuration.setInputCoalescingWindowMicros(this.mouseCoalesceWindowMicros);
+        configuration.getOutboundConfiguration().setBatchWindowMicros(this.batchWindowMicros);
+        configuration.getOutboundConfiguration().setCongestionFilter(this.congestionFilter);
+        RelayService.instance().start(this.relayMode, 0);
+
+        // Tunnels are given the recordings in the order in which they connect, as the clients
+        AtomicInteger tunnelCount = new AtomicInteger();
+        WebSocketTunnelServlet servlet = new WebSocketTunnelServlet(configuration, (hostConfiguration, clientConfiguration, engineConfiguration) ->
+                new ReplayTunnel(recordings.get(tunnelCount.getAndIncrement() % recordings.size()), this.speed));
+
+        MemoryBudget.instance().start(this.memoryBudget);
+        Server server = new Server();
+        ByteBufferPool byteBufferPool = this.bufferPool ? BufferPool.instance() : null;
+        SslContextFactory sslContextFactory = this.tls ? TlsContextFactory.create(createSelfSignedConfiguration()) : null;
+        ServerConnector connector = new ServerConnector(server, null, null, byteBufferPool, -1, -1, AbstractConnectionFactory.getFactories(sslContextFactory, new HttpConnectionFactory()));
+        connector.setPort(0);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler(server, "/", NO_SESSIONS);
+        context.addServlet(new ServletHolder(servlet), "/ws");
+        server.start();
+
+        // The self-signed certificate of the relay is trusted without verification
+        HttpClient httpClient = new HttpClient(new SslContextFactory.Client(true));
+        httpClient.start();
+        WebSocketClient webSocketClient = new WebSocketClient(httpClient);
+        webSocketClient.getPolicy().setMaxBinaryMessageSize(64 * 1024 * 1024);
+        webSocketClient.start();
+
+        URI uri = URI.create((this.tls ? "wss" : "ws") + "://localhost:" + connector.getLocalPort() + "/ws");
+        CountDownLatch closed = new CountDownLatch(this.clients);
+        List<ReplayClient> replayClients = new ArrayList<>();
+        OperatingSystemMXBean operatingSystem = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long startCpuTime = operatingSystem.getProcessCpuTime();
+        long startGcCount = getGcCount();
+        long startGcTime = getGcTime();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < this.clients; i++) {
+            ReplayClient replayClient = new ReplayClient(recordings.get(i % recordings.size()), this.speed, closed);
+            replayClients.add(replayClient);
+            webSocketClient.connect(replayClient, uri).get(30, TimeUnit.SECONDS);
+        }
+
+        // Messages discarded by the congestion filter are never received: clients still open after the recording has
+        // been replayed are closed after a timeout
+        long timeoutNanos = replayClients.stream().mapToLong(ReplayClient::getDurationNanos).max().orElse(0);
+        timeoutNanos = (this.speed > 0 ? (long) (timeoutNanos / this.speed) : 0) + TimeUnit.SECONDS.toNanos(30);
+        if (!closed.await(timeoutNanos, TimeUnit.NANOSECONDS)) {
+            System.out.printf("%d clients did not receive all their messages%n", closed.getCount());
+            replayClients.forEach(ReplayClient::close);
+        }
+        double durationSeconds = (System.nanoTime() - startTime) / 1.0e9;
+        double cpuSeconds = (operatingSystem.getProcessCpuTime() - startCpuTime) / 1.0e9;
+        long gcCount = getGcCount() - startGcCount;
+        long gcTime = getGcTime() - startGcTime;
+
+        long messages = 0;
+        long bytes = 0;
+        List<long[]> allLags = new ArrayList<>();
+        for (ReplayClient replayClient : replayClients) {
+            messages += replayClient.getReceivedCount();
+            bytes += replayClient.getReceivedBytes();
+            allLags.add(replayClient.getLags());
+        }
+        long[] lags = allLags.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("Clients: %d, speed: %s, duration: %.1fs%s%n", this.clients, this.speed > 0 ? this.speed + "x" : "max", durationSeconds, this.tls ? ", TLS" : "");
+        System.out.printf("Messages: %d (%.0f/s), bytes: %d (%.1f MB/s, %.1f MB/s per core over %d cores)%n", messages, messages / durationSeconds, bytes, bytes / durationSeconds / 1.0e6, bytes / durationSeconds / 1.0e6 / cores, cores);
+        System.out.printf("CPU (relay and clients): %.1fs (%.2f ms per MB)%n", cpuSeconds, bytes > 0 ? cpuSeconds * 1.0e3 / (bytes / 1.0e6) : 0);
+        System.out.printf("GC: %d collections, %dms (%.1f collections per GB)%n", gcCount, gcTime, bytes > 0 ? gcCount / (bytes / 1.0e9) : 0);
+        if (this.bufferPool) {
+            BufferPool pool = BufferPool.instance();
+            System.out.printf("Buffer pool: %d hits, %d misses (hit rate %.1f%%)%n", pool.getHitCount(), pool.getMissCount(), 100.0 * pool.getHitCount() / Math.max(1, pool.getHitCount() + pool.getMissCount()));
+        }
+        if (this.memoryBudget > 0) {
+            System.out.printf("Memory budget: %d waits, %.1fs waited%n", MemoryBudget.instance().getWaitCount(), MemoryBudget.instance().getWaitNanos() / 1.0e9);
+        }
+        if (this.mouseCoalesceWindowMicros > 0) {
+            long mouseMoves = MetricsService.instance().getMouseMoveCount();
+            long coalescedMouseMoves = MetricsService.instance().getCoalescedMouseMoveCount();
+            System.out.printf("Mouse moves: %d received, %d written (coalescing ratio %.1f)%n", mouseMoves, mouseMoves - coalescedMouseMoves, mouseMoves / (double) Math.max(1, mouseMoves - coalescedMouseMoves));
+        }
+        if (this.speed > 0 && lags.length > 0) {
+            System.out.printf("Lag: p50 %.1fms, p99 %.1fms, max %.1fms%n", percentile(lags, 0.5) / 1.0e6, percentile(lags, 0.99) / 1.0e6, lags[lags.length - 1] / 1.0e6);
+        }
+
+        webSocketClient.stop();
+        httpClient.stop();
+        server.stop();
+    }
+
+    private static long getGcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long getGcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    // Generates a throwaway keystore with keytool, as the JDK has no public API to create certificates
+    private static TlsConfiguration createSelfSignedConfiguration() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("webx-replay");
+        Path keyStorePath = directory.resolve("replay.p12");
+        Path keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool");
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "replay", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", keyStorePath.toString(), "-storepass", "replay")
+                .inheritIO()
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("Failed to generate a self-signed certificate with " + keytool);
+        }
+        keyStorePath.toFile().deleteOnExit();
+        directory.toFile().deleteOnExit();
+        TlsConfiguration configuration = new TlsConfiguration();
+        configuration.setKeyStore(0, keyStorePath, "replay");
+        return configuration;
+    }
+
+    private static long percentile(final long[] sorted, final double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)))];
+    }
+}
@@ -0,0 +1,62 @@
+package eu.ill.webxdemo.benchmarks.replay;
+
+import eu.ill.webxdemo.recording.TunnelRecording;
+import eu.ill.webxdemo.ws.RelayTunnel;
+
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+// Fake WebX host: returns the messages of a recorded tunnel at their recorded times divided by the speed (or as fast
+// as possible with a speed of 0), then waits for the client to disconnect (closing the tunnel would discard the
+// messages still queued by the relay). Instructions from the client are discarded
+public class ReplayTunnel implements RelayTunnel {
+
+    private static final long IDLE_NANOS = 10_000_000;
+
+    private final List<TunnelRecording.Message> messages;
+    private final double speed;
+    private final long startTime = System.nanoTime();
+    private int index = 0;
+    private volatile boolean connected = true;
+
+    public ReplayTunnel(final TunnelRecording recording, final double speed) {
+        this.messages = recording.getHostMessages();
+        this.speed = speed;
+    }
+
+    @Override
+    public byte[] read() {
+        if (this.index == this.messages.size()) {
+            while (this.connected) {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        if (!this.connected) {
+            return null;
+        }
+
+        TunnelRecording.Message message = this.messages.get(this.index++);
+        if (this.speed > 0) {
+            long sendTime = this.startTime + (long) (message.getTimestampNanos() / this.speed);
+            long waitNanos;
+            while (this.connected && (waitNanos = sendTime - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+        }
+        return this.connected ? message.getData() : null;
+    }
+
+    @Override
+    public void write(final byte[] data) {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.connected;
+    }
+
+    @Override
+    public void disconnect() {
+        this.connected = false;
+    }
+}
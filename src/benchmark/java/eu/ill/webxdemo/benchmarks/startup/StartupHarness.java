@@ -0,0 +1,190 @@
+package eu.ill.webxdemo.benchmarks.startup;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cold start of the relay: launches the relay jar in a new JVM and measures the time until its first WebSocket is
+// accepted (the upgrade returns 101), the time until the API answers, and the resident memory (RSS, Linux only) at
+// both points. Compare runs with and without a class data sharing archive (see the cds profile), eg:
+//   java -cp target/webx-demo-benchmarks.jar eu.ill.webxdemo.benchmarks.startup.StartupHarness --jar target/webx-demo.jar --cds-archive target/webx-demo.jsa
+public class StartupHarness {
+
+    private static final long POLL_INTERVAL_MS = 10;
+
+    @Parameter(description = "Arguments of the relay")
+    private List<String> relayArguments = new ArrayList<>();
+
+    @Parameter(names = {"--jar"}, description = "Jar of the relay")
+    private String jar = "target/webx-demo.jar";
+
+    @Parameter(names = {"--cds-archive"}, description = "Class data sharing archive of the relay (not used if not set)")
+    private String cdsArchive = null;
+
+    @Parameter(names = {"--java-option"}, description = "Option of the relay's JVM (can be repeated)")
+    private List<String> javaOptions = new ArrayList<>();
+
+    @Parameter(names = {"--runs"}, description = "Number of times the relay is started")
+    private int runs = 5;
+
+    @Parameter(names = {"--timeout-s"}, description = "Time in seconds after which a start is considered failed")
+    private int timeoutSeconds = 60;
+
+    public static void main(String... argv) throws Exception {
+        final StartupHarness harness = new StartupHarness();
+        JCommander.newBuilder()
+                .addObject(harness)
+                .build()
+                .parse(argv);
+        harness.run();
+    }
+
+    private void run() throws Exception {
+        List<Long> webSocketTimes = new ArrayList<>();
+        List<Long> apiTimes = new ArrayList<>();
+        List<Long> webSocketRss = new ArrayList<>();
+        List<Long> apiRss = new ArrayList<>();
+
+        for (int i = 0; i < this.runs; i++) {
+            int port = getFreePort();
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(this.javaOptions);
+            if (this.cdsArchive != null) {
+                command.add("-XX:SharedArchiveFile=" + this.cdsArchive);
+            }
+            command.add("-jar");
+            command.add(this.jar);
+            command.add("--port");
+            command.add(String.valueOf(port));
+            command.addAll(this.relayArguments);
+
+            long startTime = System.nanoTime();
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            try {
+                long deadline = startTime + TimeUnit.SECONDS.toNanos(this.timeoutSeconds);
+                while (!isWebSocketAccepted(port)) {
+                    waitForRetry(process, deadline);
+                }
+                long webSocketTime = System.nanoTime() - startTime;
+                webSocketRss.add(getRss(process));
+
+                while (!isApiReady(port)) {
+                    waitForRetry(process, deadline);
+                }
+                long apiTime = System.nanoTime() - startTime;
+                apiRss.add(getRss(process));
+
+                webSocketTimes.add(webSocketTime);
+                apiTimes.add(apiTime);
+                System.out.printf("Run %d: WebSocket accepted after %dms (RSS %s), API ready after %dms (RSS %s)%n",
+                        i + 1, TimeUnit.NANOSECONDS.toMillis(webSocketTime), formatRss(webSocketRss.get(i)),
+                        TimeUnit.NANOSECONDS.toMillis(apiTime), formatRss(apiRss.get(i)));
+
+            } finally {
+                process.destroy();
+                if (!process.waitFor(this.timeoutSeconds, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+
+        System.out.printf("%nMedian of %d runs%s: WebSocket accepted after %dms (RSS %s), API ready after %dms (RSS %s)%n",
+                this.runs, this.cdsArchive != null ? " with " + this.cdsArchive : "",
+                TimeUnit.NANOSECONDS.toMillis(median(webSocketTimes)), formatRss(median(webSocketRss)),
+                TimeUnit.NANOSECONDS.toMillis(median(apiTimes)), formatRss(median(apiRss)));
+    }
+
+    private static int getFreePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private static void waitForRetry(final Process process, final long deadline) throws InterruptedException {
+        if (!process.isAlive()) {
+            throw new IllegalStateException("Relay exited with status " + process.exitValue());
+        }
+        if (System.nanoTime() > deadline) {
+            throw new IllegalStateException("Relay not started before the timeout");
+        }
+        Thread.sleep(POLL_INTERVAL_MS);
+    }
+
+    // The WebSocket is closed by the relay once accepted, unless it has a WebX host to connect to
+    private static boolean isWebSocketAccepted(final int port) {
+        String request = "GET /ws HTTP/1.1\r\n"
+                + "Host: localhost:" + port + "\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(new byte[16]) + "\r\n\r\n";
+        String statusLine = request(port, request);
+        return statusLine != null && statusLine.startsWith("HTTP/1.1 101");
+    }
+
+    private static boolean isApiReady(final int port) {
+        String request = "GET /api/configuration HTTP/1.1\r\n"
+                + "Host: localhost:" + port + "\r\n"
+                + "Connection: close\r\n\r\n";
+        String statusLine = request(port, request);
+        return statusLine != null && statusLine.startsWith("HTTP/1.1 200");
+    }
+
+    // Returns the status line of the response, null if the relay is not listening yet
+    private static String request(final int port, final String request) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", port), 1000);
+            socket.setSoTimeout(30000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            return reader.readLine();
+
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    // Resident memory of the process in bytes, -1 if unknown
+    private static long getRss(final Process process) {
+        Path status = Paths.get("/proc", String.valueOf(process.pid()), "status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    private static String formatRss(final long rss) {
+        return rss < 0 ? "unknown" : String.format("%.1fMB", rss / (1024.0 * 1024.0));
+    }
+
+    private static long median(final List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,60 @@
+package eu.ill.webxdemo;
+
+import com.beust.jcommander.Parameter;
+import eu.ill.webxdemo.admission.AdmissionLimit;
+
+// Rate and tunnel limits per user, IP address and WebX host
+public class AdmissionConfiguration {
+
+    @Parameter(names = {"--user-rate"}, description = "Authentication requests per second allowed per user (0 for no limit)")
+    private double userRate = 0;
+
+    @Parameter(names = {"--user-burst"}, description = "Authentication requests per user allowed in a burst above --user-rate")
+    private int userBurst = 10;
+
+    @Parameter(names = {"--user-max-tunnels"}, description = "Maximum number of simultaneous tunnels per user (0 for no limit)")
+    private int userMaxTunnels = 0;
+
+    @Parameter(names = {"--ip-rate"}, description = "Authentication requests and WebSockets per second allowed per IP address (0 for no limit)")
+    private double ipRate = 0;
+
+    @Parameter(names = {"--ip-burst"}, description = "Authentication requests and WebSockets per IP address allowed in a burst above --ip-rate")
+    private int ipBurst = 20;
+
+    @Parameter(names = {"--ip-max-tunnels"}, description = "Maximum number of simultaneous tunnels per IP address (0 for no limit)")
+    private int ipMaxTunnels = 0;
+
+    @Parameter(names = {"--host-rate"}, description = "Tunnels per second allowed per WebX host (0 for no limit)")
+    private double hostRate = 0;
+
+    @Parameter(names = {"--host-burst"}, description = "Tunnels per WebX host allowed in a burst above --host-rate")
+    private int hostBurst = 20;
+
+    @Parameter(names = {"--host-max-tunnels"}, description = "Maximum number of simultaneous tunnels per WebX host (0 for no limit)")
+    private int hostMaxTunnels = 0;
+
+    // Throws an IllegalArgumentException describing the first invalid setting
+    public void validate() {
+        if (this.userRate < 0 || this.ipRate < 0 || this.hostRate < 0) {
+            throw new IllegalArgumentException("Admission rates must be >= 0");
+        }
+        if (this.userBurst < 1 || this.ipBurst < 1 || this.hostBurst < 1) {
+            throw new IllegalArgumentException("Admission bursts must be > 0");
+        }
+        if (this.userMaxTunnels < 0 || this.ipMaxTunnels < 0 || this.hostMaxTunnels < 0) {
+            throw new IllegalArgumentException("Admission tunnel limits must be >= 0");
+        }
+    }
+
+    public AdmissionLimit getUserLimit() {
+        return new AdmissionLimit("user", this.userRate, this.userBurst, this.userMaxTunnels);
+    }
+
+    public AdmissionLimit getIpLimit() {
+        return new AdmissionLimit("ip", this.ipRate, this.ipBurst, this.ipMaxTunnels);
+    }
+
+    public AdmissionLimit getHostLimit() {
+        return new AdmissionLimit("host", this.hostRate, this.hostBurst, this.hostMaxTunnels);
+    }
+}
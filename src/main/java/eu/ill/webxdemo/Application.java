@@ -2,40 +2,90 @@ package eu.ill.webxdemo;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
-import com.google.inject.Injector;
-import com.google.inject.servlet.GuiceFilter;
-import com.google.inject.servlet.GuiceServletContextListener;
-import com.google.inject.servlet.ServletModule;
+import com.beust.jcommander.ParametersDelegate;
+import eu.ill.webx.WebXHostConfiguration;
+import eu.ill.webxdemo.controllers.ApiResourceConfig;
+import eu.ill.webxdemo.directory.SessionDirectory;
+import eu.ill.webxdemo.memory.BufferPool;
+import eu.ill.webxdemo.memory.MemoryBudget;
+import eu.ill.webxdemo.services.AdmissionService;
 import eu.ill.webxdemo.services.AuthService;
+import eu.ill.webxdemo.services.ClusterService;
 import eu.ill.webxdemo.services.ConfigurationService;
+import eu.ill.webxdemo.services.ConnectService;
+import eu.ill.webxdemo.services.DrainService;
+import eu.ill.webxdemo.services.MetricsService;
+import eu.ill.webxdemo.services.RecordingService;
+import eu.ill.webxdemo.services.RelayService;
+import eu.ill.webxdemo.tls.TlsContextFactory;
+import eu.ill.webxdemo.ws.IdleSessions;
+import eu.ill.webxdemo.ws.MessageCompression;
+import eu.ill.webxdemo.ws.ResumableSessions;
+import eu.ill.webxdemo.ws.StandbyPool;
 import eu.ill.webxdemo.ws.WebSocketTunnelServlet;
+import eu.ill.webxdemo.ws.WebXRelayTunnel;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.glassfish.jersey.servlet.ServletContainer;
+import org.glassfish.jersey.servlet.ServletProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
 
-import static com.google.inject.Guice.createInjector;
 import static org.eclipse.jetty.servlet.ServletContextHandler.NO_SESSIONS;
 
 public class Application {
 
+    private static final Logger logger = LoggerFactory.getLogger(Application.class);
+
     @Parameter(names = {"--port"})
     private Integer port = 8080;
 
-    @Parameter(names = {"--standalone-host"})
-    private String standaloneHost = null;
+    @Parameter(names = {"--session-metrics"}, description = "Export metrics per session as well as per WebX host (one series per session: for debugging only)")
+    private boolean sessionMetrics = false;
+
+    @Parameter(names = {"--cds-training"}, description = "Start, serve an API request and a WebSocket then exit: run with -XX:ArchiveClassesAtExit to create a class data sharing archive")
+    private boolean cdsTraining = false;
+
+    @ParametersDelegate
+    private final Configuration configuration = new Configuration();
+
+    @ParametersDelegate
+    private final TlsConfiguration tlsConfiguration = new TlsConfiguration();
+
+    @ParametersDelegate
+    private final ConnectConfiguration connectConfiguration = new ConnectConfiguration();
 
-    @Parameter(names = {"--standalone-port"})
-    private Integer standalonePort = 5555;
+    @ParametersDelegate
+    private final SessionConfiguration sessionConfiguration = new SessionConfiguration();
 
-    @Parameter(names = {"--width"})
-    private int defaultScreenWidth = 1440;
+    @ParametersDelegate
+    private final ClusterConfiguration clusterConfiguration = new ClusterConfiguration();
 
-    @Parameter(names = {"--height"})
-    private int defaultScreenHeight = 900;
+    @ParametersDelegate
+    private final AdmissionConfiguration admissionConfiguration = new AdmissionConfiguration();
 
-    @Parameter(names = {"--keyboard"})
-    private String defaultKeyboardLayout = "gb";
+    @ParametersDelegate
+    private final MemoryConfiguration memoryConfiguration = new MemoryConfiguration();
 
     public static void main(String... argv) throws Exception {
         final Application application = new Application();
@@ -46,31 +96,136 @@ public class Application {
         application.run();
     }
 
+    // Loads the classes used to serve the API and to accept a WebSocket so that they are included in the archive. The
+    // WebSocket is closed as it has no WebX host to connect to
+    private static void train(int port) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) URI.create("http://localhost:" + port + "/api/configuration").toURL().openConnection();
+        try (InputStream inputStream = connection.getInputStream()) {
+            inputStream.readAllBytes();
+        }
+
+        try (Socket socket = new Socket("localhost", port)) {
+            String request = "GET /ws HTTP/1.1\r\n"
+                    + "Host: localhost:" + port + "\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n"
+                    + "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(new byte[16]) + "\r\n\r\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            logger.info("Training WebSocket upgrade returned {}", reader.readLine());
+        }
+    }
+
+    private static void configureConnector(ServerConnector connector, int port, ServerConfiguration serverConfiguration) {
+        connector.setPort(port);
+        connector.setAcceptQueueSize(serverConfiguration.getAcceptQueueSize());
+        connector.setIdleTimeout(serverConfiguration.getIdleTimeoutMs());
+    }
+
     private void run() throws Exception {
-        final Server server = new Server(port);
+        configuration.validate();
+        tlsConfiguration.validate();
+        sessionConfiguration.validate();
+        clusterConfiguration.validate();
+        connectConfiguration.validate();
+        admissionConfiguration.validate();
+        memoryConfiguration.validate();
+        final ServerConfiguration serverConfiguration = configuration.getServerConfiguration();
+        ConfigurationService.instance().setConfiguration(configuration);
+
+        final SessionDirectory sessionDirectory = clusterConfiguration.createSessionDirectory();
+        ClusterService.instance().start(clusterConfiguration.getNode(), clusterConfiguration.getPeers(), sessionDirectory);
+        MetricsService.instance().setSessionMetricsEnabled(sessionMetrics);
+
+        MemoryBudget.instance().start(memoryConfiguration.getMemoryBudget());
+        BufferPool.instance().start(memoryConfiguration.getBufferPoolSize());
+
+        final QueuedThreadPool threadPool = new QueuedThreadPool(serverConfiguration.getMaxThreads(), serverConfiguration.getMinThreads());
+        threadPool.setName("webx-jetty");
+        final Server server = new Server(threadPool);
+        final ServerConnector connector = new ServerConnector(server, null, null, BufferPool.instance(), serverConfiguration.getAcceptors(), serverConfiguration.getSelectors(), new HttpConnectionFactory());
+        configureConnector(connector, port, serverConfiguration);
+        server.addConnector(connector);
+
+        // TLS is terminated in the relay rather than by a proxy in front of it, saving a hop and a copy of every frame
+        if (tlsConfiguration.isEnabled()) {
+            HttpConfiguration httpsConfiguration = new HttpConfiguration();
+            httpsConfiguration.setSecureScheme("https");
+            httpsConfiguration.setSecurePort(tlsConfiguration.getPort());
+            httpsConfiguration.addCustomizer(new SecureRequestCustomizer());
+
+            SslConnectionFactory sslConnectionFactory = new SslConnectionFactory(TlsContextFactory.create(tlsConfiguration), HttpVersion.HTTP_1_1.asString());
+            final ServerConnector tlsConnector = new ServerConnector(server, null, null, BufferPool.instance(), serverConfiguration.getAcceptors(), serverConfiguration.getSelectors(), sslConnectionFactory, new HttpConnectionFactory(httpsConfiguration));
+            configureConnector(tlsConnector, tlsConfiguration.getPort(), serverConfiguration);
+            server.addConnector(tlsConnector);
+        }
         final ServletContextHandler context = new ServletContextHandler(server, "/", NO_SESSIONS);
 
-        ServletHolder servletHolder = context.addServlet(ServletContainer.class, "/api/*");
-        servletHolder.setInitOrder(1);
-        servletHolder.setInitParameter("jersey.config.server.provider.packages", "eu.ill.webxdemo.controllers");
-        servletHolder.setInitParameter("jersey.config.server.wadl.disableWadl", "true");
-
-        context.addEventListener(new GuiceServletContextListener() {
-            @Override
-            protected Injector getInjector() {
-                return createInjector(new ServletModule() {
-                    @Override
-                    public void configureServlets() {
-                        Configuration configuration = new Configuration(standaloneHost, standalonePort, defaultScreenWidth, defaultScreenHeight, defaultKeyboardLayout);
-                        ConfigurationService.instance().setConfiguration(configuration);
-                        bind(Configuration.class).toInstance(configuration);
-                        serve("/ws").with(WebSocketTunnelServlet.class);
-                    }
-                });
+        // Jersey (and HK2) take most of the startup time: the API is initialised after the server has started so that
+        // WebSockets are accepted first (a request arriving before waits for it)
+        final ServletHolder servletHolder = context.addServlet(ServletContainer.class, "/api/*");
+        servletHolder.setInitParameter(ServletProperties.JAXRS_APPLICATION_CLASS, ApiResourceConfig.class.getName());
+
+        context.addServlet(new ServletHolder(new WebSocketTunnelServlet(configuration)), "/ws");
+        AuthService.instance().start(sessionDirectory);
+        AdmissionService.instance().start(admissionConfiguration.getUserLimit(), admissionConfiguration.getIpLimit(), admissionConfiguration.getHostLimit());
+        ConnectService.instance().start(connectConfiguration.getThreads(), connectConfiguration.getQueueSize(), connectConfiguration.getTimeoutMs());
+        RelayService.instance().start(configuration.getRelayMode(), configuration.getMaxTunnels());
+        if (sessionConfiguration.getRecordDirectory() != null) {
+            RecordingService.instance().start(Paths.get(sessionConfiguration.getRecordDirectory()), sessionConfiguration.getRecordMaxSize());
+        }
+        if (sessionConfiguration.isIdleTracking()) {
+            IdleSessions.instance().start(TimeUnit.SECONDS.toMillis(sessionConfiguration.getIdleThrottleSeconds()), TimeUnit.SECONDS.toMillis(sessionConfiguration.getIdleSuspendSeconds()),
+                    TimeUnit.SECONDS.toMillis(sessionConfiguration.getIdleCloseSeconds()), sessionConfiguration.getIdleQualityIndex());
+        }
+        if (sessionConfiguration.isCompression()) {
+            MessageCompression.instance().start(sessionConfiguration.getCompressionLevel(), sessionConfiguration.getCompressionMinSize());
+        }
+        if (sessionConfiguration.getResumeGraceSeconds() > 0) {
+            ResumableSessions.instance().start(TimeUnit.SECONDS.toMillis(sessionConfiguration.getResumeGraceSeconds()), sessionConfiguration.getResumeBufferSize());
+        }
+        if (configuration.isStandalone() && connectConfiguration.getStandbyTunnels() > 0) {
+            WebXHostConfiguration standaloneConfiguration = new WebXHostConfiguration(configuration.getStandaloneHost(), configuration.getStandalonePort(), true);
+            StandbyPool.instance().start(standaloneConfiguration, WebXRelayTunnel::connect, connectConfiguration.getStandbyTunnels(),
+                    TimeUnit.SECONDS.toMillis(connectConfiguration.getStandbyMaxAgeSeconds()), connectConfiguration.getStandbyClientVersions());
+        }
+
+        // On SIGTERM (or after a drain requested at /api/admin/drain) close the WebSockets gradually before stopping
+        DrainService.instance().configure(TimeUnit.SECONDS.toMillis(clusterConfiguration.getDrainSpreadSeconds()), TimeUnit.SECONDS.toMillis(clusterConfiguration.getDrainDeadlineSeconds()));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            DrainService.instance().drain();
+            DrainService.instance().awaitDrained();
+            StandbyPool.instance().stop();
+            ConnectService.instance().stop();
+            RelayService.instance().stop();
+            AuthService.instance().stop();
+            AdmissionService.instance().stop();
+            try {
+                server.stop();
+
+            } catch (Exception exception) {
+                logger.error("Failed to stop the server: {}", exception.getMessage());
             }
-        });
-        context.addFilter(GuiceFilter.class, "/*", null);
-        AuthService.instance().start();
+        }, "webx-shutdown"));
+
         server.start();
+
+        Thread apiInitThread = new Thread(() -> {
+            try {
+                servletHolder.getServlet();
+
+            } catch (Exception exception) {
+                logger.error("Failed to initialise the API: {}", exception.getMessage());
+            }
+        }, "webx-api-init");
+        apiInitThread.setDaemon(true);
+        apiInitThread.start();
+
+        if (cdsTraining) {
+            apiInitThread.join();
+            train(connector.getLocalPort());
+            System.exit(0);
+        }
     }
 }
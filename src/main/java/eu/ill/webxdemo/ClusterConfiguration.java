@@ -0,0 +1,78 @@
+package eu.ill.webxdemo;
+
+import com.beust.jcommander.Parameter;
+import eu.ill.webxdemo.directory.FileSessionDirectory;
+import eu.ill.webxdemo.directory.InMemorySessionDirectory;
+import eu.ill.webxdemo.directory.SessionDirectory;
+import eu.ill.webxdemo.directory.TokenCipher;
+import eu.ill.webxdemo.model.RelayNode;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Settings of this relay node in a cluster: its peers, the directory of tokens and sessions that they share, and how
+// its WebSockets are closed when it is drained
+public class ClusterConfiguration {
+
+    private static final String MEMORY_DIRECTORY = "memory";
+
+    @Parameter(names = {"--node-id"}, description = "Identifier of this relay node in a cluster")
+    private String nodeId = "local";
+
+    @Parameter(names = {"--node-url"}, description = "URL at which clients reach this relay node")
+    private String nodeUrl = null;
+
+    @Parameter(names = {"--peers"}, description = "Comma-separated list of the relay nodes of the cluster, each as id=url")
+    private List<String> peers = new ArrayList<>();
+
+    @Parameter(names = {"--directory"}, description = "Token and session directory: memory, or the path of a directory shared by the relay nodes")
+    private String directory = MEMORY_DIRECTORY;
+
+    @Parameter(names = {"--directory-key-file"}, description = "File containing the base64 AES key (16, 24 or 32 bytes) with which the credentials of the tokens are encrypted in a shared --directory, the same on every relay node")
+    private String directoryKeyFile = null;
+
+    @Parameter(names = {"--max-auth-tokens"}, description = "Maximum number of pending authentication tokens, further authentication requests being rejected")
+    private int maxAuthTokens = 10000;
+
+    @Parameter(names = {"--drain-spread-s"}, description = "Time in seconds over which WebSockets are closed when the relay is drained")
+    private int drainSpreadSeconds = 10;
+
+    @Parameter(names = {"--drain-deadline-s"}, description = "Time in seconds after which remaining WebSockets are disconnected when the relay is drained")
+    private int drainDeadlineSeconds = 30;
+
+    // Throws an IllegalArgumentException describing the first invalid setting
+    public void validate() {
+        if (!this.directory.equals(MEMORY_DIRECTORY) && this.directoryKeyFile == null) {
+            throw new IllegalArgumentException("A --directory-key-file is required to encrypt the credentials stored in a shared --directory");
+        }
+    }
+
+    public RelayNode getNode() {
+        return new RelayNode(this.nodeId, this.nodeUrl);
+    }
+
+    public List<RelayNode> getPeers() {
+        List<RelayNode> relayNodes = new ArrayList<>();
+        for (String peer : this.peers) {
+            relayNodes.add(RelayNode.parse(peer));
+        }
+        return relayNodes;
+    }
+
+    public SessionDirectory createSessionDirectory() throws IOException {
+        if (this.directory.equals(MEMORY_DIRECTORY)) {
+            return new InMemorySessionDirectory(this.maxAuthTokens);
+        }
+        return new FileSessionDirectory(Paths.get(this.directory), this.maxAuthTokens, TokenCipher.fromKeyFile(Paths.get(this.directoryKeyFile)));
+    }
+
+    public int getDrainSpreadSeconds() {
+        return drainSpreadSeconds;
+    }
+
+    public int getDrainDeadlineSeconds() {
+        return drainDeadlineSeconds;
+    }
+}
@@ -1,30 +1,77 @@
 package eu.ill.webxdemo;
 
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
+import eu.ill.webxdemo.model.RelayMode;
+
+import java.util.concurrent.TimeUnit;
+
+// Settings of the tunnels and of the sessions started through them. Each feature's options are grouped in a parameter
+// object of their own, with their defaults, so that programs embedding the relay only set what they change
 public class Configuration {
 
+    @Parameter(names = {"--standalone-host"})
+    private String standaloneHost = null;
 
-    private final String standaloneHost;
-    private final Integer standalonePort;
-    private final int defaultScreenWidth;
-    private final int defaultScreenHeight;
-    private final String defaultKeyboardLayout;
+    @Parameter(names = {"--standalone-port"})
+    private Integer standalonePort = 5555;
 
-    public Configuration(final String standaloneHost,
-                         final Integer standalonePort,
-                         final int defaultScreenWidth,
-                         final int defaultScreenHeight,
-                         final String defaultKeyboardLayout) {
-        this.standaloneHost = standaloneHost;
-        this.standalonePort = standalonePort;
-        this.defaultScreenWidth = defaultScreenWidth;
-        this.defaultScreenHeight = defaultScreenHeight;
-        this.defaultKeyboardLayout = defaultKeyboardLayout;
+    @Parameter(names = {"--width"})
+    private int defaultScreenWidth = 1440;
+
+    @Parameter(names = {"--height"})
+    private int defaultScreenHeight = 900;
+
+    @Parameter(names = {"--keyboard"})
+    private String defaultKeyboardLayout = "gb";
+
+    @Parameter(names = {"--relay-mode"}, description = "Threads used to relay tunnel data: platform or virtual")
+    private RelayMode relayMode = RelayMode.PLATFORM;
+
+    @Parameter(names = {"--max-tunnels"}, description = "Maximum number of simultaneous tunnels (0 for no limit)")
+    private int maxTunnels = 0;
+
+    @Parameter(names = {"--session-sharing"}, description = "Allow WebSockets connecting to an existing session with shared=true to share a single tunnel")
+    private boolean sessionSharing = false;
+
+    @Parameter(names = {"--engine-log-level"}, description = "Log level of the WebX Engines started for new sessions")
+    private String engineLogLevel = "debug";
+
+    @Parameter(names = {"--max-quality-index"}, description = "Maximum quality index of the WebX Engines started for new sessions")
+    private int maxQualityIndex = 12;
+
+    @Parameter(names = {"--adaptive-quality"}, description = "Adapt the quality of each session to the bandwidth and queueing delay measured to its client")
+    private boolean adaptiveQuality = false;
+
+    @Parameter(names = {"--admin-token"}, description = "Bearer token required by the admin endpoints (disabled if not set)")
+    private String adminToken = null;
+
+    @Parameter(names = {"--mouse-coalesce-window-us"}, description = "Window in microseconds within which mouse moves from a client are merged, keeping the latest position (0 to disable)")
+    private int inputCoalescingWindowMicros = 0;
+
+    @ParametersDelegate
+    private final OutboundConfiguration outboundConfiguration = new OutboundConfiguration();
+
+    @ParametersDelegate
+    private ServerConfiguration serverConfiguration = new ServerConfiguration();
+
+    // Throws an IllegalArgumentException describing the first invalid setting
+    public void validate() {
+        if (this.maxTunnels < 0 || this.maxQualityIndex < 1 || this.inputCoalescingWindowMicros < 0) {
+            throw new IllegalArgumentException("Maximum tunnels and mouse coalesce window must be >= 0 and the maximum quality index >= 1");
+        }
+        this.outboundConfiguration.validate();
+        this.serverConfiguration.validate();
     }
 
     public String getStandaloneHost() {
         return standaloneHost;
     }
 
+    public void setStandaloneHost(final String standaloneHost) {
+        this.standaloneHost = standaloneHost;
+    }
+
     public Integer getStandalonePort() {
         return standalonePort;
     }
@@ -41,6 +88,62 @@ public class Configuration {
         return defaultKeyboardLayout;
     }
 
+    public RelayMode getRelayMode() {
+        return relayMode;
+    }
+
+    public void setRelayMode(final RelayMode relayMode) {
+        this.relayMode = relayMode;
+    }
+
+    public int getMaxTunnels() {
+        return maxTunnels;
+    }
+
+    public void setMaxTunnels(final int maxTunnels) {
+        this.maxTunnels = maxTunnels;
+    }
+
+    public OutboundConfiguration getOutboundConfiguration() {
+        return outboundConfiguration;
+    }
+
+    public boolean isSessionSharing() {
+        return sessionSharing;
+    }
+
+    public String getEngineLogLevel() {
+        return engineLogLevel;
+    }
+
+    public int getMaxQualityIndex() {
+        return maxQualityIndex;
+    }
+
+    public boolean isAdaptiveQuality() {
+        return adaptiveQuality;
+    }
+
+    public String getAdminToken() {
+        return adminToken;
+    }
+
+    public ServerConfiguration getServerConfiguration() {
+        return serverConfiguration;
+    }
+
+    public void setServerConfiguration(final ServerConfiguration serverConfiguration) {
+        this.serverConfiguration = serverConfiguration;
+    }
+
+    public long getInputCoalescingWindowNanos() {
+        return TimeUnit.MICROSECONDS.toNanos(inputCoalescingWindowMicros);
+    }
+
+    public void setInputCoalescingWindowMicros(final int inputCoalescingWindowMicros) {
+        this.inputCoalescingWindowMicros = inputCoalescingWindowMicros;
+    }
+
     public boolean isStandalone() {
         return this.standaloneHost != null && this.standalonePort != null;
     }
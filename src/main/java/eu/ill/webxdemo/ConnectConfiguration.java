@@ -0,0 +1,62 @@
+package eu.ill.webxdemo;
+
+import com.beust.jcommander.Parameter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Settings of the connections of tunnels to the WebX hosts, and of the standby tunnels connected in advance
+public class ConnectConfiguration {
+
+    @Parameter(names = {"--connect-threads"}, description = "Number of threads connecting tunnels to WebX hosts")
+    private int threads = 16;
+
+    @Parameter(names = {"--connect-queue-size"}, description = "Number of tunnel connections waiting for a connect thread, further connections being rejected")
+    private int queueSize = 64;
+
+    @Parameter(names = {"--connect-timeout-ms"}, description = "Time in milliseconds after which a tunnel connection to a WebX host is abandoned")
+    private long timeoutMs = 15000;
+
+    @Parameter(names = {"--standby-tunnels"}, description = "Number of tunnels connected in advance to the standalone host, per client version (0 to disable)")
+    private int standbyTunnels = 0;
+
+    @Parameter(names = {"--standby-client-versions"}, description = "Comma-separated list of the client versions for which standby tunnels are connected at startup (if not set, only the first client version seen)")
+    private List<String> standbyClientVersions = new ArrayList<>();
+
+    @Parameter(names = {"--standby-max-age-s"}, description = "Time in seconds after which an unused standby tunnel is replaced")
+    private int standbyMaxAgeSeconds = 60;
+
+    // Throws an IllegalArgumentException describing the first invalid setting
+    public void validate() {
+        if (this.threads < 1 || this.queueSize < 1 || this.timeoutMs < 1) {
+            throw new IllegalArgumentException("Connect threads, queue size and timeout must be > 0");
+        }
+        if (this.standbyTunnels < 0 || this.standbyMaxAgeSeconds < 1) {
+            throw new IllegalArgumentException("Standby tunnels must be >= 0 and their maximum age > 0");
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public int getStandbyTunnels() {
+        return standbyTunnels;
+    }
+
+    public List<String> getStandbyClientVersions() {
+        return standbyClientVersions;
+    }
+
+    public int getStandbyMaxAgeSeconds() {
+        return standbyMaxAgeSeconds;
+    }
+}
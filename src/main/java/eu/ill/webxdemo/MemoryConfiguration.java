@@ -0,0 +1,29 @@
+package eu.ill.webxdemo;
+
+import com.beust.jcommander.Parameter;
+
+// Settings of the memory shared by the sessions: the budget of queued messages and network buffers, and the pool of
+// network buffers
+public class MemoryConfiguration {
+
+    @Parameter(names = {"--memory-budget"}, description = "Size in bytes of the memory for queued messages and network buffers of all sessions, above which the sessions using the most stop reading from their tunnel (0 for no limit)")
+    private long memoryBudget = 0;
+
+    @Parameter(names = {"--buffer-pool-size"}, description = "Size in bytes of the idle network buffers kept for reuse by the buffer pool")
+    private long bufferPoolSize = 64 * 1024 * 1024;
+
+    // Throws an IllegalArgumentException describing the first invalid setting
+    public void validate() {
+        if (this.memoryBudget < 0 || this.bufferPoolSize < 0) {
+            throw new IllegalArgumentException("Memory budget and buffer pool size must be >= 0");
+        }
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public long getBufferPoolSize() {
+        return bufferPoolSize;
+    }
+}
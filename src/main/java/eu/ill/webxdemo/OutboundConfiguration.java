@@ -0,0 +1,130 @@
+package eu.ill.webxdemo;
+
+import com.beust.jcommander.Parameter;
+import eu.ill.webxdemo.model.OverflowPolicy;
+
+import java.util.concurrent.TimeUnit;
+
+// Settings of the queues of messages sent to the clients
+public class OutboundConfiguration implements Cloneable {
+
+    @Parameter(names = {"--send-queue-high-watermark"}, description = "Size in bytes of a WebSocket send queue above which the overflow policy is applied")
+    private int highWatermark = 4 * 1024 * 1024;
+
+    @Parameter(names = {"--send-queue-low-watermark"}, description = "Size in bytes to which a paused WebSocket send queue must drain before reading resumes")
+    private int lowWatermark = 1024 * 1024;
+
+    @Parameter(names = {"--send-queue-max-size"}, description = "Size in bytes of a WebSocket send queue above which the session is disconnected when dropping images")
+    private int maxQueueSize = 16 * 1024 * 1024;
+
+    @Parameter(names = {"--send-queue-overflow-policy"}, description = "Action when a WebSocket send queue exceeds its high watermark: pause, drop or disconnect")
+    private OverflowPolicy overflowPolicy = OverflowPolicy.PAUSE;
+
+    @Parameter(names = {"--batch-window-us"}, description = "Time in microseconds during which outbound messages are grouped into a single write (0 to disable batching)")
+    private int batchWindowMicros = 0;
+
+    @Parameter(names = {"--batch-max-bytes"}, description = "Size in bytes at which a batch of outbound messages is written without waiting for the end of the batch window")
+    private int batchMaxBytes = 64 * 1024;
+
+    @Parameter(names = {"--congestion-filter"}, description = "Discard queued image and mouse updates superseded by a newer update while a client is falling behind")
+    private boolean congestionFilter = false;
+
+    @Parameter(names = {"--send-queue-priority"}, description = "Send queued control and pointer messages ahead of queued images")
+    private boolean prioritised = false;
+
+    @Parameter(names = {"--image-chunk-size"}, description = "Size in bytes of the chunks in which larger images are sent to clients that support them, with --send-queue-priority (0 to disable)")
+    private int imageChunkSize = 0;
+
+    @Parameter(names = {"--image-chunk-client-version"}, description = "Minimum client-version of the clients to which images are sent in chunks")
+    private String imageChunkClientVersion = "1.4.0";
+
+    // Throws an IllegalArgumentException describing the first invalid setting
+    public void validate() {
+        if (this.lowWatermark > this.highWatermark || this.highWatermark > this.maxQueueSize) {
+            throw new IllegalArgumentException("Send queue sizes must satisfy low watermark <= high watermark <= max size");
+        }
+        if (this.imageChunkSize != 0 && (this.imageChunkSize < 1024 || !this.prioritised)) {
+            throw new IllegalArgumentException("Image chunk size must be 0 or at least 1024 bytes with --send-queue-priority");
+        }
+        if (!this.imageChunkClientVersion.matches("\\d+(\\.\\d+)*")) {
+            throw new IllegalArgumentException("Image chunk client version must be a version number such as 1.4.0");
+        }
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public void setQueueSizes(final int lowWatermark, final int highWatermark, final int maxQueueSize) {
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getBatchWindowNanos() {
+        return TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+    }
+
+    public void setBatchWindowMicros(final int batchWindowMicros) {
+        this.batchWindowMicros = batchWindowMicros;
+    }
+
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public boolean isCongestionFilter() {
+        return congestionFilter;
+    }
+
+    public void setCongestionFilter(final boolean congestionFilter) {
+        this.congestionFilter = congestionFilter;
+    }
+
+    public boolean isPrioritised() {
+        return prioritised;
+    }
+
+    public void setPrioritised(final boolean prioritised) {
+        this.prioritised = prioritised;
+    }
+
+    public int getImageChunkSize() {
+        return imageChunkSize;
+    }
+
+    public void setImageChunkSize(final int imageChunkSize) {
+        this.imageChunkSize = imageChunkSize;
+    }
+
+    // Minimum client-version of the clients that reassemble chunked images
+    public String getImageChunkClientVersion() {
+        return imageChunkClientVersion;
+    }
+
+    public OutboundConfiguration withNonBlockingOverflowPolicy() {
+        if (this.overflowPolicy != OverflowPolicy.PAUSE) {
+            return this;
+        }
+        try {
+            OutboundConfiguration configuration = (OutboundConfiguration) this.clone();
+            configuration.overflowPolicy = OverflowPolicy.DROP;
+            return configuration;
+
+        } catch (CloneNotSupportedException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package eu.ill.webxdemo;
+
+import com.beust.jcommander.Parameter;
+import eu.ill.webxdemo.model.ServerProfile;
+
+// Jetty settings: a server profile of which each setting can be overridden individually
+public class ServerConfiguration {
+
+    @Parameter(names = {"--server-profile"}, description = "Preset of the Jetty settings below: default, many_sessions or large_sessions")
+    private ServerProfile profile = ServerProfile.DEFAULT;
+
+    @Parameter(names = {"--min-threads"}, description = "Minimum number of Jetty threads (overrides the server profile)")
+    private Integer minThreads = null;
+
+    @Parameter(names = {"--max-threads"}, description = "Maximum number of Jetty threads (overrides the server profile)")
+    private Integer maxThreads = null;
+
+    @Parameter(names = {"--acceptors"}, description = "Number of Jetty acceptor threads, -1 for automatic (overrides the server profile)")
+    private Integer acceptors = null;
+
+    @Parameter(names = {"--selectors"}, description = "Number of Jetty selector threads, -1 for automatic (overrides the server profile)")
+    private Integer selectors = null;
+
+    @Parameter(names = {"--accept-queue-size"}, description = "Size of the queue of connections waiting to be accepted (overrides the server profile)")
+    private Integer acceptQueueSize = null;
+
+    @Parameter(names = {"--idle-timeout-ms"}, description = "Time in milliseconds after which an idle HTTP connection is closed (overrides the server profile)")
+    private Long idleTimeoutMs = null;
+
+    @Parameter(names = {"--ws-max-binary-message-size"}, description = "Maximum size in bytes of a binary message received from a WebSocket (overrides the server profile)")
+    private Integer webSocketMaxBinaryMessageSize = null;
+
+    @Parameter(names = {"--ws-input-buffer-size"}, description = "Size in bytes of the input buffer of a WebSocket (overrides the server profile)")
+    private Integer webSocketInputBufferSize = null;
+
+    @Parameter(names = {"--ws-idle-timeout-ms"}, description = "Time in milliseconds after which an idle WebSocket is closed (overrides the server profile)")
+    private Long webSocketIdleTimeoutMs = null;
+
+    public static ServerConfiguration fromProfile(final ServerProfile profile) {
+        ServerConfiguration configuration = new ServerConfiguration();
+        configuration.profile = profile;
+        return configuration;
+    }
+
+    // Throws an IllegalArgumentException describing the first invalid setting. Acceptors and selectors are counted as
+    // one per core when left to Jetty (-1), as Jetty would need at least that many threads
+    public void validate() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int acceptors = this.getAcceptors();
+        int selectors = this.getSelectors();
+        int acceptorThreads = acceptors >= 0 ? acceptors : Math.max(1, Math.min(4, cores / 8));
+        int selectorThreads = selectors > 0 ? selectors : Math.max(1, Math.min(cores / 2, 4));
+
+        if (this.getMinThreads() < 1 || this.getMinThreads() > this.getMaxThreads()) {
+            throw new IllegalArgumentException("Thread pool sizes must satisfy 1 <= min threads <= max threads");
+        }
+        if (acceptors < -1 || selectors < -1 || selectors == 0) {
+            throw new IllegalArgumentException("Acceptors must be -1 (automatic) or >= 0 and selectors -1 (automatic) or >= 1");
+        }
+        if (this.getMaxThreads() <= acceptorThreads + selectorThreads) {
+            throw new IllegalArgumentException("Max threads (" + this.getMaxThreads() + ") must be greater than the " + (acceptorThreads + selectorThreads) + " acceptor and selector threads");
+        }
+        if (this.getAcceptQueueSize() < 0 || this.getIdleTimeoutMs() <= 0 || this.getWebSocketIdleTimeoutMs() <= 0) {
+            throw new IllegalArgumentException("Accept queue size must be >= 0 and idle timeouts > 0");
+        }
+        if (this.getWebSocketInputBufferSize() <= 0 || this.getWebSocketInputBufferSize() > this.getWebSocketMaxBinaryMessageSize()) {
+            throw new IllegalArgumentException("WebSocket buffer sizes must satisfy 0 < input buffer size <= max binary message size");
+        }
+    }
+
+    public ServerProfile getProfile() {
+        return profile;
+    }
+
+    public int getMinThreads() {
+        return minThreads != null ? minThreads : profile.getMinThreads();
+    }
+
+    public int getMaxThreads() {
+        return maxThreads != null ? maxThreads : profile.getMaxThreads();
+    }
+
+    public int getAcceptors() {
+        return acceptors != null ? acceptors : profile.getAcceptors();
+    }
+
+    public int getSelectors() {
+        return selectors != null ? selectors : profile.getSelectors();
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize != null ? acceptQueueSize : profile.getAcceptQueueSize();
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs != null ? idleTimeoutMs : profile.getIdleTimeoutMs();
+    }
+
+    public int getWebSocketMaxBinaryMessageSize() {
+        return webSocketMaxBinaryMessageSize != null ? webSocketMaxBinaryMessageSize : profile.getWebSocketMaxBinaryMessageSize();
+    }
+
+    public int getWebSocketInputBufferSize() {
+        return webSocketInputBufferSize != null ? webSocketInputBufferSize : profile.getWebSocketInputBufferSize();
+    }
+
+    public long getWebSocketIdleTimeoutMs() {
+        return webSocketIdleTimeoutMs != null ? webSocketIdleTimeoutMs : profile.getWebSocketIdleTimeoutMs();
+    }
+}
@@ -0,0 +1,98 @@
+package eu.ill.webxdemo;
+
+import com.beust.jcommander.Parameter;
+
+// Settings of the features that clients enable per session: resume, compression, idle handling and recording
+public class SessionConfiguration {
+
+    @Parameter(names = {"--resume-grace-s"}, description = "Time in seconds during which the tunnel of a dropped WebSocket with a resume token is kept open to be resumed (0 to disable)")
+    private int resumeGraceSeconds = 0;
+
+    @Parameter(names = {"--resume-buffer-size"}, description = "Size in bytes of the messages kept for a session waiting to be resumed, above which its tunnel is closed")
+    private int resumeBufferSize = 4 * 1024 * 1024;
+
+    @Parameter(names = {"--compression"}, description = "Compress the non-image messages sent to clients connecting with compression=deflate")
+    private boolean compression = false;
+
+    @Parameter(names = {"--compression-level"}, description = "Deflate level (1 to 9) of compressed messages")
+    private int compressionLevel = 1;
+
+    @Parameter(names = {"--compression-min-size"}, description = "Size in bytes below which messages are not compressed")
+    private int compressionMinSize = 512;
+
+    @Parameter(names = {"--idle-throttle-s"}, description = "Time in seconds without input (or with the page hidden) after which a session is throttled to a very low frame rate (0 to disable)")
+    private int idleThrottleSeconds = 0;
+
+    @Parameter(names = {"--idle-suspend-s"}, description = "Time in seconds without input after which images are no longer sent to a session connected with idle=true (0 to disable)")
+    private int idleSuspendSeconds = 0;
+
+    @Parameter(names = {"--idle-close-s"}, description = "Time in seconds without input after which the tunnel of a session is closed (0 to disable)")
+    private int idleCloseSeconds = 0;
+
+    @Parameter(names = {"--idle-quality-index"}, description = "Quality index of throttled idle sessions")
+    private int idleQualityIndex = 1;
+
+    @Parameter(names = {"--record-dir"}, description = "Directory in which the traffic of each tunnel is recorded, for replay by the load test harness, keystrokes and clipboard contents being masked (disabled if not set). Recordings contain the rest of the remote desktop traffic (screen images, window contents) unencrypted")
+    private String recordDirectory = null;
+
+    @Parameter(names = {"--record-max-size"}, description = "Maximum size in bytes of the recording of a tunnel")
+    private long recordMaxSize = 1024L * 1024 * 1024;
+
+    // Throws an IllegalArgumentException describing the first invalid setting
+    public void validate() {
+        if (this.idleThrottleSeconds < 0 || this.idleSuspendSeconds < 0 || this.idleCloseSeconds < 0 || this.idleQualityIndex < 1) {
+            throw new IllegalArgumentException("Idle thresholds must be >= 0 and the idle quality index >= 1");
+        }
+        if (this.compressionLevel < 1 || this.compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9");
+        }
+    }
+
+    public int getResumeGraceSeconds() {
+        return resumeGraceSeconds;
+    }
+
+    public int getResumeBufferSize() {
+        return resumeBufferSize;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public boolean isIdleTracking() {
+        return this.idleThrottleSeconds > 0 || this.idleSuspendSeconds > 0 || this.idleCloseSeconds > 0;
+    }
+
+    public int getIdleThrottleSeconds() {
+        return idleThrottleSeconds;
+    }
+
+    public int getIdleSuspendSeconds() {
+        return idleSuspendSeconds;
+    }
+
+    public int getIdleCloseSeconds() {
+        return idleCloseSeconds;
+    }
+
+    public int getIdleQualityIndex() {
+        return idleQualityIndex;
+    }
+
+    public String getRecordDirectory() {
+        return recordDirectory;
+    }
+
+    public long getRecordMaxSize() {
+        return recordMaxSize;
+    }
+}
@@ -0,0 +1,94 @@
+package eu.ill.webxdemo;
+
+import com.beust.jcommander.Parameter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Settings of the HTTPS connector, enabled when a port is set. The certificate is either a PKCS12 keystore (with its
+// password) or a PEM certificate chain with its PEM private key
+public class TlsConfiguration {
+
+    @Parameter(names = {"--tls-port"}, description = "Port of an additional HTTPS connector (disabled if not set)")
+    private Integer port = null;
+
+    @Parameter(names = {"--tls-certificate"}, description = "PKCS12 keystore, or PEM certificate chain, of the HTTPS connector")
+    private String certificate = null;
+
+    @Parameter(names = {"--tls-key"}, description = "PEM private key (unencrypted PKCS8) of a PEM certificate chain")
+    private String key = null;
+
+    @Parameter(names = {"--tls-password"}, description = "Password of the PKCS12 keystore")
+    private String password = null;
+
+    @Parameter(names = {"--tls-session-cache-size"}, description = "Number of TLS sessions cached to resume the sessions of reconnecting clients")
+    private int sessionCacheSize = 20000;
+
+    @Parameter(names = {"--tls-session-timeout-s"}, description = "Time in seconds during which a TLS session can be resumed")
+    private int sessionTimeoutSeconds = 3600;
+
+    // Enables TLS with a PKCS12 keystore
+    public void setKeyStore(final int port, final Path keyStorePath, final String password) {
+        this.port = port;
+        this.certificate = keyStorePath.toString();
+        this.password = password;
+    }
+
+    public boolean isEnabled() {
+        return this.port != null;
+    }
+
+    // Throws an IllegalArgumentException describing the first invalid setting
+    public void validate() {
+        if (!this.isEnabled()) {
+            return;
+        }
+        Path certificatePath = this.getCertificatePath();
+        Path keyPath = this.getKeyPath();
+        if (this.port < 0 || this.port > 65535) {
+            throw new IllegalArgumentException("TLS port must be between 0 and 65535");
+        }
+        if (certificatePath == null || !Files.isReadable(certificatePath)) {
+            throw new IllegalArgumentException("TLS certificate " + certificatePath + " is not readable");
+        }
+        if (this.isPem() && (keyPath == null || !Files.isReadable(keyPath))) {
+            throw new IllegalArgumentException("A readable PEM private key is required with the PEM certificate " + certificatePath);
+        }
+        if (!this.isPem() && this.password == null) {
+            throw new IllegalArgumentException("A password is required for the PKCS12 keystore " + certificatePath);
+        }
+        if (this.sessionCacheSize < 0 || this.sessionTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("TLS session cache size and timeout must be >= 0");
+        }
+    }
+
+    // A separate private key means that the certificate is a PEM file
+    public boolean isPem() {
+        return this.key != null || this.certificate.endsWith(".pem") || this.certificate.endsWith(".crt");
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Path getCertificatePath() {
+        return certificate != null ? Paths.get(certificate) : null;
+    }
+
+    public Path getKeyPath() {
+        return key != null ? Paths.get(key) : null;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public int getSessionTimeoutSeconds() {
+        return sessionTimeoutSeconds;
+    }
+}
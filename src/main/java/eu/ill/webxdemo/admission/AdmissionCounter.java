@@ -0,0 +1,96 @@
+package eu.ill.webxdemo.admission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Rate and tunnel limits of one dimension (users, IP addresses or WebX hosts), keeping a token bucket and a tunnel
+// count per key. Unused entries are removed by sweep()
+public class AdmissionCounter {
+
+    private final AdmissionLimit limit;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> tunnels = new ConcurrentHashMap<>();
+    private final LongAdder rateRejectedCount = new LongAdder();
+    private final LongAdder tunnelRejectedCount = new LongAdder();
+
+    public AdmissionCounter(final AdmissionLimit limit) {
+        this.limit = limit;
+    }
+
+    public AdmissionLimit getLimit() {
+        return limit;
+    }
+
+    public boolean tryAcquireRate(final String key) {
+        if (!this.limit.isRateLimited() || key == null) {
+            return true;
+        }
+
+        TokenBucket bucket = this.buckets.computeIfAbsent(key, k -> new TokenBucket(this.limit.getRatePerSecond(), this.limit.getBurst()));
+        if (bucket.tryAcquire()) {
+            return true;
+        }
+        this.rateRejectedCount.increment();
+        return false;
+    }
+
+    // Time in seconds until a request for the key would be accepted
+    public long getRetryAfterSeconds(final String key) {
+        TokenBucket bucket = key != null ? this.buckets.get(key) : null;
+        return bucket != null ? Math.max(1, (bucket.getWaitNanos() + 999_999_999) / 1_000_000_000) : 1;
+    }
+
+    // Must be followed by releaseTunnel if it returns true
+    public boolean tryAcquireTunnel(final String key) {
+        if (!this.limit.isTunnelLimited() || key == null) {
+            return true;
+        }
+
+        while (true) {
+            AtomicInteger count = this.tunnels.computeIfAbsent(key, k -> new AtomicInteger());
+            if (count.incrementAndGet() > this.limit.getMaxTunnels()) {
+                count.decrementAndGet();
+                this.tunnelRejectedCount.increment();
+                return false;
+            }
+
+            // The counter may have been removed by the sweep before being incremented: retry with a new one
+            if (this.tunnels.get(key) == count) {
+                return true;
+            }
+            count.decrementAndGet();
+        }
+    }
+
+    public void releaseTunnel(final String key) {
+        if (!this.limit.isTunnelLimited() || key == null) {
+            return;
+        }
+
+        AtomicInteger count = this.tunnels.get(key);
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    // Removes full buckets and unused tunnel counts (a tunnel acquired while its count is being removed may not be
+    // counted: the limit can then be exceeded by one)
+    public void sweep() {
+        this.buckets.values().removeIf(TokenBucket::isFull);
+        this.tunnels.forEach((key, count) -> {
+            if (count.get() == 0) {
+                this.tunnels.remove(key, count);
+            }
+        });
+    }
+
+    public long getRateRejectedCount() {
+        return this.rateRejectedCount.sum();
+    }
+
+    public long getTunnelRejectedCount() {
+        return this.tunnelRejectedCount.sum();
+    }
+}
@@ -0,0 +1,42 @@
+package eu.ill.webxdemo.admission;
+
+// Limits applied to each key (user, IP address or WebX host) of a dimension: a rate of requests with a burst and a
+// number of simultaneous tunnels. A rate or a number of tunnels of 0 disables the corresponding limit
+public class AdmissionLimit {
+
+    private final String name;
+    private final double ratePerSecond;
+    private final int burst;
+    private final int maxTunnels;
+
+    public AdmissionLimit(final String name, final double ratePerSecond, final int burst, final int maxTunnels) {
+        this.name = name;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.maxTunnels = maxTunnels;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int getMaxTunnels() {
+        return maxTunnels;
+    }
+
+    public boolean isRateLimited() {
+        return this.ratePerSecond > 0;
+    }
+
+    public boolean isTunnelLimited() {
+        return this.maxTunnels > 0;
+    }
+}
@@ -0,0 +1,43 @@
+package eu.ill.webxdemo.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free token bucket implemented as a generic cell rate algorithm: the state is the theoretical time at which the
+// bucket would be full again. A request is accepted if, after taking a token, that time is no further in the future
+// than the time needed to refill the whole bucket
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong fullTime;
+
+    public TokenBucket(final double ratePerSecond, final int burst) {
+        this.intervalNanos = (long) (1.0e9 / ratePerSecond);
+        this.capacityNanos = this.intervalNanos * Math.max(1, burst);
+        this.fullTime = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            long now = System.nanoTime();
+            long current = this.fullTime.get();
+            long next = Math.max(current, now) + this.intervalNanos;
+            if (next - now > this.capacityNanos) {
+                return false;
+            }
+            if (this.fullTime.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // Time in nanoseconds until a token is available (0 if one is available now)
+    public long getWaitNanos() {
+        return Math.max(0, this.fullTime.get() + this.intervalNanos - System.nanoTime() - this.capacityNanos);
+    }
+
+    // A full bucket is equivalent to a new one and can be discarded
+    public boolean isFull() {
+        return this.fullTime.get() - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,42 @@
+package eu.ill.webxdemo.controllers;
+
+import eu.ill.webxdemo.services.ConfigurationService;
+import eu.ill.webxdemo.services.DrainService;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+@Path("/admin")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class AdminController {
+
+    public AdminController() {
+    }
+
+    // Drains the relay then exits: used to restart a node without cutting all its sessions at once
+    @POST
+    @Path("/drain")
+    public Response drain(@Context HttpHeaders headers) {
+        String adminToken = ConfigurationService.instance().getConfiguration().getAdminToken();
+        if (adminToken == null) {
+            return Response.status(404).build();
+        }
+
+        String authorization = headers.getHeaderString(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !MessageDigest.isEqual(authorization.getBytes(StandardCharsets.UTF_8), ("Bearer " + adminToken).getBytes(StandardCharsets.UTF_8))) {
+            return Response.status(401).build();
+        }
+
+        DrainService.instance().drainAndExit();
+        return Response.status(202).build();
+    }
+}
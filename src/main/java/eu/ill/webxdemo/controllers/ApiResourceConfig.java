@@ -0,0 +1,25 @@
+package eu.ill.webxdemo.controllers;
+
+import org.glassfish.jersey.CommonProperties;
+import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
+
+// Resources of /api, registered explicitly rather than by scanning the controllers package (which reads every class of
+// the package at startup, and fails on class files newer than Jersey's bundled ASM). Providers are not discovered from
+// the classpath either: JSON is the only one used
+public class ApiResourceConfig extends ResourceConfig {
+
+    public ApiResourceConfig() {
+        register(AdminController.class);
+        register(AuthController.class);
+        register(ConfigurationController.class);
+        register(MetricsController.class);
+        register(RoutingController.class);
+        register(JacksonFeature.class);
+
+        property(ServerProperties.WADL_FEATURE_DISABLE, true);
+        property(CommonProperties.FEATURE_AUTO_DISCOVERY_DISABLE, true);
+        property(CommonProperties.METAINF_SERVICES_LOOKUP_DISABLE, true);
+    }
+}
@@ -1,8 +1,12 @@
 package eu.ill.webxdemo.controllers;
 
 import eu.ill.webxdemo.model.AuthenticationToken;
+import eu.ill.webxdemo.model.Credentials;
+import eu.ill.webxdemo.services.AdmissionService;
 import eu.ill.webxdemo.services.AuthService;
+import eu.ill.webxdemo.services.DrainService;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -23,7 +27,11 @@ public class AuthController {
     }
 
     @POST
-    public Response auth(@Context HttpHeaders headers) {
+    public Response auth(@Context HttpHeaders headers, @Context HttpServletRequest request) {
+        if (DrainService.instance().isDraining()) {
+            return Response.status(503).build();
+        }
+
         List<String> authHeaders = headers.getRequestHeader(HttpHeaders.AUTHORIZATION);
         if (authHeaders.size() != 1) {
             return Response.status(401).build();
@@ -34,8 +42,16 @@ public class AuthController {
         byte[] credentialsBytes = Base64.getUrlDecoder().decode(credentialsBase64);
         String credentials = new String(credentialsBytes);
 
+        AdmissionService admissionService = AdmissionService.instance();
+        if (!admissionService.admitAuthentication(request.getRemoteAddr(), new Credentials(credentials).getUsername())) {
+            return Response.status(429).header(HttpHeaders.RETRY_AFTER, admissionService.getRetryAfterSeconds(request.getRemoteAddr())).build();
+        }
+
         // Store credentials and get the token
         String token = AuthService.instance().addAuthorisation(credentials);
+        if (token == null) {
+            return Response.status(503).header(HttpHeaders.RETRY_AFTER, 1).build();
+        }
         return Response.status(200).entity(new AuthenticationToken(token)).build();
     }
 }
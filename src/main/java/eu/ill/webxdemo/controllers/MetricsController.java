@@ -0,0 +1,194 @@
+package eu.ill.webxdemo.controllers;
+
+import eu.ill.webxdemo.admission.AdmissionCounter;
+import eu.ill.webxdemo.memory.BufferPool;
+import eu.ill.webxdemo.memory.MemoryBudget;
+import eu.ill.webxdemo.metrics.PrometheusWriter;
+import eu.ill.webxdemo.metrics.SessionMetrics;
+import eu.ill.webxdemo.services.AdmissionService;
+import eu.ill.webxdemo.services.AuthService;
+import eu.ill.webxdemo.services.ClusterService;
+import eu.ill.webxdemo.services.ConnectService;
+import eu.ill.webxdemo.services.DrainService;
+import eu.ill.webxdemo.services.MetricsService;
+import eu.ill.webxdemo.services.RelayService;
+import eu.ill.webxdemo.ws.BatchStatistics;
+import eu.ill.webxdemo.ws.IdleSessions;
+import eu.ill.webxdemo.ws.IdleTracker;
+import eu.ill.webxdemo.ws.MessageCompression;
+import eu.ill.webxdemo.ws.ResumableSessions;
+import eu.ill.webxdemo.ws.SharedSession;
+import eu.ill.webxdemo.ws.SharedSessions;
+import eu.ill.webxdemo.ws.StandbyPool;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Path("/metrics")
+@Produces(PrometheusWriter.CONTENT_TYPE)
+public class MetricsController {
+
+    public MetricsController() {
+    }
+
+    @GET
+    public Response metrics() {
+        MetricsService metricsService = MetricsService.instance();
+        RelayService relayService = RelayService.instance();
+        AuthService authService = AuthService.instance();
+        BatchStatistics batchStatistics = BatchStatistics.instance();
+        ConnectService connectService = ConnectService.instance();
+        StandbyPool standbyPool = StandbyPool.instance();
+        MessageCompression messageCompression = MessageCompression.instance();
+        IdleSessions idleSessions = IdleSessions.instance();
+        MemoryBudget memoryBudget = MemoryBudget.instance();
+        BufferPool bufferPool = BufferPool.instance();
+        Collection<SharedSession> sharedSessions = SharedSessions.instance().getSessions();
+        SessionMetrics totals = metricsService.getTotals();
+        Collection<SessionMetrics> sessions = metricsService.getSessions();
+
+        PrometheusWriter writer = new PrometheusWriter()
+                .gauge("webx_draining", "1 if the relay is draining before a restart", DrainService.instance().isDraining() ? 1 : 0)
+                .gauge("webx_tunnels_active", "Number of active tunnels", relayService.getActiveTunnelCount())
+                .gauge("webx_tunnels_max", "Maximum number of simultaneous tunnels", relayService.getMaxTunnels())
+                .counter("webx_tunnels_started_total", "Number of tunnels started", relayService.getStartedCount())
+                .counter("webx_tunnels_rejected_total", "Number of tunnels rejected because the relay was at capacity", relayService.getRejectedCount())
+                .counter("webx_tunnel_connect_failures_total", "Number of failed connections to a WebX host", metricsService.getConnectFailureCount())
+                .gauge("webx_tunnel_connects_active", "Number of tunnel connections in progress", connectService.getActiveCount())
+                .gauge("webx_tunnel_connects_pending", "Number of tunnel connections waiting for a connect thread", connectService.getPendingCount())
+                .counter("webx_tunnel_connects_rejected_total", "Number of tunnel connections rejected because the connect queue was full", connectService.getRejectedCount())
+                .counter("webx_tunnel_connect_timeouts_total", "Number of tunnel connections that timed out", connectService.getTimeoutCount())
+                .counter("webx_quality_increases_total", "Number of quality index increases by the adaptive quality controllers", metricsService.getQualityIncreaseCount())
+                .counter("webx_quality_decreases_total", "Number of quality index decreases by the adaptive quality controllers", metricsService.getQualityDecreaseCount())
+                .counter("webx_mouse_moves_total", "Mouse moves received from clients with input coalescing enabled", metricsService.getMouseMoveCount())
+                .counter("webx_mouse_moves_coalesced_total", "Mouse moves replaced by a later position before being written to the tunnel", metricsService.getCoalescedMouseMoveCount())
+                .counter("webx_bytes_in_total", "Bytes received from clients and written to tunnels", totals.getBytesIn())
+                .counter("webx_messages_in_total", "Instructions received from clients and written to tunnels", totals.getMessagesIn())
+                .counter("webx_bytes_out_total", "Bytes read from tunnels and sent to clients", totals.getBytesOut())
+                .counter("webx_messages_out_total", "Messages read from tunnels and sent to clients", totals.getMessagesOut())
+                .gauge("webx_send_queue_bytes", "Bytes queued to be sent to all clients", sessions.stream().mapToLong(SessionMetrics::getQueuedBytes).sum())
+                .counter("webx_messages_dropped_total", "Queued messages discarded because a newer message superseded them", metricsService.getDroppedMessageCount())
+                .counter("webx_bytes_dropped_total", "Bytes of queued messages discarded because a newer message superseded them", metricsService.getDroppedBytes())
+                .counter("webx_messages_prioritised_total", "Control and pointer messages sent ahead of queued images", metricsService.getPrioritisedMessageCount())
+                .counter("webx_images_chunked_total", "Images sent in chunks", metricsService.getChunkedImageCount())
+                .counter("webx_image_chunks_total", "Chunks of images sent", metricsService.getChunkCount())
+                .gauge("webx_memory_budget_bytes", "Memory budget for the queued messages and network buffers of all sessions (0 for no limit)", memoryBudget.getBudgetBytes())
+                .gauge("webx_memory_used_bytes", "Memory used by the queued messages and leased network buffers of all sessions", memoryBudget.getUsedBytes())
+                .gauge("webx_memory_waiting_sessions", "Number of sessions waiting for the memory budget before reading from their tunnel", memoryBudget.getWaitingCount())
+                .counter("webx_memory_waits_total", "Number of times a session waited for the memory budget", memoryBudget.getWaitCount())
+                .counter("webx_memory_wait_seconds_total", "Time spent by sessions waiting for the memory budget", memoryBudget.getWaitNanos() / 1.0e9)
+                .counter("webx_buffer_pool_hits_total", "Network buffers leased from the pool", bufferPool.getHitCount())
+                .counter("webx_buffer_pool_misses_total", "Network buffers allocated because none of their size was in the pool", bufferPool.getMissCount())
+                .gauge("webx_buffer_pool_leased_bytes", "Bytes of network buffers currently leased from the pool", bufferPool.getLeasedBytes())
+                .gauge("webx_buffer_pool_idle_bytes", "Bytes of network buffers kept in the pool for reuse", bufferPool.getIdleBytes())
+                .gauge("webx_standby_tunnels", "Number of standby tunnels available", standbyPool.getAvailableCount())
+                .gauge("webx_standby_tunnels_max", "Number of standby tunnels kept per client version", standbyPool.getPoolSize())
+                .counter("webx_standby_hits_total", "Number of connections served by a standby tunnel", standbyPool.getHitCount())
+                .counter("webx_standby_misses_total", "Number of standalone connections without an available standby tunnel", standbyPool.getMissCount())
+                .counter("webx_standby_failures_total", "Number of standby tunnels that failed to connect", standbyPool.getFailureCount())
+                .gauge("webx_shared_sessions", "Number of sessions shared by several WebSockets", sharedSessions.size())
+                .gauge("webx_shared_session_viewers", "Number of WebSockets viewing shared sessions", sharedSessions.stream().mapToInt(SharedSession::getViewerCount).sum())
+                .gauge("webx_shared_session_blocked_instructions", "Number of input instructions from view-only viewers ignored by the active shared sessions", sharedSessions.stream().mapToLong(SharedSession::getBlockedInstructionCount).sum())
+                .gauge("webx_cluster_nodes", "Number of relay nodes in the cluster", ClusterService.instance().getNodes().size())
+                .gauge("webx_cluster_local_sessions", "Number of WebX sessions registered in the directory by this node", ClusterService.instance().getLocalSessionCount())
+                .gauge("webx_resumable_sessions", "Number of tunnels kept open waiting for their session to be resumed", ResumableSessions.instance().getParkedCount())
+                .counter("webx_sessions_resumed_total", "Number of sessions resumed by a new WebSocket", ResumableSessions.instance().getResumedCount())
+                .counter("webx_resumable_sessions_expired_total", "Number of tunnels closed because their session was not resumed", ResumableSessions.instance().getExpiredCount())
+                .gauge("webx_auth_tokens", "Number of pending authentication tokens", authService.getTokenCount())
+                .gauge("webx_auth_tokens_max", "Maximum number of pending authentication tokens", authService.getMaxTokens())
+                .counter("webx_auth_tokens_rejected_total", "Number of authentication requests rejected because of the token limit", authService.getRejectedCount())
+                .counter("webx_auth_tokens_expired_total", "Number of authentication tokens expired before being used", authService.getExpiredCount())
+                .counter("webx_batches_total", "Number of batches of outbound messages", batchStatistics.getBatchCount())
+                .counter("webx_batch_messages_total", "Number of outbound messages sent in batches", batchStatistics.getMessageCount())
+                .counter("webx_batch_added_latency_seconds_total", "Latency added by waiting for the batch window", batchStatistics.getAddedLatencyNanos() / 1.0e9)
+                .gauge("webx_idle_sessions_throttled", "Number of idle sessions currently throttled", idleSessions.getSessionCount(IdleTracker.State.THROTTLED))
+                .gauge("webx_idle_sessions_suspended", "Number of idle sessions currently suspended", idleSessions.getSessionCount(IdleTracker.State.SUSPENDED))
+                .counter("webx_idle_throttles_total", "Number of sessions throttled because they were idle", idleSessions.getThrottledCount())
+                .counter("webx_idle_suspends_total", "Number of sessions suspended because they were idle", idleSessions.getSuspendedCount())
+                .counter("webx_idle_closes_total", "Number of sessions closed because they were idle", idleSessions.getClosedCount())
+                .counter("webx_idle_reactivations_total", "Number of throttled or suspended sessions that became active again", idleSessions.getReactivatedCount())
+                .counter("webx_idle_throttled_seconds_total", "Time spent by sessions throttled (encoding at the idle quality instead of full rate)", idleSessions.getThrottledNanos() / 1.0e9)
+                .counter("webx_idle_suspended_seconds_total", "Time spent by sessions suspended", idleSessions.getSuspendedNanos() / 1.0e9)
+                .counter("webx_idle_suppressed_messages_total", "Messages not sent to suspended sessions", idleSessions.getSuppressedMessageCount())
+                .counter("webx_idle_suppressed_bytes_total", "Bytes not sent to suspended sessions", idleSessions.getSuppressedBytes())
+                .counter("webx_compressed_messages_total", "Number of messages sent compressed", messageCompression.getCompressedMessageCount())
+                .counter("webx_compression_input_bytes_total", "Bytes of the messages sent compressed, before compression", messageCompression.getUncompressedBytes())
+                .counter("webx_compression_output_bytes_total", "Bytes of the messages sent compressed, after compression", messageCompression.getCompressedBytes())
+                .counter("webx_incompressible_messages_total", "Number of messages sent uncompressed because compression did not make them smaller", messageCompression.getIncompressibleMessageCount())
+                .counter("webx_compression_seconds_total", "Time spent compressing messages", messageCompression.getCompressionNanos() / 1.0e9)
+                .counter("webx_decompressed_instructions_total", "Number of compressed instructions received from clients", messageCompression.getDecompressedInstructionCount())
+                .histogram(metricsService.getTunnelConnectTime())
+                .histogram(metricsService.getStandbyFirstMessageTime())
+                .histogram(metricsService.getTunnelReadWaitTime())
+                .histogram(metricsService.getWebSocketSendTime());
+
+        String[] batchSizeBounds = Arrays.stream(BatchStatistics.BATCH_SIZE_BUCKETS).mapToObj(String::valueOf).toArray(String[]::new);
+        writer.histogram("webx_batch_size", "Number of messages per batch of outbound messages", batchSizeBounds, batchStatistics.getBatchSizeCounts(), batchStatistics.getMessageCount());
+
+        List<AdmissionCounter> admissionCounters = AdmissionService.instance().getCounters();
+        writer.header("webx_admission_rejected_total", "Requests rejected by the admission limits per user, IP address and WebX host", "counter");
+        admissionCounters.forEach(counter -> {
+            String limit = PrometheusWriter.label("limit", counter.getLimit().getName());
+            writer.sample("webx_admission_rejected_total", limit + "," + PrometheusWriter.label("reason", "rate"), counter.getRateRejectedCount());
+            writer.sample("webx_admission_rejected_total", limit + "," + PrometheusWriter.label("reason", "tunnels"), counter.getTunnelRejectedCount());
+        });
+
+        // Sessions are aggregated per WebX host so that the number of series doesn't grow with the number of sessions
+        Collection<SessionMetrics> hosts = metricsService.getHosts();
+        Map<String, List<SessionMetrics>> hostSessions = sessions.stream().collect(Collectors.groupingBy(session -> String.valueOf(session.getHost())));
+        writer.header("webx_host_sessions", "Number of sessions connected to a WebX host", "gauge");
+        hosts.forEach(host -> writer.sample("webx_host_sessions", hostLabels(host), hostSessions.getOrDefault(host.getHost(), List.of()).size()));
+        writer.header("webx_host_bytes_in_total", "Bytes received from the clients of the sessions of a WebX host", "counter");
+        hosts.forEach(host -> writer.sample("webx_host_bytes_in_total", hostLabels(host), host.getBytesIn()));
+        writer.header("webx_host_messages_in_total", "Instructions received from the clients of the sessions of a WebX host", "counter");
+        hosts.forEach(host -> writer.sample("webx_host_messages_in_total", hostLabels(host), host.getMessagesIn()));
+        writer.header("webx_host_bytes_out_total", "Bytes sent to the clients of the sessions of a WebX host", "counter");
+        hosts.forEach(host -> writer.sample("webx_host_bytes_out_total", hostLabels(host), host.getBytesOut()));
+        writer.header("webx_host_messages_out_total", "Messages sent to the clients of the sessions of a WebX host", "counter");
+        hosts.forEach(host -> writer.sample("webx_host_messages_out_total", hostLabels(host), host.getMessagesOut()));
+        writer.header("webx_host_send_queue_bytes", "Bytes queued to be sent to the clients of the sessions of a WebX host", "gauge");
+        hosts.forEach(host -> writer.sample("webx_host_send_queue_bytes", hostLabels(host), hostSessions.getOrDefault(host.getHost(), List.of()).stream().mapToLong(SessionMetrics::getQueuedBytes).sum()));
+        writer.header("webx_host_memory_wait_seconds_total", "Time spent by the sessions of a WebX host waiting for the memory budget before reading from their tunnel", "counter");
+        hosts.forEach(host -> writer.sample("webx_host_memory_wait_seconds_total", hostLabels(host), host.getMemoryWaitNanos() / 1.0e9));
+
+        if (metricsService.isSessionMetricsEnabled()) {
+            writer.header("webx_session_bytes_in_total", "Bytes received from the client of a session", "counter");
+            sessions.forEach(session -> writer.sample("webx_session_bytes_in_total", sessionLabels(session), session.getBytesIn()));
+            writer.header("webx_session_messages_in_total", "Instructions received from the client of a session", "counter");
+            sessions.forEach(session -> writer.sample("webx_session_messages_in_total", sessionLabels(session), session.getMessagesIn()));
+            writer.header("webx_session_bytes_out_total", "Bytes sent to the client of a session", "counter");
+            sessions.forEach(session -> writer.sample("webx_session_bytes_out_total", sessionLabels(session), session.getBytesOut()));
+            writer.header("webx_session_messages_out_total", "Messages sent to the client of a session", "counter");
+            sessions.forEach(session -> writer.sample("webx_session_messages_out_total", sessionLabels(session), session.getMessagesOut()));
+            writer.header("webx_session_send_queue_bytes", "Bytes queued to be sent to the client of a session", "gauge");
+            sessions.forEach(session -> writer.sample("webx_session_send_queue_bytes", sessionLabels(session), session.getQueuedBytes()));
+            writer.header("webx_session_memory_wait_seconds_total", "Time spent by a session waiting for the memory budget before reading from its tunnel", "counter");
+            sessions.forEach(session -> writer.sample("webx_session_memory_wait_seconds_total", sessionLabels(session), session.getMemoryWaitNanos() / 1.0e9));
+
+            List<SessionMetrics> adaptiveSessions = sessions.stream().filter(session -> session.getQualityIndex() > 0).toList();
+            writer.header("webx_session_quality_index", "Quality index set by the adaptive quality controller of a session", "gauge");
+            adaptiveSessions.forEach(session -> writer.sample("webx_session_quality_index", sessionLabels(session), session.getQualityIndex()));
+            writer.header("webx_session_bandwidth_bytes", "Bandwidth to the client of a session estimated by the adaptive quality controller, in bytes per second", "gauge");
+            adaptiveSessions.forEach(session -> writer.sample("webx_session_bandwidth_bytes", sessionLabels(session), session.getBandwidth()));
+            writer.header("webx_session_queue_delay_seconds", "Queueing delay to the client of a session estimated by the adaptive quality controller", "gauge");
+            adaptiveSessions.forEach(session -> writer.sample("webx_session_queue_delay_seconds", sessionLabels(session), session.getQueueDelay()));
+        }
+
+        return Response.status(200).entity(writer.toString()).build();
+    }
+
+    private static String hostLabels(SessionMetrics host) {
+        return PrometheusWriter.label("host", host.getHost());
+    }
+
+    private static String sessionLabels(SessionMetrics session) {
+        return PrometheusWriter.label("session", session.getId()) + "," + PrometheusWriter.label("host", session.getHost());
+    }
+}
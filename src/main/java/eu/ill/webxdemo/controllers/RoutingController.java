@@ -0,0 +1,37 @@
+package eu.ill.webxdemo.controllers;
+
+import eu.ill.webxdemo.controllers.dto.RoutingDto;
+import eu.ill.webxdemo.model.RelayNode;
+import eu.ill.webxdemo.services.ClusterService;
+import eu.ill.webxdemo.services.DrainService;
+import eu.ill.webxdemo.services.RelayService;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+// Used by the load balancer: returns the node to which a connection to a session should be routed, or the local node
+// and its tunnel load if no session is given
+@Path("/routing")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class RoutingController {
+
+    public RoutingController() {
+    }
+
+    @GET
+    public Response routing(@QueryParam("sessionid") String sessionId) {
+        ClusterService clusterService = ClusterService.instance();
+        RelayService relayService = RelayService.instance();
+
+        RelayNode localNode = clusterService.getLocalNode();
+        RelayNode node = sessionId != null ? clusterService.getSessionNode(sessionId) : localNode;
+
+        return Response.status(200).entity(new RoutingDto(node, localNode, relayService.getActiveTunnelCount(), relayService.getMaxTunnels(), DrainService.instance().isDraining())).build();
+    }
+}
@@ -1,15 +1,24 @@
 package eu.ill.webxdemo.controllers.dto;
 
 import eu.ill.webxdemo.Configuration;
+import eu.ill.webxdemo.ws.MessageCompression;
 
 public class ConfigurationDto {
 
     private String standaloneHost;
     private Integer standalonePort;
+    private boolean compression;
+    private int imageChunkSize;
+    private String imageChunkClientVersion;
+    private ServerConfigurationDto server;
 
     public ConfigurationDto(Configuration configuration) {
         this.standaloneHost = configuration.getStandaloneHost();
         this.standalonePort = configuration.getStandalonePort();
+        this.compression = MessageCompression.instance().isEnabled();
+        this.imageChunkSize = configuration.getOutboundConfiguration().getImageChunkSize();
+        this.imageChunkClientVersion = configuration.getOutboundConfiguration().getImageChunkClientVersion();
+        this.server = new ServerConfigurationDto(configuration.getServerConfiguration());
     }
 
     public String getStandaloneHost() {
@@ -19,4 +28,22 @@ public class ConfigurationDto {
     public Integer getStandalonePort() {
         return standalonePort;
     }
+
+    // Whether clients can connect with compression=deflate (and send compressed instructions)
+    public boolean isCompression() {
+        return compression;
+    }
+
+    // Size of the chunks in which images are sent to clients with at least the given client-version (0 when disabled)
+    public int getImageChunkSize() {
+        return imageChunkSize;
+    }
+
+    public String getImageChunkClientVersion() {
+        return imageChunkClientVersion;
+    }
+
+    public ServerConfigurationDto getServer() {
+        return server;
+    }
 }
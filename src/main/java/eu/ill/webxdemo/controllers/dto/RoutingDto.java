@@ -0,0 +1,49 @@
+package eu.ill.webxdemo.controllers.dto;
+
+import eu.ill.webxdemo.model.RelayNode;
+
+public class RoutingDto {
+
+    private String nodeId;
+    private String nodeUrl;
+    private boolean local;
+    private Integer activeTunnels;
+    private Integer maxTunnels;
+    private Boolean draining;
+
+    // The tunnel load is only known for the local node
+    public RoutingDto(RelayNode node, RelayNode localNode, int activeTunnels, int maxTunnels, boolean draining) {
+        this.nodeId = node.getId();
+        this.nodeUrl = node.getUrl();
+        this.local = node.getId().equals(localNode.getId());
+        if (this.local) {
+            this.activeTunnels = activeTunnels;
+            this.maxTunnels = maxTunnels;
+            this.draining = draining;
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getNodeUrl() {
+        return nodeUrl;
+    }
+
+    public boolean isLocal() {
+        return local;
+    }
+
+    public Integer getActiveTunnels() {
+        return activeTunnels;
+    }
+
+    public Integer getMaxTunnels() {
+        return maxTunnels;
+    }
+
+    public Boolean getDraining() {
+        return draining;
+    }
+}
@@ -0,0 +1,70 @@
+package eu.ill.webxdemo.controllers.dto;
+
+import eu.ill.webxdemo.ServerConfiguration;
+
+public class ServerConfigurationDto {
+
+    private String profile;
+    private int minThreads;
+    private int maxThreads;
+    private int acceptors;
+    private int selectors;
+    private int acceptQueueSize;
+    private long idleTimeoutMs;
+    private int webSocketMaxBinaryMessageSize;
+    private int webSocketInputBufferSize;
+    private long webSocketIdleTimeoutMs;
+
+    public ServerConfigurationDto(ServerConfiguration configuration) {
+        this.profile = configuration.getProfile().name().toLowerCase();
+        this.minThreads = configuration.getMinThreads();
+        this.maxThreads = configuration.getMaxThreads();
+        this.acceptors = configuration.getAcceptors();
+        this.selectors = configuration.getSelectors();
+        this.acceptQueueSize = configuration.getAcceptQueueSize();
+        this.idleTimeoutMs = configuration.getIdleTimeoutMs();
+        this.webSocketMaxBinaryMessageSize = configuration.getWebSocketMaxBinaryMessageSize();
+        this.webSocketInputBufferSize = configuration.getWebSocketInputBufferSize();
+        this.webSocketIdleTimeoutMs = configuration.getWebSocketIdleTimeoutMs();
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public int getSelectors() {
+        return selectors;
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public int getWebSocketMaxBinaryMessageSize() {
+        return webSocketMaxBinaryMessageSize;
+    }
+
+    public int getWebSocketInputBufferSize() {
+        return webSocketInputBufferSize;
+    }
+
+    public long getWebSocketIdleTimeoutMs() {
+        return webSocketIdleTimeoutMs;
+    }
+}
@@ -0,0 +1,52 @@
+package eu.ill.webxdemo.directory;
+
+import eu.ill.webxdemo.model.RelayNode;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Consistent hashing of keys (eg WebX session ids) onto relay nodes: adding or removing a node only moves the keys of
+// that node. Each node is placed at several points of the ring to spread the keys evenly
+public class ConsistentHashRing {
+
+    private static final int VIRTUAL_NODES = 100;
+
+    private final NavigableMap<Long, RelayNode> ring = new TreeMap<>();
+
+    public ConsistentHashRing(final List<RelayNode> nodes) {
+        for (RelayNode node : nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                this.ring.put(hash(node.getId() + "#" + i), node);
+            }
+        }
+    }
+
+    // Returns the node owning the key (null if the ring is empty)
+    public RelayNode getNode(final String key) {
+        if (this.ring.isEmpty()) {
+            return null;
+        }
+
+        Map.Entry<Long, RelayNode> entry = this.ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : this.ring.firstEntry().getValue();
+    }
+
+    private static long hash(final String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("MD5 is not available", exception);
+        }
+    }
+}
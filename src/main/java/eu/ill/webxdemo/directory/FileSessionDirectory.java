@@ -0,0 +1,224 @@
+package eu.ill.webxdemo.directory;
+
+import eu.ill.webxdemo.model.Credentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Directory stored as one file per token or session in a directory shared by the relay nodes (eg an NFS mount).
+// Files are written to a temporary file and renamed so that they are never read partially, and tokens are claimed by
+// an atomic rename so that only one node can consume a token. The credentials of the tokens are encrypted with a key
+// shared by the nodes (see TokenCipher).
+public class FileSessionDirectory implements SessionDirectory {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSessionDirectory.class);
+
+    // Temporary and claimed files start with a dot and are removed if left behind (eg by a node crash)
+    private static final String TEMPORARY_PREFIX = ".";
+    private static final long TEMPORARY_LIFETIME_MS = 60000;
+
+    // Expiry requires reading every token file so the directory is scanned less often than the sweeper runs
+    private static final long EXPIRY_SCAN_INTERVAL_MS = 1000;
+
+    private final Path tokensPath;
+    private final Path sessionsPath;
+    private final int maxTokens;
+    private final TokenCipher tokenCipher;
+    private long lastExpiryScanTime = 0;
+
+    // Listing the directory for every token would make authentication O(number of tokens): the count is kept by this
+    // node and reset to the number of token files by each expiry scan, so tokens added by other nodes are only counted
+    // after the next scan
+    private final AtomicInteger tokenCount = new AtomicInteger();
+
+    public FileSessionDirectory(final Path path, final int maxTokens, final TokenCipher tokenCipher) throws IOException {
+        this.tokensPath = Files.createDirectories(path.resolve("tokens"));
+        this.sessionsPath = Files.createDirectories(path.resolve("sessions"));
+        this.maxTokens = maxTokens;
+        this.tokenCipher = tokenCipher;
+        this.tokenCount.set(this.countTokenFiles());
+    }
+
+    @Override
+    public boolean addToken(final String token, final Credentials credentials) {
+        if (this.tokenCount.getAndUpdate(count -> count < this.maxTokens ? count + 1 : count) >= this.maxTokens) {
+            return false;
+        }
+
+        try {
+            long expiration = credentials.getExpiration().getTime();
+            String content = expiration + "\n" + this.tokenCipher.encrypt(token, expiration, credentials.getCredentials());
+            if (this.write(this.tokensPath.resolve(token), content)) {
+                return true;
+            }
+
+        } catch (GeneralSecurityException exception) {
+            logger.error("Failed to encrypt token {}: {}", token, exception.getMessage());
+        }
+        this.tokenCount.decrementAndGet();
+        return false;
+    }
+
+    @Override
+    public Credentials removeToken(final String token) {
+        if (!this.isValidName(token)) {
+            return null;
+        }
+
+        Path claimedPath = this.tokensPath.resolve(TEMPORARY_PREFIX + token + "." + UUID.randomUUID() + ".claimed");
+        try {
+            Files.move(this.tokensPath.resolve(token), claimedPath, StandardCopyOption.ATOMIC_MOVE);
+            String content = Files.readString(claimedPath, StandardCharsets.UTF_8);
+            Files.delete(claimedPath);
+            this.tokenCount.updateAndGet(count -> Math.max(count - 1, 0));
+
+            int separator = content.indexOf('\n');
+            long expiration = Long.parseLong(content.substring(0, separator));
+            return new Credentials(this.tokenCipher.decrypt(token, expiration, content.substring(separator + 1)), new Date(expiration));
+
+        } catch (NoSuchFileException exception) {
+            return null;
+
+        } catch (IOException | GeneralSecurityException | RuntimeException exception) {
+            logger.error("Failed to read token {}: {}", token, exception.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public int expireTokens(final long currentTime) {
+        if (currentTime - this.lastExpiryScanTime < EXPIRY_SCAN_INTERVAL_MS) {
+            return 0;
+        }
+        this.lastExpiryScanTime = currentTime;
+
+        int expired = 0;
+        int remaining = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.tokensPath)) {
+            for (Path file : files) {
+                try {
+                    if (file.getFileName().toString().startsWith(TEMPORARY_PREFIX)) {
+                        if (Files.getLastModifiedTime(file).toMillis() + TEMPORARY_LIFETIME_MS < currentTime) {
+                            Files.deleteIfExists(file);
+                        }
+
+                    } else {
+                        String content = Files.readString(file, StandardCharsets.UTF_8);
+                        long expiration = Long.parseLong(content.substring(0, content.indexOf('\n')));
+                        if (expiration > currentTime) {
+                            remaining++;
+
+                        } else if (Files.deleteIfExists(file)) {
+                            expired++;
+                        }
+                    }
+
+                } catch (NoSuchFileException ignored) {
+                    // Consumed or expired by another node
+
+                } catch (IOException | RuntimeException exception) {
+                    logger.warn("Failed to expire token file {}: {}", file, exception.getMessage());
+                }
+            }
+            this.tokenCount.set(remaining);
+
+        } catch (IOException exception) {
+            logger.error("Failed to list tokens in {}: {}", this.tokensPath, exception.getMessage());
+        }
+        return expired;
+    }
+
+    // Approximate number of tokens of all the nodes (see tokenCount)
+    @Override
+    public int getTokenCount() {
+        return this.tokenCount.get();
+    }
+
+    @Override
+    public int getMaxTokens() {
+        return this.maxTokens;
+    }
+
+    @Override
+    public void registerSession(final String sessionId, final String nodeId) {
+        if (this.isValidName(sessionId)) {
+            this.write(this.sessionsPath.resolve(sessionId), nodeId);
+        }
+    }
+
+    @Override
+    public void unregisterSession(final String sessionId, final String nodeId) {
+        if (nodeId.equals(this.getSessionNode(sessionId))) {
+            try {
+                Files.deleteIfExists(this.sessionsPath.resolve(sessionId));
+
+            } catch (IOException exception) {
+                logger.warn("Failed to unregister session {}: {}", sessionId, exception.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String getSessionNode(final String sessionId) {
+        if (!this.isValidName(sessionId)) {
+            return null;
+        }
+
+        try {
+            return Files.readString(this.sessionsPath.resolve(sessionId), StandardCharsets.UTF_8);
+
+        } catch (NoSuchFileException exception) {
+            return null;
+
+        } catch (IOException exception) {
+            logger.warn("Failed to read session {}: {}", sessionId, exception.getMessage());
+            return null;
+        }
+    }
+
+    private int countTokenFiles() throws IOException {
+        try (Stream<Path> files = Files.list(this.tokensPath)) {
+            return (int) files.filter(file -> !file.getFileName().toString().startsWith(TEMPORARY_PREFIX)).count();
+        }
+    }
+
+    // Tokens and session ids are used as file names: only accept hexadecimal strings
+    private boolean isValidName(final String name) {
+        return name != null && !name.isEmpty() && name.length() <= 64 && name.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+
+    private boolean write(final Path path, final String content) {
+        Path temporaryPath = path.resolveSibling(TEMPORARY_PREFIX + path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createFile(temporaryPath, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            Files.writeString(temporaryPath, content, StandardCharsets.UTF_8);
+            Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+
+        } catch (FileAlreadyExistsException exception) {
+            return false;
+
+        } catch (IOException | UnsupportedOperationException exception) {
+            logger.error("Failed to write {}: {}", path, exception.getMessage());
+            try {
+                Files.deleteIfExists(temporaryPath);
+            } catch (IOException ignored) {
+            }
+            return false;
+        }
+    }
+}
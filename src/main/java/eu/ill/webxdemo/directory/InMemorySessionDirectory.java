@@ -0,0 +1,122 @@
+package eu.ill.webxdemo.directory;
+
+import eu.ill.webxdemo.model.Credentials;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InMemorySessionDirectory implements SessionDirectory {
+
+    // Hashed timing wheel: tokens are put in the slot of the tick at which they expire (the wheel must cover the credentials lifetime)
+    private static final long TICK_MS = 100;
+    private static final int WHEEL_SIZE = 64;
+
+    private final int maxTokens;
+    private final Map<String, Credentials> tokens = new ConcurrentHashMap<>();
+    private final Map<String, String> sessionNodes = new ConcurrentHashMap<>();
+    private final Queue<String>[] wheel;
+    private final AtomicInteger tokenCount = new AtomicInteger();
+    private long expiredTick = System.currentTimeMillis() / TICK_MS;
+
+    @SuppressWarnings("unchecked")
+    public InMemorySessionDirectory(final int maxTokens) {
+        this.maxTokens = maxTokens;
+        this.wheel = new Queue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            this.wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    @Override
+    public boolean addToken(final String token, final Credentials credentials) {
+        if (this.tokenCount.incrementAndGet() > this.maxTokens) {
+            this.tokenCount.decrementAndGet();
+            return false;
+        }
+
+        this.tokens.put(token, credentials);
+        this.wheel[this.slot(credentials)].add(token);
+        return true;
+    }
+
+    @Override
+    public Credentials removeToken(final String token) {
+        Credentials credentials = this.tokens.remove(token);
+        if (credentials != null) {
+            this.tokenCount.decrementAndGet();
+        }
+        return credentials;
+    }
+
+    // Called by a single sweeper thread: expires the slots of all ticks that have passed
+    @Override
+    public int expireTokens(final long currentTime) {
+        int expired = 0;
+        long currentTick = currentTime / TICK_MS;
+        for (; this.expiredTick <= currentTick; this.expiredTick++) {
+            expired += this.expire(this.wheel[(int) (this.expiredTick % WHEEL_SIZE)], currentTime);
+        }
+        return expired;
+    }
+
+    @Override
+    public int getTokenCount() {
+        return this.tokenCount.get();
+    }
+
+    @Override
+    public int getMaxTokens() {
+        return this.maxTokens;
+    }
+
+    @Override
+    public void registerSession(final String sessionId, final String nodeId) {
+        this.sessionNodes.put(sessionId, nodeId);
+    }
+
+    @Override
+    public void unregisterSession(final String sessionId, final String nodeId) {
+        this.sessionNodes.remove(sessionId, nodeId);
+    }
+
+    @Override
+    public String getSessionNode(final String sessionId) {
+        return this.sessionNodes.get(sessionId);
+    }
+
+    private int expire(final Queue<String> slot, final long currentTime) {
+        int expired = 0;
+        for (int i = slot.size(); i > 0; i--) {
+            String token = slot.poll();
+            if (token == null) {
+                break;
+            }
+
+            Credentials credentials = this.tokens.get(token);
+            if (credentials == null) {
+                // Already consumed
+                continue;
+            }
+
+            if (credentials.getExpiration().getTime() <= currentTime) {
+                if (this.tokens.remove(token, credentials)) {
+                    this.tokenCount.decrementAndGet();
+                    expired++;
+                }
+
+            } else {
+                // Not due yet (wrapped around the wheel)
+                slot.add(token);
+            }
+        }
+        return expired;
+    }
+
+    private int slot(final Credentials credentials) {
+        long expirationTick = (credentials.getExpiration().getTime() + TICK_MS - 1) / TICK_MS;
+        return (int) (expirationTick % WHEEL_SIZE);
+    }
+}
@@ -0,0 +1,27 @@
+package eu.ill.webxdemo.directory;
+
+import eu.ill.webxdemo.model.Credentials;
+
+// Directory of authentication tokens and of the nodes hosting WebX sessions, shared by the relay nodes of a cluster
+public interface SessionDirectory {
+
+    // Returns false if the maximum number of tokens has been reached
+    boolean addToken(String token, Credentials credentials);
+
+    // Removes and returns the credentials of a token (null if the token is unknown)
+    Credentials removeToken(String token);
+
+    // Removes the expired tokens and returns the number removed
+    int expireTokens(long currentTime);
+
+    int getTokenCount();
+
+    int getMaxTokens();
+
+    void registerSession(String sessionId, String nodeId);
+
+    void unregisterSession(String sessionId, String nodeId);
+
+    // Returns the id of the node hosting the session (null if the session is unknown)
+    String getSessionNode(String sessionId);
+}
@@ -0,0 +1,73 @@
+package eu.ill.webxdemo.directory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// Encrypts the credentials of the tokens stored in a shared directory with AES-GCM and a key shared by the relay nodes.
+// The token and its expiration time are authenticated with the credentials so that a token file cannot be renamed or
+// its expiration extended.
+public class TokenCipher {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    public TokenCipher(final byte[] key) {
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("Directory key must be 16, 24 or 32 bytes long");
+        }
+        this.key = new SecretKeySpec(key, "AES");
+    }
+
+    // The key file contains the key encoded in base64, eg generated with: head -c 32 /dev/urandom | base64
+    public static TokenCipher fromKeyFile(final Path path) throws IOException {
+        try {
+            return new TokenCipher(Base64.getDecoder().decode(Files.readString(path, StandardCharsets.US_ASCII).trim()));
+
+        } catch (IllegalArgumentException exception) {
+            throw new IllegalArgumentException("Invalid directory key in " + path + ": " + exception.getMessage());
+        }
+    }
+
+    // Returns the IV followed by the encrypted credentials, encoded in base64
+    public String encrypt(final String token, final long expiration, final String credentials) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        this.random.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        cipher.updateAAD(associatedData(token, expiration));
+        byte[] encrypted = cipher.doFinal(credentials.getBytes(StandardCharsets.UTF_8));
+
+        return Base64.getEncoder().encodeToString(ByteBuffer.allocate(IV_LENGTH + encrypted.length).put(iv).put(encrypted).array());
+    }
+
+    // Throws an exception if the credentials were not encrypted with the same key, token and expiration time
+    public String decrypt(final String token, final long expiration, final String encrypted) throws GeneralSecurityException {
+        byte[] data = Base64.getDecoder().decode(encrypted);
+        if (data.length < IV_LENGTH) {
+            throw new GeneralSecurityException("Encrypted credentials are too short");
+        }
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(TAG_LENGTH_BITS, data, 0, IV_LENGTH));
+        cipher.updateAAD(associatedData(token, expiration));
+        return new String(cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] associatedData(final String token, final long expiration) {
+        return (token + "\n" + expiration).getBytes(StandardCharsets.UTF_8);
+    }
+}
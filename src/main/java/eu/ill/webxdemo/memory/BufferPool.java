@@ -0,0 +1,136 @@
+package eu.ill.webxdemo.memory;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Buffers of the Jetty connectors, used for the network reads and writes of every WebSocket in both directions. Buffers
+// are pooled by size class (powers of two and three quarters of powers of two, from 1KB to 1MB, so that eg the 17KB
+// TLS buffers use 24KB) and released buffers are kept for reuse up to a maximum of idle bytes. Larger buffers are not
+// pooled. Leased buffers are counted in the MemoryBudget; a lease never waits as Jetty acquires buffers from its
+// selector threads
+public class BufferPool implements ByteBufferPool {
+
+    private static final BufferPool instance = new BufferPool();
+
+    private static final int MIN_SHIFT = 10;
+    private static final int MAX_SHIFT = 20;
+    private static final int BUCKET_COUNT = 2 * (MAX_SHIFT - MIN_SHIFT) + 1;
+
+    private final ArrayDeque<ByteBuffer>[] directBuckets = newBuckets();
+    private final ArrayDeque<ByteBuffer>[] heapBuckets = newBuckets();
+    private final MemoryBudget memoryBudget = MemoryBudget.instance();
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicLong leasedBytes = new AtomicLong();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    private volatile long maxIdleBytes = 64 * 1024 * 1024;
+
+    private BufferPool() {
+    }
+
+    public static BufferPool instance() {
+        return instance;
+    }
+
+    // Must be called before the connectors are started
+    public void start(final long maxIdleBytes) {
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    @Override
+    public ByteBuffer acquire(final int size, final boolean direct) {
+        int bucket = bucketIndex(size);
+        ByteBuffer buffer = null;
+        if (bucket >= 0) {
+            ArrayDeque<ByteBuffer> buffers = (direct ? this.directBuckets : this.heapBuckets)[bucket];
+            synchronized (buffers) {
+                buffer = buffers.pollFirst();
+            }
+        }
+
+        if (buffer != null) {
+            this.hitCount.increment();
+            this.idleBytes.addAndGet(-buffer.capacity());
+            BufferUtil.clear(buffer);
+
+        } else {
+            this.missCount.increment();
+            buffer = this.newByteBuffer(bucket >= 0 ? bucketCapacity(bucket) : size, direct);
+        }
+
+        this.leasedBytes.addAndGet(buffer.capacity());
+        this.memoryBudget.reserve(buffer.capacity());
+        return buffer;
+    }
+
+    @Override
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        this.leasedBytes.addAndGet(-capacity);
+        this.memoryBudget.release(capacity);
+
+        int bucket = bucketIndex(capacity);
+        if (bucket < 0 || bucketCapacity(bucket) != capacity || this.idleBytes.get() + capacity > this.maxIdleBytes) {
+            // Not pooled: freed by the garbage collector
+            return;
+        }
+
+        // Most recently used first, as it is more likely to be in the CPU caches
+        ArrayDeque<ByteBuffer> buffers = (buffer.isDirect() ? this.directBuckets : this.heapBuckets)[bucket];
+        this.idleBytes.addAndGet(capacity);
+        synchronized (buffers) {
+            buffers.addFirst(buffer);
+        }
+    }
+
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    public long getIdleBytes() {
+        return this.idleBytes.get();
+    }
+
+    public long getLeasedBytes() {
+        return this.leasedBytes.get();
+    }
+
+    // Index of the smallest size class holding the given size, -1 if too large to be pooled
+    static int bucketIndex(final int size) {
+        if (size > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int boundedSize = Math.max(size, 1 << MIN_SHIFT);
+        int shift = 32 - Integer.numberOfLeadingZeros(boundedSize - 1);
+        boolean threeQuarters = shift > MIN_SHIFT && boundedSize <= (1 << shift) - (1 << (shift - 2));
+        return 2 * (shift - MIN_SHIFT) - (threeQuarters ? 1 : 0);
+    }
+
+    static int bucketCapacity(final int bucket) {
+        int shift = MIN_SHIFT + (bucket + 1) / 2;
+        return (bucket & 1) == 1 ? (1 << shift) - (1 << (shift - 2)) : 1 << shift;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<ByteBuffer>[] newBuckets() {
+        ArrayDeque<ByteBuffer>[] buckets = new ArrayDeque[BUCKET_COUNT];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        return buckets;
+    }
+}
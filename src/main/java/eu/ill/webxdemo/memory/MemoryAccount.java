@@ -0,0 +1,10 @@
+package eu.ill.webxdemo.memory;
+
+// Memory reserved by a send queue for its messages. The MemoryBudget is the account of queues holding their own
+// messages: queues holding messages shared with other queues charge it through an account of their own
+public interface MemoryAccount {
+
+    void reserve(long bytes);
+
+    void release(long bytes);
+}
@@ -0,0 +1,159 @@
+package eu.ill.webxdemo.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+// Memory held by the relay for all its sessions: the messages queued for clients and the network buffers leased from
+// the BufferPool. Reserving never fails (a message already read from a tunnel must be sent or dropped) but, while the
+// budget is exceeded, the sessions holding more than their share of the budget stop reading from their tunnel: their
+// messages wait in the WebX Engine (which lowers its frame rate) instead of filling the heap. Sessions under their
+// share keep reading so that one slow client doesn't stall the others
+public class MemoryBudget implements MemoryAccount {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemoryBudget.class);
+
+    private static final MemoryBudget instance = new MemoryBudget();
+
+    // Waiting sessions re-check their share (which changes as sessions come and go) at least this often
+    private static final long WAIT_INTERVAL_MS = 100;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong releaseCount = new AtomicLong();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private volatile long budgetBytes = 0;
+
+    private MemoryBudget() {
+    }
+
+    public static MemoryBudget instance() {
+        return instance;
+    }
+
+    // A budget of 0 only accounts for the memory used
+    public void start(final long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        if (budgetBytes > 0) {
+            logger.info("Memory budget for sessions set to {}MB", budgetBytes / (1024 * 1024));
+        }
+    }
+
+    @Override
+    public void reserve(final long bytes) {
+        this.usedBytes.addAndGet(bytes);
+    }
+
+    // Called with the lock of a send queue held: the lock of the budget must never be held while reading the bytes of a
+    // session (which takes the lock of its send queue)
+    @Override
+    public void release(final long bytes) {
+        this.usedBytes.addAndGet(-bytes);
+        this.wakeWaiting();
+    }
+
+    // Wakes the sessions waiting for capacity so that they check again, eg whether they should stop waiting
+    public void wakeWaiting() {
+        if (this.waitingCount.get() > 0) {
+            this.releaseCount.incrementAndGet();
+            this.lock.lock();
+            try {
+                this.released.signalAll();
+
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    // Sessions reading from a tunnel, among which the budget is shared
+    public void register() {
+        this.sessionCount.incrementAndGet();
+    }
+
+    public void unregister() {
+        this.sessionCount.decrementAndGet();
+    }
+
+    // Called by a session before reading from its tunnel with the bytes it holds: blocks while the budget is exceeded
+    // and the session holds more than its share, unless it is aborted (eg its tunnel is closed: see wakeWaiting).
+    // Returns the time waited in nanoseconds
+    public long awaitCapacity(final LongSupplier sessionBytes, final BooleanSupplier aborted) throws InterruptedException {
+        if (!this.isExceeded(sessionBytes)) {
+            return 0;
+        }
+
+        long startTime = System.nanoTime();
+        this.waitCount.increment();
+        this.waitingCount.incrementAndGet();
+        try {
+            while (true) {
+                long releaseCount = this.releaseCount.get();
+                if (aborted.getAsBoolean() || !this.isExceeded(sessionBytes)) {
+                    break;
+                }
+
+                // Bytes released since the check are either seen here or signalled once waiting
+                this.lock.lock();
+                try {
+                    if (this.releaseCount.get() == releaseCount) {
+                        this.released.await(WAIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    }
+
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+
+        } finally {
+            this.waitingCount.decrementAndGet();
+        }
+
+        long waitNanos = System.nanoTime() - startTime;
+        this.waitNanos.add(waitNanos);
+        return waitNanos;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getUsedBytes() {
+        return this.usedBytes.get();
+    }
+
+    public int getWaitingCount() {
+        return this.waitingCount.get();
+    }
+
+    public long getWaitCount() {
+        return this.waitCount.sum();
+    }
+
+    public long getWaitNanos() {
+        return this.waitNanos.sum();
+    }
+
+    // The bytes of the session are only read when over budget: they may require a lock
+    private boolean isExceeded(final LongSupplier sessionBytes) {
+        long budgetBytes = this.budgetBytes;
+        if (budgetBytes <= 0 || this.usedBytes.get() < budgetBytes) {
+            return false;
+        }
+        long bytes = sessionBytes.getAsLong();
+        return bytes > 0 && bytes >= budgetBytes / Math.max(1, this.sessionCount.get());
+    }
+}
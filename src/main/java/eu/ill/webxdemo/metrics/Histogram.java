@@ -0,0 +1,61 @@
+package eu.ill.webxdemo.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Cumulative histogram of durations with fixed buckets, recording without allocation
+public class Histogram {
+
+    // Upper bounds of the buckets in seconds
+    public static final double[] BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0};
+
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1.0e9);
+        }
+    }
+
+    private final String name;
+    private final String help;
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram(final String name, final String help) {
+        this.name = name;
+        this.help = help;
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(final long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        this.counts[bucket].increment();
+        this.sumNanos.add(nanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    // Non-cumulative count per bucket, the last one being the overflow bucket
+    public long[] getCounts() {
+        long[] values = new long[this.counts.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = this.counts[i].sum();
+        }
+        return values;
+    }
+
+    public double getSumSeconds() {
+        return this.sumNanos.sum() / 1.0e9;
+    }
+}
@@ -0,0 +1,73 @@
+package eu.ill.webxdemo.metrics;
+
+// Writes metrics in the Prometheus text exposition format (version 0.0.4)
+public class PrometheusWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder builder = new StringBuilder();
+
+    public PrometheusWriter counter(final String name, final String help, final double value) {
+        return this.header(name, help, "counter").sample(name, null, value);
+    }
+
+    public PrometheusWriter gauge(final String name, final String help, final double value) {
+        return this.header(name, help, "gauge").sample(name, null, value);
+    }
+
+    public PrometheusWriter header(final String name, final String help, final String type) {
+        this.builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        this.builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    // labels are written as is, eg: session="3",host="localhost"
+    public PrometheusWriter sample(final String name, final String labels, final double value) {
+        this.builder.append(name);
+        if (labels != null) {
+            this.builder.append('{').append(labels).append('}');
+        }
+        this.builder.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            this.builder.append((long) value);
+        } else {
+            this.builder.append(value);
+        }
+        this.builder.append('\n');
+        return this;
+    }
+
+    public PrometheusWriter histogram(final Histogram histogram) {
+        String[] bounds = new String[Histogram.BUCKETS.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = String.valueOf(Histogram.BUCKETS[i]);
+        }
+        return this.histogram(histogram.getName(), histogram.getHelp(), bounds, histogram.getCounts(), histogram.getSumSeconds());
+    }
+
+    // counts are the non-cumulative counts of the buckets with the given upper bounds, followed by the overflow bucket
+    public PrometheusWriter histogram(final String name, final String help, final String[] bounds, final long[] counts, final double sum) {
+        this.header(name, help, "histogram");
+
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            this.sample(name + "_bucket", label("le", bounds[i]), cumulative);
+        }
+        cumulative += counts[counts.length - 1];
+        this.sample(name + "_bucket", label("le", "+Inf"), cumulative);
+        this.sample(name + "_sum", null, sum);
+        this.sample(name + "_count", null, cumulative);
+        return this;
+    }
+
+    public static String label(final String name, final Object value) {
+        String escaped = String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return name + "=\"" + escaped + "\"";
+    }
+
+    @Override
+    public String toString() {
+        return this.builder.toString();
+    }
+}
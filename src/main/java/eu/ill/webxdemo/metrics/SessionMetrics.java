@@ -0,0 +1,105 @@
+package eu.ill.webxdemo.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class SessionMetrics {
+
+    private final long id;
+    private final String host;
+    private final SessionMetrics totals;
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder memoryWaitNanos = new LongAdder();
+    private volatile LongSupplier queuedBytes = () -> 0;
+    private volatile int qualityIndex = 0;
+    private volatile double bandwidth = 0;
+    private volatile double queueDelay = 0;
+
+    public SessionMetrics(final long id, final String host, final SessionMetrics totals) {
+        this.id = id;
+        this.host = host;
+        this.totals = totals;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void recordIn(final int length) {
+        this.messagesIn.increment();
+        this.bytesIn.add(length);
+        if (this.totals != null) {
+            this.totals.recordIn(length);
+        }
+    }
+
+    public void recordOut(final int length) {
+        this.messagesOut.increment();
+        this.bytesOut.add(length);
+        if (this.totals != null) {
+            this.totals.recordOut(length);
+        }
+    }
+
+    // Time spent waiting for the memory budget before reading from the tunnel
+    public void recordMemoryWait(final long nanos) {
+        this.memoryWaitNanos.add(nanos);
+        if (this.totals != null) {
+            this.totals.recordMemoryWait(nanos);
+        }
+    }
+
+    public void setQueuedBytes(final LongSupplier queuedBytes) {
+        this.queuedBytes = queuedBytes;
+    }
+
+    // Latest decision of the adaptive quality controller: quality index, bandwidth (bytes/s) and queueing delay (s)
+    public void recordQuality(final int qualityIndex, final double bandwidth, final double queueDelay) {
+        this.qualityIndex = qualityIndex;
+        this.bandwidth = bandwidth;
+        this.queueDelay = queueDelay;
+    }
+
+    public long getBytesIn() {
+        return this.bytesIn.sum();
+    }
+
+    public long getMessagesIn() {
+        return this.messagesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return this.bytesOut.sum();
+    }
+
+    public long getMessagesOut() {
+        return this.messagesOut.sum();
+    }
+
+    public long getQueuedBytes() {
+        return this.queuedBytes.getAsLong();
+    }
+
+    public long getMemoryWaitNanos() {
+        return this.memoryWaitNanos.sum();
+    }
+
+    public int getQualityIndex() {
+        return qualityIndex;
+    }
+
+    public double getBandwidth() {
+        return bandwidth;
+    }
+
+    public double getQueueDelay() {
+        return queueDelay;
+    }
+}
@@ -12,6 +12,10 @@ public class Credentials {
     private final Date expiration;
 
     public Credentials(final String credentials) {
+        this(credentials, new Date(System.currentTimeMillis() + lifetimeMs));
+    }
+
+    public Credentials(final String credentials, final Date expiration) {
         this.credentials = credentials;
 
         if (credentials != null) {
@@ -30,7 +34,7 @@ public class Credentials {
             this.password = null;
         }
 
-        this.expiration = new Date(System.currentTimeMillis() + lifetimeMs);
+        this.expiration = expiration;
     }
 
     public String getCredentials() {
@@ -0,0 +1,10 @@
+package eu.ill.webxdemo.model;
+
+public enum OverflowPolicy {
+    // Block reading from the tunnel until the send queue has drained to the low watermark
+    PAUSE,
+    // Remove queued image updates that are superseded by a newer full window image
+    DROP,
+    // Close the session
+    DISCONNECT
+}
@@ -0,0 +1,6 @@
+package eu.ill.webxdemo.model;
+
+public enum RelayMode {
+    PLATFORM,
+    VIRTUAL
+}
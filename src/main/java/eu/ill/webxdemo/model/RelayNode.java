@@ -0,0 +1,29 @@
+package eu.ill.webxdemo.model;
+
+public class RelayNode {
+
+    private final String id;
+    private final String url;
+
+    public RelayNode(String id, String url) {
+        this.id = id;
+        this.url = url;
+    }
+
+    // Parses a node definition of the form id=url
+    public static RelayNode parse(String definition) {
+        int separator = definition.indexOf('=');
+        if (separator <= 0 || separator == definition.length() - 1) {
+            throw new IllegalArgumentException("Relay node must be defined as id=url: " + definition);
+        }
+        return new RelayNode(definition.substring(0, separator).trim(), definition.substring(separator + 1).trim());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+}
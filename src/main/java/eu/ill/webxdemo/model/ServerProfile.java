@@ -0,0 +1,73 @@
+package eu.ill.webxdemo.model;
+
+// Presets of the Jetty threading, connector and WebSocket settings (a value of -1 lets Jetty choose from the number of
+// cores). Each setting can be overridden individually from the command line
+public enum ServerProfile {
+
+    // Jetty's defaults
+    DEFAULT(8, 200, -1, -1, 0, 30000, 64 * 1024, 4 * 1024, 300000),
+
+    // Many sessions with small screens: more threads and a larger accept queue, small buffers per session
+    MANY_SESSIONS(32, 1000, 2, -1, 1024, 60000, 1024 * 1024, 4 * 1024, 300000),
+
+    // Few sessions with large (eg 4K) screens: large messages and input buffers per session
+    LARGE_SESSIONS(16, 200, 1, -1, 128, 60000, 16 * 1024 * 1024, 64 * 1024, 300000);
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final int acceptors;
+    private final int selectors;
+    private final int acceptQueueSize;
+    private final long idleTimeoutMs;
+    private final int webSocketMaxBinaryMessageSize;
+    private final int webSocketInputBufferSize;
+    private final long webSocketIdleTimeoutMs;
+
+    ServerProfile(int minThreads, int maxThreads, int acceptors, int selectors, int acceptQueueSize, long idleTimeoutMs, int webSocketMaxBinaryMessageSize, int webSocketInputBufferSize, long webSocketIdleTimeoutMs) {
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.acceptors = acceptors;
+        this.selectors = selectors;
+        this.acceptQueueSize = acceptQueueSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.webSocketMaxBinaryMessageSize = webSocketMaxBinaryMessageSize;
+        this.webSocketInputBufferSize = webSocketInputBufferSize;
+        this.webSocketIdleTimeoutMs = webSocketIdleTimeoutMs;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public int getSelectors() {
+        return selectors;
+    }
+
+    public int getAcceptQueueSize() {
+        return acceptQueueSize;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public int getWebSocketMaxBinaryMessageSize() {
+        return webSocketMaxBinaryMessageSize;
+    }
+
+    public int getWebSocketInputBufferSize() {
+        return webSocketInputBufferSize;
+    }
+
+    public long getWebSocketIdleTimeoutMs() {
+        return webSocketIdleTimeoutMs;
+    }
+}
@@ -0,0 +1,103 @@
+package eu.ill.webxdemo.recording;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Records both directions of a tunnel in an append-only file (see TunnelRecording for the format). The file is written
+// through a memory-mapped region so that recording does not add a system call per message: regions are mapped as the
+// file grows and the file is truncated to the recorded size when closed. Recording stops when the maximum size is reached.
+// Private data (keystrokes and clipboard contents) can be masked: the message keeps its length but is recorded as zeros
+// after its header
+public class TunnelRecorder implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TunnelRecorder.class);
+
+    private static final int REGION_SIZE = 16 * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long maxSize;
+    private final long startTime = System.nanoTime();
+    private MappedByteBuffer region;
+    private long position = 0;
+    private boolean full = false;
+
+    public TunnelRecorder(final Path path, final long maxSize) throws IOException {
+        this.path = path;
+        this.maxSize = maxSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.map(TunnelRecording.HEADER_LENGTH);
+        this.region.put(TunnelRecording.MAGIC);
+        this.position = TunnelRecording.HEADER_LENGTH;
+    }
+
+    public void record(final byte direction, final byte[] data, final int offset, final int length) {
+        this.record(direction, data, offset, length, length);
+    }
+
+    // Only the first maskOffset bytes of the message are recorded, the rest are zeros
+    public synchronized void record(final byte direction, final byte[] data, final int offset, final int length, final int maskOffset) {
+        if (this.region == null || this.full) {
+            return;
+        }
+
+        int recordLength = TunnelRecording.RECORD_HEADER_LENGTH + length;
+        if (this.position + recordLength > this.maxSize) {
+            logger.warn("Recording {} has reached its maximum size of {} bytes", this.path, this.maxSize);
+            this.full = true;
+            return;
+        }
+
+        try {
+            if (this.region.remaining() < recordLength) {
+                this.map(recordLength);
+            }
+            this.region.put(direction)
+                    .putLong(System.nanoTime() - this.startTime)
+                    .putInt(length)
+                    .put(data, offset, Math.min(length, maskOffset));
+            // The file is new so the skipped bytes are zeros
+            if (maskOffset < length) {
+                this.region.position(this.region.position() + length - maskOffset);
+            }
+            this.position += recordLength;
+
+        } catch (IOException exception) {
+            logger.error("Failed to extend recording {}: {}", this.path, exception.getMessage());
+            this.full = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.region == null) {
+            return;
+        }
+
+        this.region.force();
+        this.region = null;
+        try {
+            this.channel.truncate(this.position);
+            this.channel.close();
+
+        } catch (IOException exception) {
+            logger.error("Failed to close recording {}: {}", this.path, exception.getMessage());
+        }
+    }
+
+    private void map(final int minimumSize) throws IOException {
+        if (this.region != null) {
+            this.region.force();
+        }
+        this.region = this.channel.map(FileChannel.MapMode.READ_WRITE, this.position, Math.max(REGION_SIZE, minimumSize));
+        this.region.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
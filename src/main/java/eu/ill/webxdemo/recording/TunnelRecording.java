@@ -0,0 +1,93 @@
+package eu.ill.webxdemo.recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A recorded tunnel: an 8 byte magic followed by records of the direction (1 byte), the time since the start of the
+// recording in nanoseconds (int64), the message length (int32) and the message, in little-endian order
+public class TunnelRecording {
+
+    static final byte[] MAGIC = "WEBXREC1".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER_LENGTH = MAGIC.length;
+    static final int RECORD_HEADER_LENGTH = 1 + 8 + 4;
+
+    // Instructions from the client to the WebX host
+    public static final byte CLIENT_TO_HOST = 0;
+
+    // Messages from the WebX host to the client
+    public static final byte HOST_TO_CLIENT = 1;
+
+    private final List<Message> clientMessages;
+    private final List<Message> hostMessages;
+
+    private TunnelRecording(final List<Message> clientMessages, final List<Message> hostMessages) {
+        this.clientMessages = clientMessages;
+        this.hostMessages = hostMessages;
+    }
+
+    public static TunnelRecording read(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[HEADER_LENGTH];
+            if (buffer.remaining() < HEADER_LENGTH) {
+                throw new IOException("Not a tunnel recording: " + path);
+            }
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a tunnel recording: " + path);
+            }
+
+            List<Message> clientMessages = new ArrayList<>();
+            List<Message> hostMessages = new ArrayList<>();
+            while (buffer.remaining() >= RECORD_HEADER_LENGTH) {
+                byte direction = buffer.get();
+                long timestampNanos = buffer.getLong();
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Truncated tunnel recording: " + path);
+                }
+
+                byte[] data = new byte[length];
+                buffer.get(data);
+                (direction == CLIENT_TO_HOST ? clientMessages : hostMessages).add(new Message(timestampNanos, data));
+            }
+            return new TunnelRecording(clientMessages, hostMessages);
+        }
+    }
+
+    public List<Message> getClientMessages() {
+        return clientMessages;
+    }
+
+    public List<Message> getHostMessages() {
+        return hostMessages;
+    }
+
+    public static class Message {
+
+        private final long timestampNanos;
+        private final byte[] data;
+
+        public Message(final long timestampNanos, final byte[] data) {
+            this.timestampNanos = timestampNanos;
+            this.data = data;
+        }
+
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
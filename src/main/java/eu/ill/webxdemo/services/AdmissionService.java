@@ -0,0 +1,140 @@
+package eu.ill.webxdemo.services;
+
+import eu.ill.webxdemo.admission.AdmissionCounter;
+import eu.ill.webxdemo.admission.AdmissionLimit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Admission control of authentication requests, WebSocket upgrades and tunnels, limited per user, per IP address and
+// per WebX host
+public class AdmissionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionService.class);
+
+    private static final AdmissionService instance = new AdmissionService();
+
+    private static final long SWEEP_INTERVAL_S = 10;
+
+    private volatile AdmissionCounter users = new AdmissionCounter(new AdmissionLimit("user", 0, 0, 0));
+    private volatile AdmissionCounter addresses = new AdmissionCounter(new AdmissionLimit("ip", 0, 0, 0));
+    private volatile AdmissionCounter hosts = new AdmissionCounter(new AdmissionLimit("host", 0, 0, 0));
+    private ScheduledExecutorService scheduler = null;
+
+    private AdmissionService() {
+    }
+
+    public static AdmissionService instance() {
+        return instance;
+    }
+
+    public synchronized void start(final AdmissionLimit userLimit, final AdmissionLimit addressLimit, final AdmissionLimit hostLimit) {
+        this.users = new AdmissionCounter(userLimit);
+        this.addresses = new AdmissionCounter(addressLimit);
+        this.hosts = new AdmissionCounter(hostLimit);
+
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "webx-admission-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(() -> this.getCounters().forEach(AdmissionCounter::sweep), SWEEP_INTERVAL_S, SWEEP_INTERVAL_S, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    // Authentication requests are limited in rate per IP address and per user
+    public boolean admitAuthentication(final String address, final String username) {
+        if (!this.addresses.tryAcquireRate(address)) {
+            logger.warn("Authentication request from {} rejected: rate limit reached", address);
+            return false;
+        }
+        if (!this.users.tryAcquireRate(username)) {
+            logger.warn("Authentication request for {} rejected: rate limit reached", username);
+            return false;
+        }
+        return true;
+    }
+
+    // WebSocket upgrades are limited in rate per IP address
+    public boolean admitUpgrade(final String address) {
+        if (!this.addresses.tryAcquireRate(address)) {
+            logger.warn("WebSocket from {} rejected: rate limit reached", address);
+            return false;
+        }
+        return true;
+    }
+
+    public long getRetryAfterSeconds(final String address) {
+        return this.addresses.getRetryAfterSeconds(address);
+    }
+
+    // Tunnels are limited in number per IP address, user and WebX host, and in rate per WebX host. Returns null if
+    // the tunnel is rejected, otherwise a ticket that must be released when the tunnel closes
+    public Ticket admitTunnel(final String address, final String username, final String host) {
+        AdmissionCounter addresses = this.addresses;
+        AdmissionCounter users = this.users;
+        AdmissionCounter hosts = this.hosts;
+
+        if (!addresses.tryAcquireTunnel(address)) {
+            logger.warn("Tunnel from {} rejected: maximum of {} tunnels reached", address, addresses.getLimit().getMaxTunnels());
+            return null;
+        }
+        if (!users.tryAcquireTunnel(username)) {
+            logger.warn("Tunnel for {} rejected: maximum of {} tunnels reached", username, users.getLimit().getMaxTunnels());
+            addresses.releaseTunnel(address);
+            return null;
+        }
+        if (!hosts.tryAcquireTunnel(host)) {
+            logger.warn("Tunnel to {} rejected: maximum of {} tunnels reached", host, hosts.getLimit().getMaxTunnels());
+            addresses.releaseTunnel(address);
+            users.releaseTunnel(username);
+            return null;
+        }
+        if (!hosts.tryAcquireRate(host)) {
+            logger.warn("Tunnel to {} rejected: rate limit reached", host);
+            addresses.releaseTunnel(address);
+            users.releaseTunnel(username);
+            hosts.releaseTunnel(host);
+            return null;
+        }
+
+        return new Ticket(() -> {
+            addresses.releaseTunnel(address);
+            users.releaseTunnel(username);
+            hosts.releaseTunnel(host);
+        });
+    }
+
+    public List<AdmissionCounter> getCounters() {
+        return List.of(this.users, this.addresses, this.hosts);
+    }
+
+    public static class Ticket {
+
+        private final Runnable release;
+        private boolean released = false;
+
+        private Ticket(final Runnable release) {
+            this.release = release;
+        }
+
+        public synchronized void release() {
+            if (!this.released) {
+                this.released = true;
+                this.release.run();
+            }
+        }
+    }
+}
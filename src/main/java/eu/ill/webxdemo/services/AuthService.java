@@ -1,13 +1,13 @@
 package eu.ill.webxdemo.services;
 
+import eu.ill.webxdemo.directory.InMemorySessionDirectory;
+import eu.ill.webxdemo.directory.SessionDirectory;
 import eu.ill.webxdemo.model.Credentials;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 
 public class AuthService {
 
@@ -15,8 +15,14 @@ public class AuthService {
 
     private static final AuthService instance = new AuthService();
 
-    private Map<String, Credentials> authorisations = new HashMap<>();
+    private static final long SWEEP_INTERVAL_MS = 100;
+
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+
+    private volatile SessionDirectory directory = new InMemorySessionDirectory(10000);
     private Thread thread = null;
+    private volatile boolean running = false;
 
     private AuthService() {
     }
@@ -25,49 +31,79 @@ public class AuthService {
         return instance;
     }
 
-    public void start() {
-        this.thread = new Thread(this::loop);
-        this.thread.start();
+    // Tokens are stored in the directory so that a token created on one relay node can be used on another
+    public synchronized void start(SessionDirectory directory) {
+        if (this.thread == null) {
+            this.directory = directory;
+            this.running = true;
+            this.thread = new Thread(this::loop, "webx-auth-sweeper");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        if (this.thread != null) {
+            this.running = false;
+            this.thread.interrupt();
+            try {
+                this.thread.join();
+
+            } catch (InterruptedException e) {
+                logger.error("Failed to join the authorisation sweeper thread");
+            }
+            this.thread = null;
+        }
     }
 
-    public synchronized String addAuthorisation(String raw) {
-        String token = UUID.randomUUID().toString().replace("-", "");;
+    // Returns null if the maximum number of pending tokens has been reached
+    public String addAuthorisation(String raw) {
+        String token = UUID.randomUUID().toString().replace("-", "");
         Credentials credentials = new Credentials(raw);
 
-        this.authorisations.put(token, credentials);
+        if (!this.directory.addToken(token, credentials)) {
+            this.rejectedCount.increment();
+            logger.warn("Maximum number of {} authorisation tokens reached: rejecting request", this.directory.getMaxTokens());
+            return null;
+        }
 
         logger.info("Generated token {} for {}", token, credentials.getUsername());
         return token;
     }
 
-    public synchronized Credentials getCredentials(String token) {
-        if (this.authorisations.containsKey(token)) {
-            return this.authorisations.remove(token);
+    public Credentials getCredentials(String token) {
+        Credentials credentials = token != null ? this.directory.removeToken(token) : null;
+        if (credentials != null && credentials.getExpiration().getTime() > System.currentTimeMillis()) {
+            return credentials;
         }
 
         return new Credentials(null);
     }
 
-    public void loop() {
-        while (true) {
-            synchronized (this) {
-                long currentTime = System.currentTimeMillis();
-                for (Iterator<Map.Entry<String, Credentials>> it = authorisations.entrySet().iterator(); it.hasNext();) {
-                    Map.Entry<String, Credentials> entry = it.next();
-                    Credentials credentials = entry.getValue();
-                    long expiration = credentials.getExpiration().getTime();
-
-                    if (expiration <= currentTime) {
-                        it.remove();
-                    }
-                }
-            }
+    public int getTokenCount() {
+        return this.directory.getTokenCount();
+    }
+
+    public int getMaxTokens() {
+        return this.directory.getMaxTokens();
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    public long getExpiredCount() {
+        return this.expiredCount.sum();
+    }
+
+    private void loop() {
+        while (this.running) {
+            this.expiredCount.add(this.directory.expireTokens(System.currentTimeMillis()));
 
             try {
-                Thread.sleep(100);
+                Thread.sleep(SWEEP_INTERVAL_MS);
             } catch (InterruptedException ignored) {
             }
-
         }
     }
 }
@@ -0,0 +1,100 @@
+package eu.ill.webxdemo.services;
+
+import eu.ill.webxdemo.directory.ConsistentHashRing;
+import eu.ill.webxdemo.directory.InMemorySessionDirectory;
+import eu.ill.webxdemo.directory.SessionDirectory;
+import eu.ill.webxdemo.model.RelayNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ClusterService {
+
+    private static final ClusterService instance = new ClusterService();
+
+    private volatile RelayNode localNode = new RelayNode("local", null);
+    private volatile List<RelayNode> nodes = List.of(localNode);
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(nodes);
+    private volatile SessionDirectory directory = new InMemorySessionDirectory(10000);
+
+    // Number of WebSockets connected to each session on this node: the session is unregistered when the last closes
+    private final Map<String, Integer> localSessions = new ConcurrentHashMap<>();
+
+    private ClusterService() {
+    }
+
+    public static ClusterService instance() {
+        return instance;
+    }
+
+    // The local node is added to the peers if it is not one of them (taking its URL from the peers if not given)
+    public synchronized void start(RelayNode localNode, List<RelayNode> peers, SessionDirectory directory) {
+        List<RelayNode> nodes = new ArrayList<>();
+        for (RelayNode peer : peers) {
+            if (!peer.getId().equals(localNode.getId())) {
+                nodes.add(peer);
+
+            } else if (localNode.getUrl() == null) {
+                localNode = peer;
+            }
+        }
+        nodes.add(0, localNode);
+
+        this.localNode = localNode;
+        this.nodes = List.copyOf(nodes);
+        this.ring = new ConsistentHashRing(this.nodes);
+        this.directory = directory;
+    }
+
+    // Returns the node hosting the session: the node that registered it or, if it is not connected, the node given by
+    // the hash ring so that all nodes route a new connection to the session to the same place
+    public RelayNode getSessionNode(String sessionId) {
+        String nodeId = this.directory.getSessionNode(sessionId);
+        if (nodeId != null) {
+            for (RelayNode node : this.nodes) {
+                if (node.getId().equals(nodeId)) {
+                    return node;
+                }
+            }
+        }
+        return this.ring.getNode(sessionId);
+    }
+
+    public void registerSession(String sessionId) {
+        this.localSessions.compute(sessionId, (id, count) -> {
+            if (count == null) {
+                this.directory.registerSession(id, this.localNode.getId());
+                return 1;
+            }
+            return count + 1;
+        });
+    }
+
+    public void unregisterSession(String sessionId) {
+        this.localSessions.computeIfPresent(sessionId, (id, count) -> {
+            if (count == 1) {
+                this.directory.unregisterSession(id, this.localNode.getId());
+                return null;
+            }
+            return count - 1;
+        });
+    }
+
+    public int getLocalSessionCount() {
+        return this.localSessions.size();
+    }
+
+    public RelayNode getLocalNode() {
+        return localNode;
+    }
+
+    public List<RelayNode> getNodes() {
+        return nodes;
+    }
+
+    public SessionDirectory getDirectory() {
+        return directory;
+    }
+}
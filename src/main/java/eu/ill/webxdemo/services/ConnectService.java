@@ -0,0 +1,112 @@
+package eu.ill.webxdemo.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+public class ConnectService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectService.class);
+
+    private static final ConnectService instance = new ConnectService();
+
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+
+    private ThreadPoolExecutor executor;
+    private long timeoutMs = 15000;
+
+    private ConnectService() {
+        this.start(16, 64, this.timeoutMs);
+    }
+
+    public static ConnectService instance() {
+        return instance;
+    }
+
+    public synchronized void start(final int threads, final int queueSize, final long timeoutMs) {
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "webx-connect-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timeoutMs = timeoutMs;
+    }
+
+    public void stop() {
+        this.executor.shutdownNow();
+    }
+
+    // Runs the connection on the connect executor. Returns null if the connection is rejected because the executor
+    // and its queue are full. A result obtained after the timeout (or cancellation) is passed to discard.
+    public <T> CompletableFuture<T> connect(final Callable<T> connection, final Consumer<T> discard) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            this.executor.execute(() -> {
+                if (result.isDone()) {
+                    // Timed out or cancelled while queued
+                    return;
+                }
+
+                try {
+                    T value = connection.call();
+                    if (!result.complete(value)) {
+                        discard.accept(value);
+                    }
+
+                } catch (Exception exception) {
+                    result.completeExceptionally(exception);
+                }
+            });
+
+        } catch (RejectedExecutionException exception) {
+            this.rejectedCount.increment();
+            logger.warn("Connection rejected: {} connections pending", this.getPendingCount());
+            return null;
+        }
+
+        result.orTimeout(this.timeoutMs, TimeUnit.MILLISECONDS).whenComplete((value, throwable) -> {
+            if (throwable instanceof TimeoutException) {
+                this.timeoutCount.increment();
+            }
+        });
+
+        return result;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    public int getPendingCount() {
+        return this.executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    public long getTimeoutCount() {
+        return this.timeoutCount.sum();
+    }
+}
@@ -0,0 +1,138 @@
+package eu.ill.webxdemo.services;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Drains the relay before a restart: new WebSockets are refused and the open ones are closed with the status code 1012
+// (service restart) so that clients reconnect to another node. Closes are spread randomly over a period so that the
+// clients do not all reconnect (and start tunnels on the WebX routers) at the same time
+public class DrainService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DrainService.class);
+
+    private static final DrainService instance = new DrainService();
+
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch drained = new CountDownLatch(1);
+
+    private long spreadMs = 10000;
+    private long deadlineMs = 30000;
+    private volatile boolean draining = false;
+
+    private DrainService() {
+    }
+
+    public static DrainService instance() {
+        return instance;
+    }
+
+    public synchronized void configure(final long spreadMs, final long deadlineMs) {
+        this.spreadMs = spreadMs;
+        this.deadlineMs = deadlineMs;
+    }
+
+    // Returns false if the relay is draining and the WebSocket must be refused
+    public boolean register(final Session session) {
+        this.sessions.add(session);
+        if (this.draining) {
+            this.sessions.remove(session);
+            return false;
+        }
+        return true;
+    }
+
+    public void unregister(final Session session) {
+        this.sessions.remove(session);
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    // Starts draining in the background (only the first call has an effect)
+    public synchronized void drain() {
+        if (this.draining) {
+            return;
+        }
+        this.draining = true;
+
+        Thread thread = new Thread(this::run, "webx-drain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Drains then exits the process (the shutdown hook then stops the server)
+    public void drainAndExit() {
+        this.drain();
+
+        Thread thread = new Thread(() -> {
+            this.awaitDrained();
+            System.exit(0);
+        }, "webx-drain-exit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void awaitDrained() {
+        try {
+            this.drained.await();
+
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting for the relay to drain");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long spreadMs;
+        long deadlineMs;
+        synchronized (this) {
+            spreadMs = this.spreadMs;
+            deadlineMs = this.deadlineMs;
+        }
+        long deadline = System.currentTimeMillis() + deadlineMs;
+
+        logger.info("Draining {} WebSockets over {}ms", this.sessions.size(), spreadMs);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "webx-drain-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Session session : this.sessions) {
+            long delayMs = spreadMs > 0 ? ThreadLocalRandom.current().nextLong(spreadMs) : 0;
+            scheduler.schedule(() -> session.close(StatusCode.SERVICE_RESTART, "Relay is restarting"), delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        RelayService relayService = RelayService.instance();
+        while ((!this.sessions.isEmpty() || relayService.getActiveTunnelCount() > 0) && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+
+            } catch (InterruptedException ignored) {
+            }
+        }
+        scheduler.shutdownNow();
+
+        if (!this.sessions.isEmpty()) {
+            logger.warn("Drain deadline reached: disconnecting {} remaining WebSockets", this.sessions.size());
+            for (Session session : this.sessions) {
+                session.close(StatusCode.SERVICE_RESTART, "Relay is restarting");
+            }
+        }
+
+        logger.info("Relay drained");
+        this.drained.countDown();
+    }
+}
@@ -0,0 +1,165 @@
+package eu.ill.webxdemo.services;
+
+import eu.ill.webxdemo.metrics.Histogram;
+import eu.ill.webxdemo.metrics.SessionMetrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetricsService {
+
+    private static final MetricsService instance = new MetricsService();
+
+    private final AtomicLong sessionIds = new AtomicLong();
+    private final Map<Long, SessionMetrics> sessions = new ConcurrentHashMap<>();
+    private final Map<String, SessionMetrics> hosts = new ConcurrentHashMap<>();
+    private final SessionMetrics totals = new SessionMetrics(0, null, null);
+    private final LongAdder connectFailureCount = new LongAdder();
+    private final LongAdder droppedMessageCount = new LongAdder();
+    private final LongAdder droppedBytes = new LongAdder();
+    private final LongAdder qualityIncreaseCount = new LongAdder();
+    private final LongAdder qualityDecreaseCount = new LongAdder();
+    private final LongAdder mouseMoveCount = new LongAdder();
+    private final LongAdder coalescedMouseMoveCount = new LongAdder();
+    private final LongAdder prioritisedMessageCount = new LongAdder();
+    private final LongAdder chunkedImageCount = new LongAdder();
+    private final LongAdder chunkCount = new LongAdder();
+
+    private final Histogram tunnelReadWaitTime = new Histogram("webx_tunnel_read_wait_seconds", "Time spent waiting for a message from the WebX host in tunnel.read()");
+    private final Histogram webSocketSendTime = new Histogram("webx_websocket_send_seconds", "Time taken to send a batch of messages to a WebSocket");
+    private final Histogram tunnelConnectTime = new Histogram("webx_tunnel_connect_seconds", "Time taken to connect a tunnel to a WebX host");
+    private final Histogram standbyFirstMessageTime = new Histogram("webx_standby_first_message_seconds", "Time from the claim of a standby tunnel to the first message sent to its client");
+
+    private volatile boolean sessionMetricsEnabled = false;
+
+    private MetricsService() {
+    }
+
+    public static MetricsService instance() {
+        return instance;
+    }
+
+    // The metrics of a session are added to those of its host, which are kept once its sessions are closed
+    public SessionMetrics openSession(final String host) {
+        SessionMetrics hostMetrics = this.hosts.computeIfAbsent(String.valueOf(host), key -> new SessionMetrics(0, key, this.totals));
+        SessionMetrics sessionMetrics = new SessionMetrics(this.sessionIds.incrementAndGet(), host, hostMetrics);
+        this.sessions.put(sessionMetrics.getId(), sessionMetrics);
+        return sessionMetrics;
+    }
+
+    public void closeSession(final SessionMetrics sessionMetrics) {
+        this.sessions.remove(sessionMetrics.getId());
+    }
+
+    public void recordConnectFailure() {
+        this.connectFailureCount.increment();
+    }
+
+    public void recordDroppedMessage(final int length) {
+        this.droppedMessageCount.increment();
+        this.droppedBytes.add(length);
+    }
+
+    public void recordQualityChange(final boolean increase) {
+        (increase ? this.qualityIncreaseCount : this.qualityDecreaseCount).increment();
+    }
+
+    public void recordMouseMove(final boolean coalesced) {
+        this.mouseMoveCount.increment();
+        if (coalesced) {
+            this.coalescedMouseMoveCount.increment();
+        }
+    }
+
+    public void recordPrioritisedMessage() {
+        this.prioritisedMessageCount.increment();
+    }
+
+    public void recordChunkedImage() {
+        this.chunkedImageCount.increment();
+    }
+
+    public void recordChunk() {
+        this.chunkCount.increment();
+    }
+
+    public Collection<SessionMetrics> getSessions() {
+        return this.sessions.values();
+    }
+
+    public Collection<SessionMetrics> getHosts() {
+        return this.hosts.values();
+    }
+
+    // Exports the metrics of each session: one series per session, so only for debugging a small number of sessions
+    public void setSessionMetricsEnabled(final boolean sessionMetricsEnabled) {
+        this.sessionMetricsEnabled = sessionMetricsEnabled;
+    }
+
+    public boolean isSessionMetricsEnabled() {
+        return sessionMetricsEnabled;
+    }
+
+    public SessionMetrics getTotals() {
+        return totals;
+    }
+
+    public long getConnectFailureCount() {
+        return this.connectFailureCount.sum();
+    }
+
+    public long getDroppedMessageCount() {
+        return this.droppedMessageCount.sum();
+    }
+
+    public long getDroppedBytes() {
+        return this.droppedBytes.sum();
+    }
+
+    public long getQualityIncreaseCount() {
+        return this.qualityIncreaseCount.sum();
+    }
+
+    public long getQualityDecreaseCount() {
+        return this.qualityDecreaseCount.sum();
+    }
+
+    public long getMouseMoveCount() {
+        return this.mouseMoveCount.sum();
+    }
+
+    public long getCoalescedMouseMoveCount() {
+        return this.coalescedMouseMoveCount.sum();
+    }
+
+    public long getPrioritisedMessageCount() {
+        return this.prioritisedMessageCount.sum();
+    }
+
+    public long getChunkedImageCount() {
+        return this.chunkedImageCount.sum();
+    }
+
+    public long getChunkCount() {
+        return this.chunkCount.sum();
+    }
+
+    public Histogram getTunnelReadWaitTime() {
+        return tunnelReadWaitTime;
+    }
+
+    public Histogram getWebSocketSendTime() {
+        return webSocketSendTime;
+    }
+
+    public Histogram getTunnelConnectTime() {
+        return tunnelConnectTime;
+    }
+
+    public Histogram getStandbyFirstMessageTime() {
+        return standbyFirstMessageTime;
+    }
+}
@@ -0,0 +1,58 @@
+package eu.ill.webxdemo.services;
+
+import eu.ill.webxdemo.recording.TunnelRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RecordingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordingService.class);
+
+    private static final RecordingService instance = new RecordingService();
+
+    private final AtomicLong recordingIds = new AtomicLong();
+
+    private Path directory = null;
+    private long maxSize = 0;
+
+    private RecordingService() {
+    }
+
+    public static RecordingService instance() {
+        return instance;
+    }
+
+    public synchronized void start(final Path directory, final long maxSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+
+        logger.info("Recording tunnels in {} (maximum of {} bytes per tunnel)", directory, maxSize);
+    }
+
+    // Returns a recorder for a new tunnel, or null if recording is disabled or the recording can't be created
+    public TunnelRecorder createRecorder() {
+        Path directory;
+        long maxSize;
+        synchronized (this) {
+            directory = this.directory;
+            maxSize = this.maxSize;
+        }
+        if (directory == null) {
+            return null;
+        }
+
+        Path path = directory.resolve("tunnel-" + System.currentTimeMillis() + "-" + this.recordingIds.incrementAndGet() + ".webxrec");
+        try {
+            return new TunnelRecorder(path, maxSize);
+
+        } catch (IOException exception) {
+            logger.error("Failed to create recording {}: {}", path, exception.getMessage());
+            return null;
+        }
+    }
+}
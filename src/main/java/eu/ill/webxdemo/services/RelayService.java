@@ -0,0 +1,107 @@
+package eu.ill.webxdemo.services;
+
+import eu.ill.webxdemo.model.RelayMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+public class RelayService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RelayService.class);
+
+    private static final RelayService instance = new RelayService();
+
+    private final Set<Thread> relays = ConcurrentHashMap.newKeySet();
+    private final LongAdder startedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private RelayMode mode = RelayMode.PLATFORM;
+    private int maxTunnels = Integer.MAX_VALUE;
+    private Semaphore permits = new Semaphore(Integer.MAX_VALUE);
+    private ThreadFactory threadFactory = Thread.ofPlatform().name("webx-relay-", 0).factory();
+    private volatile boolean running = false;
+
+    private RelayService() {
+    }
+
+    public static RelayService instance() {
+        return instance;
+    }
+
+    public synchronized void start(final RelayMode mode, final int maxTunnels) {
+        this.mode = mode;
+        this.maxTunnels = maxTunnels > 0 ? maxTunnels : Integer.MAX_VALUE;
+        this.permits = new Semaphore(this.maxTunnels);
+        this.threadFactory = mode == RelayMode.VIRTUAL ? Thread.ofVirtual().name("webx-relay-", 0).factory() : Thread.ofPlatform().name("webx-relay-", 0).factory();
+        this.running = true;
+
+        logger.info("Relay started using {} threads with {} tunnels maximum", mode.name().toLowerCase(), maxTunnels > 0 ? maxTunnels : "no limit of");
+    }
+
+    public void stop() {
+        this.running = false;
+    }
+
+    // Reserve a relay slot before the (costly) connection to the WebX host: must be followed by execute or release
+    public boolean reserve() {
+        if (this.running && this.permits.tryAcquire()) {
+            return true;
+        }
+
+        this.rejectedCount.increment();
+        logger.warn("Relay tunnel rejected: {} of {} tunnels active", this.relays.size(), this.maxTunnels);
+        return false;
+    }
+
+    // Reserve a slot for a tunnel connected in advance (see StandbyPool): a full relay is not counted as a rejection
+    public boolean tryReserve() {
+        return this.running && this.permits.tryAcquire();
+    }
+
+    public void release() {
+        this.permits.release();
+    }
+
+    public Thread execute(final Runnable relay) {
+        final Thread thread = this.threadFactory.newThread(() -> {
+            try {
+                relay.run();
+
+            } finally {
+                this.relays.remove(Thread.currentThread());
+                this.permits.release();
+            }
+        });
+
+        this.relays.add(thread);
+        this.startedCount.increment();
+        thread.start();
+
+        return thread;
+    }
+
+    public RelayMode getMode() {
+        return mode;
+    }
+
+    public int getMaxTunnels() {
+        return maxTunnels;
+    }
+
+    public int getActiveTunnelCount() {
+        return this.relays.size();
+    }
+
+    public long getStartedCount() {
+        return this.startedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+}
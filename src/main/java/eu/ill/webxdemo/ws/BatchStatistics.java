@@ -0,0 +1,64 @@
+package eu.ill.webxdemo.ws;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class BatchStatistics {
+
+    // Upper bounds (inclusive) of the batch size buckets (number of messages), the last bucket counting all larger batches
+    public static final int[] BATCH_SIZE_BUCKETS = {1, 2, 4, 8, 16, 32, 64};
+
+    private static final BatchStatistics instance = new BatchStatistics();
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder messageCount = new LongAdder();
+    private final LongAdder byteCount = new LongAdder();
+    private final LongAdder addedLatencyNanos = new LongAdder();
+    private final LongAdder[] batchSizeCounts = new LongAdder[BATCH_SIZE_BUCKETS.length + 1];
+
+    private BatchStatistics() {
+        for (int i = 0; i < this.batchSizeCounts.length; i++) {
+            this.batchSizeCounts[i] = new LongAdder();
+        }
+    }
+
+    public static BatchStatistics instance() {
+        return instance;
+    }
+
+    public void record(final int messages, final long bytes, final long addedLatencyNanos) {
+        this.batchCount.increment();
+        this.messageCount.add(messages);
+        this.byteCount.add(bytes);
+        this.addedLatencyNanos.add(addedLatencyNanos);
+
+        int bucket = 0;
+        while (bucket < BATCH_SIZE_BUCKETS.length && messages > BATCH_SIZE_BUCKETS[bucket]) {
+            bucket++;
+        }
+        this.batchSizeCounts[bucket].increment();
+    }
+
+    public long getBatchCount() {
+        return this.batchCount.sum();
+    }
+
+    public long getMessageCount() {
+        return this.messageCount.sum();
+    }
+
+    public long getByteCount() {
+        return this.byteCount.sum();
+    }
+
+    public long getAddedLatencyNanos() {
+        return this.addedLatencyNanos.sum();
+    }
+
+    public long[] getBatchSizeCounts() {
+        long[] counts = new long[this.batchSizeCounts.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.batchSizeCounts[i].sum();
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,32 @@
+package eu.ill.webxdemo.ws;
+
+// Determines which queued messages are made obsolete by a newer message so that they can be discarded when a client
+// falls behind: a full window image replaces the previous images and subimages of the window and a mouse message
+// replaces the previous mouse positions. Only unsolicited updates are discarded: a message replying to an instruction
+// of the client (with its command id, eg the image of a window requested by the client) is always sent. Other messages
+// (connection, screen, windows, clipboard, shape, ...) are never discarded
+final class CongestionFilter {
+
+    private CongestionFilter() {
+    }
+
+    // Returns true if messages of this type can make queued messages obsolete
+    static boolean isSuperseding(final int type) {
+        return type == WebXMessageHeader.IMAGE || type == WebXMessageHeader.MOUSE;
+    }
+
+    static boolean supersedes(final int type, final long windowId, final byte[] queued) {
+        if (WebXMessageHeader.getCommandId(queued) != 0) {
+            return false;
+        }
+
+        int queuedType = WebXMessageHeader.getType(queued);
+        if (type == WebXMessageHeader.IMAGE) {
+            return WebXMessageHeader.isImage(queuedType) && WebXMessageHeader.getWindowId(queued) == windowId;
+
+        } else if (type == WebXMessageHeader.MOUSE) {
+            return queuedType == WebXMessageHeader.MOUSE;
+        }
+        return false;
+    }
+}
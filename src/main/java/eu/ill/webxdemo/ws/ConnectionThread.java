@@ -1,43 +1,123 @@
 package eu.ill.webxdemo.ws;
 
-import eu.ill.webx.WebXTunnel;
+import eu.ill.webxdemo.OutboundConfiguration;
 import eu.ill.webx.exceptions.WebXClientException;
 import eu.ill.webx.exceptions.WebXConnectionInterruptException;
 import eu.ill.webx.exceptions.WebXDisconnectedException;
+import eu.ill.webxdemo.memory.MemoryBudget;
+import eu.ill.webxdemo.metrics.Histogram;
+import eu.ill.webxdemo.metrics.SessionMetrics;
+import eu.ill.webxdemo.recording.TunnelRecorder;
+import eu.ill.webxdemo.recording.TunnelRecording;
+import eu.ill.webxdemo.services.MetricsService;
 import org.eclipse.jetty.websocket.api.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
 
-public class ConnectionThread extends Thread {
+public class ConnectionThread implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(ConnectionThread.class);
 
-    private final WebXTunnel tunnel;
-    private final Session session;
+    private final RelayTunnel tunnel;
+    private volatile Session session;
+    private final OutboundQueue outboundQueue;
+    private final SessionMetrics metrics;
+    private final QualityController qualityController;
+    private volatile TunnelRecorder recorder;
+    private volatile IdleTracker idleTracker;
+    private volatile InputCoalescer inputCoalescer;
+    private Histogram firstMessageTime;
+    private long firstMessageStartTime;
 
-    public ConnectionThread(final WebXTunnel tunnel, final Session session) {
+    public ConnectionThread(final RelayTunnel tunnel, final Session session, final OutboundConfiguration outboundConfiguration, final SessionMetrics metrics) {
+        this(tunnel, session, outboundConfiguration, metrics, null);
+    }
+
+    // The quality controller is optional (null when adaptive quality is disabled)
+    public ConnectionThread(final RelayTunnel tunnel, final Session session, final OutboundConfiguration outboundConfiguration, final SessionMetrics metrics, final QualityController qualityController) {
         this.tunnel = tunnel;
         this.session = session;
+        this.outboundQueue = new OutboundQueue(session, outboundConfiguration, this::closeTunnel);
+        this.metrics = metrics;
+        this.metrics.setQueuedBytes(this.outboundQueue::getQueuedBytes);
+        this.qualityController = qualityController;
+        this.outboundQueue.setQualityController(qualityController);
     }
 
-    public void write(byte[] data) {
+    public void write(byte[] payload, int offset, int length) {
         try {
-            this.tunnel.write(data);
+            // Jetty delivers whole messages in their own array: only a slice of a larger buffer needs to be copied
+            // (the tunnel keeps the array to send it asynchronously so it cannot be reused)
+            byte[] data = (offset == 0 && length == payload.length) ? payload : Arrays.copyOfRange(payload, offset, offset + length);
+            int type = WebXInstructionHeader.getType(payload, offset, length);
+            if (this.qualityController != null && type == WebXInstructionHeader.QUALITY) {
+                this.qualityController.onClientQuality(WebXInstructionHeader.getQualityIndex(payload, offset, length));
+            }
+            IdleTracker idleTracker = this.idleTracker;
+            if (idleTracker != null) {
+                idleTracker.onInstruction(type, type == WebXInstructionHeader.QUALITY ? WebXInstructionHeader.getQualityIndex(payload, offset, length) : 0);
+            }
+            InputCoalescer inputCoalescer = this.inputCoalescer;
+            if (inputCoalescer != null) {
+                inputCoalescer.write(data);
+
+            } else {
+                this.tunnel.write(data);
+            }
+            this.metrics.recordIn(length);
+
+            TunnelRecorder recorder = this.recorder;
+            if (recorder != null) {
+                int maskOffset = WebXInstructionHeader.isPrivate(type) ? WebXInstructionHeader.INSTRUCTION_HEADER_LENGTH : length;
+                recorder.record(TunnelRecording.CLIENT_TO_HOST, payload, offset, length, maskOffset);
+            }
 
         } catch (WebXClientException exception) {
             logger.debug("Connection to WebX server is closed", exception);
         }
     }
 
+    @Override
     public void run() {
 
+        Histogram readWaitTime = MetricsService.instance().getTunnelReadWaitTime();
+        MemoryBudget memoryBudget = MemoryBudget.instance();
+        LongSupplier queuedBytes = this.outboundQueue::getQueuedBytes;
+        BooleanSupplier closed = () -> !this.tunnel.isConnected() || this.outboundQueue.isClosed();
+        memoryBudget.register();
         try {
-            byte[] messageData;
-            while (tunnel.isConnected() && (messageData = tunnel.read()) != null) {
+            while (tunnel.isConnected()) {
+                // Back-pressure: the messages stay in the WebX Engine while the relay is over its memory budget
+                long memoryWaitNanos = memoryBudget.awaitCapacity(queuedBytes, closed);
+                if (memoryWaitNanos > 0) {
+                    this.metrics.recordMemoryWait(memoryWaitNanos);
+                }
+
+                long readStartTime = System.nanoTime();
+                byte[] messageData = tunnel.read();
+                readWaitTime.record(System.nanoTime() - readStartTime);
+                if (messageData == null) {
+                    break;
+                }
+
+                this.metrics.recordOut(messageData.length);
+                TunnelRecorder recorder = this.recorder;
+                if (recorder != null) {
+                    int maskOffset = WebXMessageHeader.getType(messageData) == WebXMessageHeader.CLIPBOARD ? WebXMessageHeader.MESSAGE_HEADER_LENGTH : messageData.length;
+                    recorder.record(TunnelRecording.HOST_TO_CLIENT, messageData, 0, messageData.length, maskOffset);
+                }
                 this.sendData(messageData);
+                if (this.firstMessageTime != null) {
+                    this.firstMessageTime.record(System.nanoTime() - this.firstMessageStartTime);
+                    this.firstMessageTime = null;
+                }
+                if (this.qualityController != null) {
+                    this.qualityController.update(this.outboundQueue.getQueuedBytes());
+                }
             }
 
         } catch (WebXClientException exception) {
@@ -48,25 +128,138 @@ public class ConnectionThread extends Thread {
 
         } catch (WebXDisconnectedException exception) {
             logger.error("WebSocket connection terminated due to disconnection {}", exception.getMessage());
+
+        } catch (InterruptedException exception) {
+            logger.error("WebSocket connection terminated due to interruption while waiting for the memory budget");
+            Thread.currentThread().interrupt();
         }
 
+        memoryBudget.unregister();
+        this.outboundQueue.close();
         this.session.close();
+        MetricsService.instance().closeSession(this.metrics);
+        if (this.idleTracker != null) {
+            IdleSessions.instance().unregister(this.idleTracker);
+        }
+        if (this.recorder != null) {
+            this.recorder.close();
+        }
     }
 
     public void closeTunnel() {
+        this.outboundQueue.close();
         this.tunnel.disconnect();
+        // The relay thread may be waiting for the memory budget, which other sessions keep full
+        MemoryBudget.instance().wakeWaiting();
+    }
+
+    // Records both directions of the tunnel (must be set before the thread is started)
+    public void setRecorder(final TunnelRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // Records the time from the given start time to the first message sent to the client (must be set before the thread
+    // is started)
+    public void timeFirstMessage(final Histogram firstMessageTime, final long startTime) {
+        this.firstMessageTime = firstMessageTime;
+        this.firstMessageStartTime = startTime;
+    }
+
+    // Merges the mouse moves received within the given window (see InputCoalescer)
+    public void enableInputCoalescing(final long windowNanos) {
+        this.inputCoalescer = new InputCoalescer(this.tunnel, windowNanos);
+    }
+
+    // Throttles, suspends and closes the session when it is idle (see IdleSessions). The quality index is restored to
+    // the given one when the session becomes active again, unless the client has set another one. Only notified clients
+    // are told of the idle stages and suspended
+    public void enableIdleTracking(final int qualityIndex, final boolean notified) {
+        this.idleTracker = new IdleTracker(this, this.qualityController, qualityIndex, notified);
+        IdleSessions.instance().register(this.idleTracker);
+    }
+
+    // Page visibility hint from the client
+    public void onVisibility(final boolean visible) {
+        IdleTracker idleTracker = this.idleTracker;
+        if (idleTracker != null) {
+            idleTracker.onVisibility(visible);
+        }
+    }
+
+    // Keeps the tunnel open when the WebSocket closes, buffering up to the given number of bytes until it is resumed
+    public void enableResume(final int resumeBufferBytes) {
+        this.outboundQueue.setResumeBufferBytes(resumeBufferBytes);
+    }
+
+    // Compresses the messages sent to a client that requested it (see MessageCompression)
+    public void setCompression(final boolean compression) {
+        this.outboundQueue.setCompression(compression);
+    }
+
+    // Sends large images in chunks to a client that can reassemble them (see OutboundScheduler)
+    public void setChunking(final boolean chunking) {
+        this.outboundQueue.setChunking(chunking);
+    }
+
+    public void detach() {
+        this.outboundQueue.detach();
+    }
+
+    public void attach(final Session session) {
+        this.session = session;
+        this.outboundQueue.attach(session);
     }
 
     public boolean isConnected() {
         return this.tunnel.isConnected();
     }
 
+    public long getQueuedBytes() {
+        return this.outboundQueue.getQueuedBytes();
+    }
+
+    // Instruction from the relay itself to the WebX Engine
+    void writeInstruction(final byte[] instruction) {
+        try {
+            this.tunnel.write(instruction);
+
+        } catch (WebXClientException exception) {
+            logger.debug("Failed to send instruction to the WebX Engine", exception);
+        }
+    }
+
+    // Notification to the client, sent asynchronously and ignored by clients that don't expect it
+    void sendText(final String text) {
+        Session session = this.session;
+        if (session.isOpen()) {
+            session.getRemote().sendString(text, null);
+        }
+    }
+
+    // Closes an idle session: the client is told so that it can reconnect to its WebX session later
+    void closeIdle() {
+        Session session = this.session;
+        if (session.isOpen()) {
+            session.close(IdleTracker.IDLE_CLOSE_STATUS, "Session idle");
+        }
+        this.closeTunnel();
+    }
+
     private void sendData(byte[] data) {
+        IdleTracker idleTracker = this.idleTracker;
+        if (idleTracker != null && idleTracker.isSuppressed(data)) {
+            IdleSessions.instance().recordSuppressedMessage(data.length);
+            return;
+        }
+
         try {
-            this.session.getRemote().sendBytes(ByteBuffer.wrap(data));
+            if (!this.outboundQueue.offer(data)) {
+                this.closeTunnel();
+            }
 
-        } catch (IOException exception) {
-            logger.error("Failed to write binary data to web socket", exception);
+        } catch (InterruptedException exception) {
+            logger.error("Interrupted while waiting for the web socket send queue to drain");
+            Thread.currentThread().interrupt();
             this.closeTunnel();
         }
     }
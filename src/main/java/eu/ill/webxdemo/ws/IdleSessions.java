@@ -0,0 +1,171 @@
+package eu.ill.webxdemo.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Reclaims the resources of sessions nobody is using: the idle trackers of all sessions are evaluated every second and
+// sessions idle for longer than the thresholds are throttled (the engine is set to a very low quality and frame rate),
+// then suspended (images and mouse updates are no longer sent to the client) and finally closed. A threshold of 0
+// disables its stage
+public class IdleSessions {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdleSessions.class);
+
+    private static final IdleSessions instance = new IdleSessions();
+
+    private static final long EVALUATION_INTERVAL_MS = 1000;
+
+    private final Set<IdleTracker> trackers = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "webx-idle-sessions");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder throttledCount = new LongAdder();
+    private final LongAdder suspendedCount = new LongAdder();
+    private final LongAdder closedCount = new LongAdder();
+    private final LongAdder reactivatedCount = new LongAdder();
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder suspendedNanos = new LongAdder();
+    private final LongAdder suppressedMessageCount = new LongAdder();
+    private final LongAdder suppressedBytes = new LongAdder();
+
+    private long throttleNanos = 0;
+    private long suspendNanos = 0;
+    private long closeNanos = 0;
+    private int throttleQualityIndex = 1;
+    private boolean started = false;
+
+    private IdleSessions() {
+    }
+
+    public static IdleSessions instance() {
+        return instance;
+    }
+
+    public synchronized void start(final long throttleMs, final long suspendMs, final long closeMs, final int throttleQualityIndex) {
+        this.throttleNanos = TimeUnit.MILLISECONDS.toNanos(throttleMs);
+        this.suspendNanos = TimeUnit.MILLISECONDS.toNanos(suspendMs);
+        this.closeNanos = TimeUnit.MILLISECONDS.toNanos(closeMs);
+        this.throttleQualityIndex = throttleQualityIndex;
+        if (!this.started) {
+            this.scheduler.scheduleWithFixedDelay(this::evaluate, EVALUATION_INTERVAL_MS, EVALUATION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            this.started = true;
+        }
+
+        logger.info("Idle sessions are throttled after {}s, suspended after {}s and closed after {}s (0 = never)",
+                TimeUnit.MILLISECONDS.toSeconds(throttleMs), TimeUnit.MILLISECONDS.toSeconds(suspendMs), TimeUnit.MILLISECONDS.toSeconds(closeMs));
+    }
+
+    public synchronized boolean isEnabled() {
+        return this.started;
+    }
+
+    public void register(final IdleTracker tracker) {
+        this.trackers.add(tracker);
+    }
+
+    public void unregister(final IdleTracker tracker) {
+        this.trackers.remove(tracker);
+    }
+
+    public int getSessionCount(final IdleTracker.State state) {
+        return (int) this.trackers.stream().filter(tracker -> tracker.getState() == state).count();
+    }
+
+    public long getThrottledCount() {
+        return this.throttledCount.sum();
+    }
+
+    public long getSuspendedCount() {
+        return this.suspendedCount.sum();
+    }
+
+    public long getClosedCount() {
+        return this.closedCount.sum();
+    }
+
+    public long getReactivatedCount() {
+        return this.reactivatedCount.sum();
+    }
+
+    public long getThrottledNanos() {
+        return this.throttledNanos.sum();
+    }
+
+    public long getSuspendedNanos() {
+        return this.suspendedNanos.sum();
+    }
+
+    public long getSuppressedMessageCount() {
+        return this.suppressedMessageCount.sum();
+    }
+
+    public long getSuppressedBytes() {
+        return this.suppressedBytes.sum();
+    }
+
+    synchronized int getThrottleQualityIndex() {
+        return this.throttleQualityIndex;
+    }
+
+    void recordTransition(final IdleTracker.State state) {
+        switch (state) {
+            case THROTTLED:
+                this.throttledCount.increment();
+                break;
+            case SUSPENDED:
+                this.suspendedCount.increment();
+                break;
+            default:
+                this.reactivatedCount.increment();
+        }
+    }
+
+    void recordClosed() {
+        this.closedCount.increment();
+    }
+
+    void recordIdleTime(final IdleTracker.State state, final long nanos) {
+        if (state == IdleTracker.State.THROTTLED) {
+            this.throttledNanos.add(nanos);
+
+        } else if (state == IdleTracker.State.SUSPENDED) {
+            this.suspendedNanos.add(nanos);
+        }
+    }
+
+    void recordSuppressedMessage(final int length) {
+        this.suppressedMessageCount.increment();
+        this.suppressedBytes.add(length);
+    }
+
+    private void evaluate() {
+        long throttleNanos;
+        long suspendNanos;
+        long closeNanos;
+        synchronized (this) {
+            throttleNanos = this.throttleNanos;
+            suspendNanos = this.suspendNanos;
+            closeNanos = this.closeNanos;
+        }
+
+        long now = System.nanoTime();
+        for (IdleTracker tracker : this.trackers) {
+            try {
+                tracker.evaluate(now, throttleNanos, suspendNanos, closeNanos);
+
+            } catch (RuntimeException exception) {
+                logger.error("Failed to evaluate idle session: {}", exception.getMessage());
+            }
+        }
+    }
+}
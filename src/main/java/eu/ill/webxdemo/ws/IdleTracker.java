@@ -0,0 +1,161 @@
+package eu.ill.webxdemo.ws;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Idle state of a session (see IdleSessions). The session is idle from its client's last input instruction or, when
+// the client reports that its page is hidden, as if it had been idle for the throttle threshold when it was hidden:
+// a hidden page is throttled immediately. Any input, or the page becoming visible, restores the session and tells the
+// client (idle:active) so that it repaints after a suspension. Clients are told of each stage with a text message
+// (idle:throttled, idle:suspended) and closed sessions are closed with the status code 4000 so that the client can
+// reconnect to its WebX session when the user comes back. Only the clients that connected with idle=true are sent these
+// text messages and suspended, as other clients would not know to repaint: they are only throttled and closed.
+public class IdleTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdleTracker.class);
+
+    public static final int IDLE_CLOSE_STATUS = 4000;
+    public static final String VISIBILITY_HIDDEN = "visibility:hidden";
+    public static final String VISIBILITY_VISIBLE = "visibility:visible";
+
+    public enum State {
+        ACTIVE, THROTTLED, SUSPENDED
+    }
+
+    private final ConnectionThread connectionThread;
+    private final QualityController qualityController;
+    private final boolean notified;
+
+    private volatile long lastActivityTime = System.nanoTime();
+    private volatile State state = State.ACTIVE;
+    private long lastEvaluationTime = System.nanoTime();
+    private long hiddenTime = 0;
+    private boolean hidden = false;
+    private boolean closed = false;
+    private int clientQualityIndex;
+
+    // The quality controller is optional (null when adaptive quality is disabled). Notified clients are sent the idle
+    // text messages and can be suspended
+    public IdleTracker(final ConnectionThread connectionThread, final QualityController qualityController, final int clientQualityIndex, final boolean notified) {
+        this.connectionThread = connectionThread;
+        this.qualityController = qualityController;
+        this.clientQualityIndex = clientQualityIndex;
+        this.notified = notified;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // Called for each instruction from the client. Only the (rare) return from idleness takes the lock
+    public void onInstruction(final int type, final int qualityIndex) {
+        if (type == WebXInstructionHeader.QUALITY) {
+            synchronized (this) {
+                this.clientQualityIndex = qualityIndex;
+            }
+        }
+        if (WebXInstructionHeader.isInput(type)) {
+            this.lastActivityTime = System.nanoTime();
+            if (this.state != State.ACTIVE) {
+                this.reactivate();
+            }
+        }
+    }
+
+    public void onVisibility(final boolean visible) {
+        synchronized (this) {
+            this.hidden = !visible;
+            if (!visible) {
+                this.hiddenTime = System.nanoTime();
+                return;
+            }
+            this.lastActivityTime = System.nanoTime();
+        }
+        this.reactivate();
+    }
+
+    // Messages not sent to a suspended session: the client repaints when it becomes active again. Replies to a client
+    // instruction (with a command id) are always sent, as the client waits for them
+    public boolean isSuppressed(final byte[] message) {
+        if (this.state != State.SUSPENDED) {
+            return false;
+        }
+        int messageType = WebXMessageHeader.getType(message);
+        return (WebXMessageHeader.isImage(messageType) || messageType == WebXMessageHeader.MOUSE || messageType == WebXMessageHeader.CURSOR_IMAGE)
+                && WebXMessageHeader.getCommandId(message) == 0;
+    }
+
+    void evaluate(final long now, final long throttleNanos, final long suspendNanos, final long closeNanos) {
+        State previousState;
+        State newState;
+        boolean close;
+        int throttleQualityIndex = IdleSessions.instance().getThrottleQualityIndex();
+        synchronized (this) {
+            previousState = this.state;
+            IdleSessions.instance().recordIdleTime(previousState, now - this.lastEvaluationTime);
+            this.lastEvaluationTime = now;
+            if (this.closed) {
+                return;
+            }
+
+            long idleNanos = now - this.lastActivityTime;
+            if (this.hidden) {
+                idleNanos = Math.max(idleNanos, throttleNanos + now - this.hiddenTime);
+            }
+
+            newState = previousState;
+            if (throttleNanos > 0 && idleNanos >= throttleNanos && newState.compareTo(State.THROTTLED) < 0) {
+                newState = State.THROTTLED;
+            }
+            if (this.notified && suspendNanos > 0 && idleNanos >= suspendNanos) {
+                newState = State.SUSPENDED;
+            }
+            close = closeNanos > 0 && idleNanos >= closeNanos;
+            this.state = newState;
+            this.closed = close;
+        }
+
+        if (previousState == State.ACTIVE && newState != State.ACTIVE) {
+            logger.debug("Session idle: throttling to quality index {}", throttleQualityIndex);
+            if (this.qualityController != null) {
+                this.qualityController.setPaused(true);
+            }
+            this.connectionThread.writeInstruction(WebXInstructionHeader.createQualityInstruction(throttleQualityIndex));
+        }
+        if (newState != previousState) {
+            IdleSessions.instance().recordTransition(newState);
+            if (this.notified) {
+                this.connectionThread.sendText(newState == State.THROTTLED ? "idle:throttled" : "idle:suspended");
+            }
+        }
+        if (close) {
+            logger.debug("Session idle: closing tunnel");
+            IdleSessions.instance().recordClosed();
+            this.connectionThread.closeIdle();
+        }
+    }
+
+    private void reactivate() {
+        int clientQualityIndex;
+        synchronized (this) {
+            if (this.state == State.ACTIVE || this.closed) {
+                return;
+            }
+            IdleSessions.instance().recordIdleTime(this.state, System.nanoTime() - this.lastEvaluationTime);
+            this.lastEvaluationTime = System.nanoTime();
+            this.state = State.ACTIVE;
+            clientQualityIndex = this.clientQualityIndex;
+        }
+
+        logger.debug("Session active again: restoring quality index {}", clientQualityIndex);
+        IdleSessions.instance().recordTransition(State.ACTIVE);
+        if (this.qualityController != null) {
+            this.qualityController.onClientQuality(clientQualityIndex);
+            this.qualityController.setPaused(false);
+        }
+        this.connectionThread.writeInstruction(WebXInstructionHeader.createQualityInstruction(clientQualityIndex));
+        if (this.notified) {
+            this.connectionThread.sendText("idle:active");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webx.exceptions.WebXClientException;
+import eu.ill.webxdemo.services.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Merges the mouse moves sent by a client within a short window: the first move after a quiet window is written
+// immediately, later ones only keep the latest position which is written at the end of the window. A mouse
+// instruction is only a move if its button mask is unchanged: presses and releases, like every other instruction,
+// are never merged and are written after the pending move so that the order of the instructions is preserved.
+public class InputCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(InputCoalescer.class);
+
+    private static final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "webx-input-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RelayTunnel tunnel;
+    private final long windowNanos;
+    private final MetricsService metricsService = MetricsService.instance();
+
+    private byte[] pendingMove = null;
+    private int buttonMask = 0;
+    private long lastMoveWriteTime = 0;
+    private boolean flushScheduled = false;
+
+    public InputCoalescer(final RelayTunnel tunnel, final long windowNanos) {
+        this.tunnel = tunnel;
+        this.windowNanos = windowNanos;
+    }
+
+    // Writes are made with the lock held so that the instructions reach the tunnel in the order they were received
+    public synchronized void write(final byte[] instruction) throws WebXClientException {
+        int type = WebXInstructionHeader.getType(instruction, 0, instruction.length);
+        int buttonMask = WebXInstructionHeader.getButtonMask(instruction, 0, instruction.length);
+        if (type != WebXInstructionHeader.MOUSE || buttonMask < 0 || buttonMask != this.buttonMask) {
+            if (type == WebXInstructionHeader.MOUSE) {
+                this.buttonMask = buttonMask;
+            }
+            this.writePendingMove();
+            this.tunnel.write(instruction);
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (this.pendingMove == null && now - this.lastMoveWriteTime >= this.windowNanos) {
+            this.metricsService.recordMouseMove(false);
+            this.lastMoveWriteTime = now;
+            this.tunnel.write(instruction);
+            return;
+        }
+
+        this.metricsService.recordMouseMove(this.pendingMove != null);
+        this.pendingMove = instruction;
+        if (!this.flushScheduled) {
+            this.flushScheduled = true;
+            flushScheduler.schedule(this::flush, this.lastMoveWriteTime + this.windowNanos - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void flush() {
+        this.flushScheduled = false;
+        if (!this.tunnel.isConnected()) {
+            this.pendingMove = null;
+            return;
+        }
+
+        try {
+            this.writePendingMove();
+
+        } catch (WebXClientException exception) {
+            logger.debug("Failed to write coalesced mouse move", exception);
+        }
+    }
+
+    private void writePendingMove() throws WebXClientException {
+        if (this.pendingMove != null) {
+            byte[] move = this.pendingMove;
+            this.pendingMove = null;
+            this.lastMoveWriteTime = System.nanoTime();
+            this.tunnel.write(move);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webxdemo.memory.BufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Compression of the messages exchanged with clients connecting with compression=deflate, replacing permessage-deflate
+// (which fragments and copies every message). Only the payload is compressed (raw deflate): the 32-byte header is
+// unchanged except for its last word (padding otherwise) which is set to DEFLATE. Images (already JPEG or PNG) and
+// small messages are never compressed, and a message is sent uncompressed if compression saves less than 1/8 of it: the
+// messages of that type are then sent uncompressed to that client for a while (see State) so that incompressible content
+// costs little CPU. Messages are deflated directly into buffers of the BufferPool which are sent as they are and released
+// once written. Clients can compress their instructions in the same way (the header length being that of the inflated
+// instruction).
+public class MessageCompression {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageCompression.class);
+
+    public static final int DEFLATE = 1;
+
+    private static final int HEADER_LENGTH = WebXMessageHeader.MESSAGE_HEADER_LENGTH;
+    private static final int COMPRESSION_OFFSET = 28;
+    private static final int LENGTH_OFFSET = 24;
+
+    // Deflaters hold native memory: only a bounded number are kept for reuse
+    private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    // Number of messages of a type sent without trying to compress them after one of them did not compress
+    private static final int INCOMPRESSIBLE_SKIP_COUNT = 32;
+    private static final int MAX_MESSAGE_TYPE = 31;
+
+    private static final MessageCompression instance = new MessageCompression();
+
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final BufferPool bufferPool = BufferPool.instance();
+
+    private final LongAdder compressedMessageCount = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder incompressibleMessageCount = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder decompressedInstructionCount = new LongAdder();
+
+    private volatile boolean enabled = false;
+    private int level = Deflater.BEST_SPEED;
+    private int minSize = 0;
+
+    private MessageCompression() {
+    }
+
+    public static MessageCompression instance() {
+        return instance;
+    }
+
+    public synchronized void start(final int level, final int minSize) {
+        this.level = level;
+        this.minSize = Math.max(minSize, HEADER_LENGTH + 1);
+        this.enabled = true;
+
+        logger.info("Compressing messages of at least {} bytes with deflate level {} for clients that request it", this.minSize, level);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isCompressed(final byte[] data, final int offset, final int length) {
+        return length >= HEADER_LENGTH && WebXMessageHeader.readInt(data, offset + COMPRESSION_OFFSET) == DEFLATE;
+    }
+
+    // Returns the compressed message, in a buffer of the BufferPool to release once it has been written, or null if the
+    // message is to be sent uncompressed
+    public ByteBuffer compress(final byte[] message, final State state) {
+        int type = WebXMessageHeader.getType(message);
+        if (!this.enabled || message.length < this.minSize || WebXMessageHeader.isImage(type) || type < 0 || type > MAX_MESSAGE_TYPE) {
+            return null;
+        }
+        if (state.skipCounts[type] > 0) {
+            state.skipCounts[type]--;
+            return null;
+        }
+
+        long startTime = System.nanoTime();
+        int payloadLength = message.length - HEADER_LENGTH;
+        Deflater deflater = this.deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(this.level, true);
+        }
+
+        ByteBuffer buffer = null;
+        try {
+            // Deflating stops as soon as the output is too large to be worth sending
+            int maxCompressedLength = payloadLength - payloadLength / 8;
+            buffer = this.bufferPool.acquire(HEADER_LENGTH + maxCompressedLength, true);
+            buffer.clear().limit(HEADER_LENGTH + maxCompressedLength);
+            buffer.put(message, 0, HEADER_LENGTH);
+            // Little-endian like the rest of the header (the pooled buffer keeps its default byte order)
+            buffer.putInt(COMPRESSION_OFFSET, Integer.reverseBytes(DEFLATE));
+            deflater.setInput(message, HEADER_LENGTH, payloadLength);
+            deflater.finish();
+            while (!deflater.finished() && buffer.hasRemaining()) {
+                deflater.deflate(buffer);
+            }
+
+            if (!deflater.finished() || buffer.position() >= HEADER_LENGTH + maxCompressedLength) {
+                this.incompressibleMessageCount.increment();
+                state.skipCounts[type] = INCOMPRESSIBLE_SKIP_COUNT;
+                return null;
+            }
+
+            buffer.flip();
+            this.compressedMessageCount.increment();
+            this.uncompressedBytes.add(message.length);
+            this.compressedBytes.add(buffer.remaining());
+            ByteBuffer compressed = buffer;
+            buffer = null;
+            return compressed;
+
+        } finally {
+            this.compressionNanos.add(System.nanoTime() - startTime);
+            this.bufferPool.release(buffer);
+            this.release(deflater);
+        }
+    }
+
+    // Inflates a compressed instruction (see isCompressed) of at most maxLength bytes once inflated
+    public byte[] decompress(final byte[] data, final int offset, final int length, final int maxLength) throws DataFormatException {
+        int instructionLength = WebXMessageHeader.readInt(data, offset + LENGTH_OFFSET);
+        if (instructionLength < HEADER_LENGTH || instructionLength > maxLength) {
+            throw new DataFormatException("Invalid instruction length " + Integer.toUnsignedString(instructionLength));
+        }
+
+        Inflater inflater = this.inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        try {
+            byte[] instruction = new byte[instructionLength];
+            System.arraycopy(data, offset, instruction, 0, HEADER_LENGTH);
+            writeInt(instruction, COMPRESSION_OFFSET, 0);
+
+            inflater.setInput(data, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+            int inflated = HEADER_LENGTH;
+            while (inflated < instructionLength && !inflater.finished()) {
+                int count = inflater.inflate(instruction, inflated, instructionLength - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            // Once the instruction is full the compressed data must end: a single byte more is rejected rather than
+            // inflating the rest of the stream (which can expand to far more than its length)
+            if (inflated == instructionLength && !inflater.finished() && inflater.inflate(new byte[1]) > 0) {
+                throw new DataFormatException("Compressed instruction is longer than its length of " + instructionLength + " bytes");
+            }
+            if (inflated != instructionLength || !inflater.finished()) {
+                throw new DataFormatException("Compressed instruction does not match its length of " + instructionLength + " bytes");
+            }
+
+            this.decompressedInstructionCount.increment();
+            return instruction;
+
+        } finally {
+            inflater.reset();
+            if (this.inflaters.size() < MAX_POOLED) {
+                this.inflaters.offer(inflater);
+
+            } else {
+                inflater.end();
+            }
+        }
+    }
+
+    public long getCompressedMessageCount() {
+        return this.compressedMessageCount.sum();
+    }
+
+    public long getUncompressedBytes() {
+        return this.uncompressedBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return this.compressedBytes.sum();
+    }
+
+    public long getIncompressibleMessageCount() {
+        return this.incompressibleMessageCount.sum();
+    }
+
+    public long getCompressionNanos() {
+        return this.compressionNanos.sum();
+    }
+
+    public long getDecompressedInstructionCount() {
+        return this.decompressedInstructionCount.sum();
+    }
+
+    private void release(final Deflater deflater) {
+        deflater.reset();
+        if (this.deflaters.size() < MAX_POOLED) {
+            this.deflaters.offer(deflater);
+
+        } else {
+            deflater.end();
+        }
+    }
+
+    private static void writeInt(final byte[] data, final int offset, final int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+
+    // Compression state of the messages sent to one client: the number of messages of each type still to be sent
+    // without trying to compress them. Used by one thread at a time (the one sending the client's messages)
+    public static class State {
+
+        private final int[] skipCounts = new int[MAX_MESSAGE_TYPE + 1];
+    }
+}
@@ -0,0 +1,492 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webxdemo.OutboundConfiguration;
+import eu.ill.webxdemo.memory.BufferPool;
+import eu.ill.webxdemo.memory.MemoryAccount;
+import eu.ill.webxdemo.memory.MemoryBudget;
+import eu.ill.webxdemo.metrics.Histogram;
+import eu.ill.webxdemo.model.OverflowPolicy;
+import eu.ill.webxdemo.services.MetricsService;
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class OutboundQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    private static final ScheduledExecutorService batchScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "webx-batch-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The scheduler only times the batch windows: the batches (compressed as they are sent) are flushed by these threads
+    // so that a slow session doesn't delay the batches of the others
+    private static final ExecutorService flushExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("webx-batch-flush-", 0).factory());
+
+    private final OutboundConfiguration configuration;
+    private final Runnable onFailure;
+    private final Histogram sendTime = MetricsService.instance().getWebSocketSendTime();
+    private final MemoryAccount memoryAccount;
+
+    private final OutboundScheduler queue;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    private final List<byte[]> batch = new ArrayList<>();
+    private final List<byte[]> inFlight = new ArrayList<>();
+    private final MessageCompression.State compressionState = new MessageCompression.State();
+    private Attachment attachment;
+    private Attachment batchAttachment;
+    private int resumeBufferBytes = 0;
+    private int inFlightCount = 0;
+    private long inFlightBytes = 0;
+    private long inFlightSentBytes = 0;
+    private long queuedBytes = 0;
+    private long oldestQueuedTime = 0;
+    private long batchSendTime = 0;
+    private boolean flushScheduled = false;
+    private boolean closed = false;
+
+    private volatile QualityController qualityController = null;
+    private volatile boolean compression = false;
+    private volatile long droppedCount = 0;
+    private volatile long pausedCount = 0;
+
+    public OutboundQueue(final Session session, final OutboundConfiguration configuration, final Runnable onFailure) {
+        this(session, configuration, onFailure, MemoryBudget.instance());
+    }
+
+    // The queued messages are reserved in the given account (the MemoryBudget unless they are shared with other queues)
+    public OutboundQueue(final Session session, final OutboundConfiguration configuration, final Runnable onFailure, final MemoryAccount memoryAccount) {
+        this.attachment = new Attachment(session);
+        this.configuration = configuration;
+        this.onFailure = onFailure;
+        this.memoryAccount = memoryAccount;
+        this.queue = new OutboundScheduler(configuration.isPrioritised(), configuration.getImageChunkSize());
+    }
+
+    // Returns false if the message could not be queued and the session should be disconnected
+    public boolean offer(final byte[] data) throws InterruptedException {
+        this.lock.lock();
+        try {
+            if (this.attachment != null && this.queuedBytes >= this.configuration.getHighWatermark()) {
+                OverflowPolicy policy = this.configuration.getOverflowPolicy();
+                if (policy == OverflowPolicy.PAUSE) {
+                    this.pausedCount++;
+                    while (!this.closed && this.attachment != null && this.queuedBytes > this.configuration.getLowWatermark()) {
+                        this.drained.await();
+                    }
+
+                } else if (policy == OverflowPolicy.DROP) {
+                    if (!this.configuration.isCongestionFilter()) {
+                        this.dropSuperseded(data);
+                    }
+                    if (this.queuedBytes + data.length > this.configuration.getMaxQueueSize()) {
+                        logger.warn("Send queue for WebSocket has exceeded {} bytes: disconnecting", this.configuration.getMaxQueueSize());
+                        return false;
+                    }
+
+                } else {
+                    logger.warn("Send queue for WebSocket has exceeded {} bytes: disconnecting", this.configuration.getHighWatermark());
+                    return false;
+                }
+            }
+
+            // Checked after a paused offer as well: the queue may have been closed or detached while it waited
+            if (this.closed) {
+                return false;
+            }
+
+            if (this.attachment == null) {
+                // Detached: messages are kept (collapsing superseded ones) until a WebSocket resumes the session
+                this.dropSuperseded(data);
+                if (this.queuedBytes + data.length > this.resumeBufferBytes) {
+                    logger.warn("Resume buffer has exceeded {} bytes: disconnecting", this.resumeBufferBytes);
+                    return false;
+                }
+            }
+
+            // Messages still queued behind the one in flight are stale if the new message supersedes them
+            if (this.configuration.isCongestionFilter() && this.attachment != null && this.queue.hasNext()) {
+                this.dropSuperseded(data);
+            }
+
+            if (!this.queue.hasNext()) {
+                this.oldestQueuedTime = System.nanoTime();
+            }
+            this.queue.addLast(data);
+            this.queuedBytes += data.length;
+            this.memoryAccount.reserve(data.length);
+
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.drain();
+        return true;
+    }
+
+    // Allows the queue to be detached from its WebSocket, keeping up to the given number of bytes until it is resumed
+    public void setResumeBufferBytes(final int resumeBufferBytes) {
+        this.lock.lock();
+        try {
+            this.resumeBufferBytes = resumeBufferBytes;
+
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Stops sending to the WebSocket: messages in flight (which may not have been received) are queued again
+    public void detach() {
+        this.lock.lock();
+        try {
+            this.detachLocked();
+
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Sends the queued messages, and the following ones, to a new WebSocket
+    public void attach(final Session session) {
+        this.lock.lock();
+        try {
+            this.attachment = new Attachment(session);
+            this.drained.signalAll();
+
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.drain();
+    }
+
+    public void close() {
+        this.lock.lock();
+        try {
+            // Messages still in flight are released from the memory budget now as their writes may never complete
+            if (!this.closed) {
+                this.memoryAccount.release(this.queuedBytes);
+            }
+            this.closed = true;
+            this.inFlight.clear();
+            this.queue.clear();
+            // Nothing is held any more: writes completing (or failing) later have nothing left to release
+            this.queuedBytes = 0;
+            this.inFlightBytes = 0;
+            this.drained.signalAll();
+
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        this.lock.lock();
+        try {
+            return this.closed;
+
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void setQualityController(final QualityController qualityController) {
+        this.qualityController = qualityController;
+    }
+
+    // Sends large images in chunks to a client that can reassemble them (see OutboundScheduler)
+    public void setChunking(final boolean chunking) {
+        this.lock.lock();
+        try {
+            this.queue.setChunking(chunking);
+
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // Messages are queued uncompressed (so that they can be filtered or resent after a resume) and compressed as they are sent
+    public void setCompression(final boolean compression) {
+        this.compression = compression;
+    }
+
+    public long getQueuedBytes() {
+        this.lock.lock();
+        try {
+            return this.queuedBytes;
+
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public long getPausedCount() {
+        return pausedCount;
+    }
+
+    private void writeSuccess(final Attachment attachment) {
+        this.lock.lock();
+        try {
+            if (attachment != this.attachment) {
+                // Completion of a write to a detached WebSocket
+                return;
+            }
+
+            if (--this.inFlightCount == 0) {
+                this.inFlight.clear();
+                long batchNanos = System.nanoTime() - this.batchSendTime;
+                QualityController qualityController = this.qualityController;
+                if (qualityController != null) {
+                    qualityController.recordSend(this.inFlightSentBytes, batchNanos);
+                }
+                this.queue.onSent();
+                this.queuedBytes -= this.inFlightBytes;
+                if (!this.closed) {
+                    this.memoryAccount.release(this.inFlightBytes);
+                }
+                this.inFlightBytes = 0;
+                this.inFlightSentBytes = 0;
+                this.sendTime.record(batchNanos);
+            }
+            if (this.queuedBytes <= this.configuration.getLowWatermark()) {
+                this.drained.signalAll();
+            }
+
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.drain();
+    }
+
+    private void writeFailed(final Attachment attachment, final Throwable throwable) {
+        this.lock.lock();
+        try {
+            if (attachment != this.attachment) {
+                return;
+            }
+
+            // A resumable queue waits for a new WebSocket (or to be closed) rather than disconnecting the tunnel
+            if (this.resumeBufferBytes > 0) {
+                logger.debug("Failed to write binary data to web socket, detaching: {}", throwable.getMessage());
+                this.detachLocked();
+                return;
+            }
+
+        } finally {
+            this.lock.unlock();
+        }
+
+        logger.error("Failed to write binary data to web socket: {}", throwable.getMessage());
+        this.close();
+        this.onFailure.run();
+    }
+
+    private void detachLocked() {
+        this.attachment = null;
+        this.queue.restart();
+        for (int i = this.inFlight.size() - 1; i >= 0; i--) {
+            byte[] data = this.inFlight.get(i);
+            if (!OutboundScheduler.isChunk(data)) {
+                this.queue.addFirst(data);
+            }
+        }
+        this.inFlight.clear();
+        this.inFlightCount = 0;
+        this.inFlightBytes = 0;
+        this.inFlightSentBytes = 0;
+        this.oldestQueuedTime = System.nanoTime();
+        this.drained.signalAll();
+    }
+
+    // Sends the next batch of messages if none is in flight. Completion callbacks can be called from within sendBytes
+    // so the loop avoids recursion: only one thread drains at a time and re-checks if it has been requested again
+    private void drain() {
+        if (this.drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        do {
+            this.lock.lock();
+            try {
+                this.takeBatch();
+
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (!this.batch.isEmpty()) {
+                this.sendBatch();
+            }
+
+        } while (this.drainRequests.decrementAndGet() != 0);
+    }
+
+    // Called with the lock held. Without batching a single message is taken, otherwise messages are held back until
+    // the oldest has waited for the batch window or enough bytes are queued. A batch ends with a chunk so that the
+    // messages queued meanwhile can be sent before the next chunk
+    private void takeBatch() {
+        if (this.closed || this.attachment == null || this.inFlightCount > 0 || !this.queue.hasNext()) {
+            return;
+        }
+
+        long batchWindowNanos = this.configuration.getBatchWindowNanos();
+        int batchMaxBytes = this.configuration.getBatchMaxBytes();
+        if (batchWindowNanos > 0) {
+            long waitNanos = this.oldestQueuedTime + batchWindowNanos - System.nanoTime();
+            if (waitNanos > 0 && this.queuedBytes - this.inFlightBytes < batchMaxBytes) {
+                if (!this.flushScheduled) {
+                    this.flushScheduled = true;
+                    batchScheduler.schedule(() -> flushExecutor.execute(this::flush), waitNanos, TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+        }
+
+        long batchBytes = 0;
+        long completedBytes = 0;
+        byte[] data;
+        do {
+            data = this.queue.poll();
+            this.batch.add(data);
+            batchBytes += data.length;
+            completedBytes += OutboundScheduler.getCompletedBytes(data);
+
+        } while (batchWindowNanos > 0 && batchBytes < batchMaxBytes && !OutboundScheduler.isChunk(data) && this.queue.hasNext());
+
+        if (batchWindowNanos > 0) {
+            BatchStatistics.instance().record(this.batch.size(), batchBytes, System.nanoTime() - this.oldestQueuedTime);
+        }
+
+        this.inFlight.addAll(this.batch);
+        this.batchAttachment = this.attachment;
+        this.inFlightCount = this.batch.size();
+        this.inFlightBytes = completedBytes;
+        this.inFlightSentBytes = batchBytes;
+        this.oldestQueuedTime = this.batchSendTime = System.nanoTime();
+    }
+
+    // Frames of a batch are aggregated by Jetty and written together when the last one (not batched) is sent
+    private void sendBatch() {
+        Attachment attachment = this.batchAttachment;
+        RemoteEndpoint remote = attachment.session.getRemote();
+        int last = this.batch.size() - 1;
+        MessageCompression messageCompression = this.compression ? MessageCompression.instance() : null;
+        for (int i = 0; i <= last; i++) {
+            byte[] data = this.batch.get(i);
+            remote.setBatchMode(i < last ? BatchMode.ON : BatchMode.OFF);
+            ByteBuffer compressed = messageCompression != null && !OutboundScheduler.isChunk(data) ? messageCompression.compress(data, this.compressionState) : null;
+            if (compressed != null) {
+                remote.sendBytes(compressed, new CompressedWrite(compressed, attachment));
+
+            } else {
+                remote.sendBytes(ByteBuffer.wrap(data), attachment);
+            }
+        }
+        this.batch.clear();
+    }
+
+    private void flush() {
+        this.lock.lock();
+        try {
+            this.flushScheduled = false;
+
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.drain();
+    }
+
+    // Removes the queued messages made obsolete by the new message (see CongestionFilter)
+    private void dropSuperseded(final byte[] data) {
+        int type = WebXMessageHeader.getType(data);
+        if (!CongestionFilter.isSuperseding(type)) {
+            return;
+        }
+
+        long windowId = WebXMessageHeader.getWindowId(data);
+        MetricsService metricsService = MetricsService.instance();
+        for (Iterator<byte[]> it = this.queue.getQueue(type).iterator(); it.hasNext();) {
+            byte[] queued = it.next();
+            if (CongestionFilter.supersedes(type, windowId, queued)) {
+                it.remove();
+                this.queuedBytes -= queued.length;
+                this.memoryAccount.release(queued.length);
+                this.droppedCount++;
+                metricsService.recordDroppedMessage(queued.length);
+            }
+        }
+        if (!this.queue.hasNext()) {
+            this.oldestQueuedTime = System.nanoTime();
+        }
+    }
+
+    // Write callback of the WebSocket the queue is attached to: completions of writes to a previous WebSocket are ignored
+    private class Attachment implements WriteCallback {
+
+        private final Session session;
+
+        private Attachment(final Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void writeSuccess() {
+            OutboundQueue.this.writeSuccess(this);
+        }
+
+        @Override
+        public void writeFailed(final Throwable throwable) {
+            OutboundQueue.this.writeFailed(this, throwable);
+        }
+    }
+
+    // Write callback of a compressed message: its pooled buffer is released once written, whatever the WebSocket
+    private static class CompressedWrite implements WriteCallback {
+
+        private final ByteBuffer buffer;
+        private final Attachment attachment;
+
+        private CompressedWrite(final ByteBuffer buffer, final Attachment attachment) {
+            this.buffer = buffer;
+            this.attachment = attachment;
+        }
+
+        @Override
+        public void writeSuccess() {
+            BufferPool.instance().release(this.buffer);
+            this.attachment.writeSuccess();
+        }
+
+        @Override
+        public void writeFailed(final Throwable throwable) {
+            BufferPool.instance().release(this.buffer);
+            this.attachment.writeFailed(throwable);
+        }
+    }
+}
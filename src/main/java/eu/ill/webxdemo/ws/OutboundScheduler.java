@@ -0,0 +1,177 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webxdemo.services.MetricsService;
+
+import java.util.ArrayDeque;
+
+// Messages queued for a WebSocket, in priority classes: control messages (connection, screen, windows, clipboard, ...),
+// then the pointer (mouse positions and cursor images), then images. With priority scheduling the next message is
+// taken from the highest class that has one, so that a large image doesn't hold back the pointer and the window layout
+// queued behind it; messages of a class keep their order. Without it all messages are kept in a single class.
+//
+// Images larger than the chunk size can also be sent in chunks to clients that reassemble them, so that the messages
+// of the higher classes are sent between the chunks of an image. A chunk is a message of type CHUNK with the session
+// id and message id of the image, followed by the length of the image (uint32), the offset of the chunk in the image
+// (uint32) and the bytes of the chunk. A chunk at offset 0 starts a new image. Not thread-safe: used with the lock of
+// its OutboundQueue held
+final class OutboundScheduler {
+
+    static final int CHUNK_HEADER_LENGTH = WebXMessageHeader.MESSAGE_HEADER_LENGTH + 8;
+
+    private static final int CONTROL = 0;
+    private static final int POINTER = 1;
+    private static final int IMAGES = 2;
+
+    private static final int MESSAGE_ID_OFFSET = WebXMessageHeader.SESSION_ID_LENGTH + 4;
+    private static final int LENGTH_OFFSET = WebXMessageHeader.SESSION_ID_LENGTH + 8;
+    private static final int TOTAL_LENGTH_OFFSET = WebXMessageHeader.MESSAGE_HEADER_LENGTH;
+    private static final int CHUNK_OFFSET_OFFSET = WebXMessageHeader.MESSAGE_HEADER_LENGTH + 4;
+
+    private final ArrayDeque<byte[]>[] queues;
+    private final boolean prioritised;
+    private final int chunkSize;
+    private boolean chunking = false;
+
+    // Image being sent in chunks: it is only removed once its last chunk has been written
+    private byte[] chunkedImage = null;
+    private int chunkedOffset = 0;
+
+    private final MetricsService metricsService = MetricsService.instance();
+
+    @SuppressWarnings("unchecked")
+    OutboundScheduler(final boolean prioritised, final int chunkSize) {
+        this.prioritised = prioritised;
+        this.chunkSize = chunkSize;
+        this.queues = new ArrayDeque[prioritised ? 3 : 1];
+        for (int i = 0; i < this.queues.length; i++) {
+            this.queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    // Only applies to the images not yet started
+    void setChunking(final boolean chunking) {
+        this.chunking = chunking && this.prioritised && this.chunkSize > 0;
+    }
+
+    boolean hasNext() {
+        for (ArrayDeque<byte[]> queue : this.queues) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return this.isChunking();
+    }
+
+    void addLast(final byte[] message) {
+        this.queues[this.classOf(message)].addLast(message);
+    }
+
+    void addFirst(final byte[] message) {
+        this.queues[this.classOf(message)].addFirst(message);
+    }
+
+    // Queue holding the messages of the given type, whose superseded messages can be removed
+    ArrayDeque<byte[]> getQueue(final int type) {
+        return this.queues[this.classOfType(type)];
+    }
+
+    // Next message or chunk to send
+    byte[] poll() {
+        for (int i = 0; i < this.queues.length; i++) {
+            if (i == IMAGES && this.isChunking()) {
+                return this.nextChunk();
+            }
+
+            byte[] message = this.queues[i].pollFirst();
+            if (message == null) {
+                continue;
+            }
+            if (i < IMAGES && this.prioritised && (this.isChunking() || !this.queues[IMAGES].isEmpty())) {
+                this.metricsService.recordPrioritisedMessage();
+            }
+            if (i == IMAGES && this.chunking && message.length > this.chunkSize) {
+                this.chunkedImage = message;
+                this.chunkedOffset = 0;
+                this.metricsService.recordChunkedImage();
+                return this.nextChunk();
+            }
+            return message;
+        }
+        return null;
+    }
+
+    // Called when all the messages and chunks taken have been written
+    void onSent() {
+        if (this.chunkedImage != null && this.chunkedOffset == this.chunkedImage.length) {
+            this.chunkedImage = null;
+        }
+    }
+
+    // Called when the WebSocket is lost: an image partly sent is sent again from its first chunk. The messages in flight
+    // are queued again (with addFirst) after this
+    void restart() {
+        if (this.chunkedImage != null) {
+            this.queues[IMAGES].addFirst(this.chunkedImage);
+            this.chunkedImage = null;
+        }
+    }
+
+    void clear() {
+        for (ArrayDeque<byte[]> queue : this.queues) {
+            queue.clear();
+        }
+        this.chunkedImage = null;
+    }
+
+    static boolean isChunk(final byte[] data) {
+        return WebXMessageHeader.getType(data) == WebXMessageHeader.CHUNK;
+    }
+
+    // Bytes of queued messages completed by sending the given message or chunk: the whole image for its last chunk and
+    // nothing for the others
+    static int getCompletedBytes(final byte[] data) {
+        if (!isChunk(data)) {
+            return data.length;
+        }
+        int totalLength = WebXMessageHeader.readInt(data, TOTAL_LENGTH_OFFSET);
+        int offset = WebXMessageHeader.readInt(data, CHUNK_OFFSET_OFFSET);
+        return offset + data.length - CHUNK_HEADER_LENGTH == totalLength ? totalLength : 0;
+    }
+
+    private boolean isChunking() {
+        return this.chunkedImage != null && this.chunkedOffset < this.chunkedImage.length;
+    }
+
+    private byte[] nextChunk() {
+        byte[] image = this.chunkedImage;
+        int length = Math.min(this.chunkSize, image.length - this.chunkedOffset);
+        byte[] chunk = new byte[CHUNK_HEADER_LENGTH + length];
+        System.arraycopy(image, 0, chunk, 0, WebXMessageHeader.SESSION_ID_LENGTH);
+        WebXMessageHeader.writeInt(chunk, WebXMessageHeader.SESSION_ID_LENGTH, WebXMessageHeader.CHUNK);
+        WebXMessageHeader.writeInt(chunk, MESSAGE_ID_OFFSET, WebXMessageHeader.readInt(image, MESSAGE_ID_OFFSET));
+        WebXMessageHeader.writeInt(chunk, LENGTH_OFFSET, chunk.length);
+        WebXMessageHeader.writeInt(chunk, TOTAL_LENGTH_OFFSET, image.length);
+        WebXMessageHeader.writeInt(chunk, CHUNK_OFFSET_OFFSET, this.chunkedOffset);
+        System.arraycopy(image, this.chunkedOffset, chunk, CHUNK_HEADER_LENGTH, length);
+        this.chunkedOffset += length;
+        this.metricsService.recordChunk();
+        return chunk;
+    }
+
+    private int classOf(final byte[] message) {
+        return this.classOfType(WebXMessageHeader.getType(message));
+    }
+
+    private int classOfType(final int type) {
+        if (!this.prioritised) {
+            return CONTROL;
+        }
+        if (WebXMessageHeader.isImage(type)) {
+            return IMAGES;
+        }
+        if (type == WebXMessageHeader.MOUSE || type == WebXMessageHeader.CURSOR_IMAGE) {
+            return POINTER;
+        }
+        return CONTROL;
+    }
+}
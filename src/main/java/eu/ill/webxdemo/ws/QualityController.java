@@ -0,0 +1,133 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webx.exceptions.WebXClientException;
+import eu.ill.webxdemo.metrics.SessionMetrics;
+import eu.ill.webxdemo.services.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+// Adapts the quality index of the WebX Engine (which determines the image quality and frame rate) to the client's
+// link. The bandwidth is estimated from the bytes written to the WebSocket and the time writes were in progress, and
+// the queueing delay from the bytes waiting in the send queue. The quality is lowered quickly when the delay grows and
+// raised slowly while it stays low, up to the quality last requested by the client
+public class QualityController {
+
+    private static final Logger logger = LoggerFactory.getLogger(QualityController.class);
+
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long HIGH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long LOW_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int DECREASE_STEP = 2;
+    private static final int INCREASE_INTERVALS = 3;
+    private static final int MIN_QUALITY_INDEX = 1;
+
+    // Weight of the latest interval in the bandwidth estimate
+    private static final double BANDWIDTH_SMOOTHING = 0.3;
+
+    private final RelayTunnel tunnel;
+    private final SessionMetrics metrics;
+
+    private int maxQualityIndex;
+    private int qualityIndex;
+    private long intervalStartTime = System.nanoTime();
+    private long sentBytes = 0;
+    private long sendingNanos = 0;
+    private int lowDelayIntervals = 0;
+    private double bandwidth = 0;
+    private boolean paused = false;
+
+    public QualityController(final RelayTunnel tunnel, final SessionMetrics metrics, final int maxQualityIndex) {
+        this.tunnel = tunnel;
+        this.metrics = metrics;
+        this.maxQualityIndex = maxQualityIndex;
+        this.qualityIndex = maxQualityIndex;
+        this.metrics.recordQuality(this.qualityIndex, 0, 0);
+    }
+
+    // Called when a batch of messages has been written to the WebSocket
+    public synchronized void recordSend(final long bytes, final long nanos) {
+        this.sentBytes += bytes;
+        this.sendingNanos += nanos;
+    }
+
+    // Called when the client sets the quality: the engine applies it directly and it becomes the maximum
+    public synchronized void onClientQuality(final int qualityIndex) {
+        if (qualityIndex >= MIN_QUALITY_INDEX) {
+            this.maxQualityIndex = qualityIndex;
+            this.qualityIndex = qualityIndex;
+            this.lowDelayIntervals = 0;
+        }
+    }
+
+    // While paused (eg an idle session being throttled) the quality is left as set by someone else
+    public synchronized void setPaused(final boolean paused) {
+        this.paused = paused;
+        this.intervalStartTime = System.nanoTime();
+        this.sentBytes = 0;
+        this.sendingNanos = 0;
+        this.lowDelayIntervals = 0;
+    }
+
+    // Called for each message read from the tunnel: re-evaluates the quality once per interval
+    public void update(final long queuedBytes) {
+        int newQualityIndex;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long intervalNanos = now - this.intervalStartTime;
+            if (intervalNanos < INTERVAL_NANOS || this.paused) {
+                return;
+            }
+
+            if (this.sendingNanos > 0) {
+                double intervalBandwidth = this.sentBytes * 1.0e9 / this.sendingNanos;
+                this.bandwidth = this.bandwidth == 0 ? intervalBandwidth : BANDWIDTH_SMOOTHING * intervalBandwidth + (1 - BANDWIDTH_SMOOTHING) * this.bandwidth;
+            }
+
+            // Without any completed write while data is queued the link is stalled
+            long queueDelayNanos;
+            if (queuedBytes == 0) {
+                queueDelayNanos = 0;
+            } else if (this.sentBytes == 0 || this.bandwidth == 0) {
+                queueDelayNanos = intervalNanos;
+            } else {
+                queueDelayNanos = (long) (queuedBytes * 1.0e9 / this.bandwidth);
+            }
+
+            newQualityIndex = this.qualityIndex;
+            if (queueDelayNanos > HIGH_DELAY_NANOS) {
+                newQualityIndex = Math.max(MIN_QUALITY_INDEX, this.qualityIndex - DECREASE_STEP);
+                this.lowDelayIntervals = 0;
+
+            } else if (queueDelayNanos < LOW_DELAY_NANOS) {
+                if (++this.lowDelayIntervals >= INCREASE_INTERVALS && this.qualityIndex < this.maxQualityIndex) {
+                    newQualityIndex = this.qualityIndex + 1;
+                    this.lowDelayIntervals = 0;
+                }
+
+            } else {
+                this.lowDelayIntervals = 0;
+            }
+
+            this.metrics.recordQuality(newQualityIndex, this.bandwidth, queueDelayNanos / 1.0e9);
+            this.intervalStartTime = now;
+            this.sentBytes = 0;
+            this.sendingNanos = 0;
+
+            if (newQualityIndex == this.qualityIndex) {
+                return;
+            }
+            MetricsService.instance().recordQualityChange(newQualityIndex > this.qualityIndex);
+            logger.debug("Changing quality index from {} to {} (bandwidth {} B/s, queueing delay {} ms)", this.qualityIndex, newQualityIndex, (long) this.bandwidth, TimeUnit.NANOSECONDS.toMillis(queueDelayNanos));
+            this.qualityIndex = newQualityIndex;
+        }
+
+        try {
+            this.tunnel.write(WebXInstructionHeader.createQualityInstruction(newQualityIndex));
+
+        } catch (WebXClientException exception) {
+            logger.debug("Failed to send quality instruction", exception);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webx.exceptions.WebXClientException;
+import eu.ill.webx.exceptions.WebXConnectionInterruptException;
+import eu.ill.webx.exceptions.WebXDisconnectedException;
+
+public interface RelayTunnel {
+
+    byte[] read() throws WebXClientException, WebXConnectionInterruptException, WebXDisconnectedException;
+
+    void write(byte[] data) throws WebXClientException;
+
+    boolean isConnected();
+
+    void disconnect();
+}
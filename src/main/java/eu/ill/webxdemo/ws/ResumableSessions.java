@@ -0,0 +1,170 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webxdemo.services.AdmissionService;
+import eu.ill.webxdemo.services.ClusterService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Tunnels kept open after their WebSocket has dropped so that a new WebSocket presenting the same resume token can
+// continue the session without reconnecting to the WebX host: only the messages it missed are sent. Tunnels that are
+// not resumed within the grace period are closed. Resume tokens are generated by the relay and sent to the client over
+// its WebSocket: a token can only be used once, the resuming WebSocket being sent a new one
+public class ResumableSessions {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableSessions.class);
+
+    private static final ResumableSessions instance = new ResumableSessions();
+
+    // Text message sent to the client with its resume token, eg resume:0123456789abcdef0123456789abcdef
+    public static final String TOKEN_MESSAGE_PREFIX = "resume:";
+
+    private static final int TOKEN_BYTES = 16;
+
+    private final Map<String, ParkedSession> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "webx-resume-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SecureRandom random = new SecureRandom();
+    private final LongAdder resumedCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+
+    private long gracePeriodMs = 0;
+    private int bufferBytes = 0;
+
+    private ResumableSessions() {
+    }
+
+    public static ResumableSessions instance() {
+        return instance;
+    }
+
+    public synchronized void start(final long gracePeriodMs, final int bufferBytes) {
+        this.gracePeriodMs = gracePeriodMs;
+        this.bufferBytes = bufferBytes;
+
+        logger.info("Session resume enabled with a grace period of {}ms and a buffer of {} bytes", gracePeriodMs, bufferBytes);
+    }
+
+    public synchronized boolean isEnabled() {
+        return this.gracePeriodMs > 0;
+    }
+
+    public synchronized int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    public String createToken() {
+        byte[] token = new byte[TOKEN_BYTES];
+        this.random.nextBytes(token);
+        return HexFormat.of().formatHex(token);
+    }
+
+    public void park(final String token, final ParkedSession session) {
+        long gracePeriodMs;
+        synchronized (this) {
+            gracePeriodMs = this.gracePeriodMs;
+        }
+
+        session.connectionThread.detach();
+        ParkedSession previous = this.sessions.put(token, session);
+        if (previous != null) {
+            this.expire(previous);
+        }
+        session.expiry = this.scheduler.schedule(() -> {
+            if (this.sessions.remove(token, session)) {
+                logger.debug("Session not resumed within {}ms: closing tunnel", gracePeriodMs);
+                this.expire(session);
+            }
+        }, gracePeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Returns the parked session or null if there is none (or its tunnel has closed in the meantime)
+    public ParkedSession resume(final String token) {
+        ParkedSession session = this.sessions.remove(token);
+        if (session == null) {
+            return null;
+        }
+
+        // The expiry is scheduled after the session is parked: if it is not set yet it will find the session removed
+        ScheduledFuture<?> expiry = session.expiry;
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
+        if (!session.connectionThread.isConnected()) {
+            this.expire(session);
+            return null;
+        }
+
+        this.resumedCount.increment();
+        return session;
+    }
+
+    public int getParkedCount() {
+        return this.sessions.size();
+    }
+
+    public long getResumedCount() {
+        return this.resumedCount.sum();
+    }
+
+    public long getExpiredCount() {
+        return this.expiredCount.sum();
+    }
+
+    private void expire(final ParkedSession session) {
+        this.expiredCount.increment();
+        session.connectionThread.closeTunnel();
+        if (session.admissionTicket != null) {
+            session.admissionTicket.release();
+        }
+        if (session.sessionId != null) {
+            ClusterService.instance().unregisterSession(session.sessionId);
+        }
+    }
+
+    // A tunnel waiting to be resumed, with its relay thread and the resources held for it (admission ticket and, for
+    // an existing WebX session, its registration in the session directory) which are passed to the resuming WebSocket
+    public static class ParkedSession {
+
+        private final ConnectionThread connectionThread;
+        private final Thread relayThread;
+        private final AdmissionService.Ticket admissionTicket;
+        private final String sessionId;
+        private volatile ScheduledFuture<?> expiry;
+
+        public ParkedSession(final ConnectionThread connectionThread, final Thread relayThread, final AdmissionService.Ticket admissionTicket, final String sessionId) {
+            this.connectionThread = connectionThread;
+            this.relayThread = relayThread;
+            this.admissionTicket = admissionTicket;
+            this.sessionId = sessionId;
+        }
+
+        public ConnectionThread getConnectionThread() {
+            return connectionThread;
+        }
+
+        public Thread getRelayThread() {
+            return relayThread;
+        }
+
+        public AdmissionService.Ticket getAdmissionTicket() {
+            return admissionTicket;
+        }
+
+        public String getSessionId() {
+            return sessionId;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webx.exceptions.WebXClientException;
+import eu.ill.webx.exceptions.WebXConnectionInterruptException;
+import eu.ill.webx.exceptions.WebXDisconnectedException;
+import eu.ill.webxdemo.OutboundConfiguration;
+import eu.ill.webxdemo.memory.MemoryAccount;
+import eu.ill.webxdemo.memory.MemoryBudget;
+import eu.ill.webxdemo.metrics.Histogram;
+import eu.ill.webxdemo.metrics.SessionMetrics;
+import eu.ill.webxdemo.services.MetricsService;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.SuspendToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+// A single tunnel to a WebX session whose messages are broadcast to several WebSockets (viewers). Each viewer has its
+// own send queue so that a slow viewer does not hold back the others. Only one viewer (the controller, by default the
+// first to join) can send input to the session, the others can only request data. A broadcast message is the same
+// array in the queue of every viewer, so the memory budget is charged with the bytes queued for the viewer furthest
+// behind rather than once per viewer.
+public class SharedSession implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedSession.class);
+
+    public class Viewer {
+        private final Session session;
+        private final SessionMetrics metrics;
+        private final ViewerMemory memory = new ViewerMemory();
+        private final OutboundQueue outboundQueue;
+        private final SuspendToken suspendToken;
+
+        private Viewer(final Session session, final SessionMetrics metrics) {
+            this.session = session;
+            this.metrics = metrics;
+            this.outboundQueue = new OutboundQueue(session, outboundConfiguration, () -> leave(this), this.memory);
+            this.metrics.setQueuedBytes(this.outboundQueue::getQueuedBytes);
+            this.suspendToken = session.suspend();
+        }
+
+        public void setCompression(final boolean compression) {
+            this.outboundQueue.setCompression(compression);
+        }
+
+        public void setChunking(final boolean chunking) {
+            this.outboundQueue.setChunking(chunking);
+        }
+
+        public SharedSession getSharedSession() {
+            return SharedSession.this;
+        }
+
+        public boolean isController() {
+            return controller == this;
+        }
+    }
+
+    private final String key;
+    private final OutboundConfiguration outboundConfiguration;
+    private final Consumer<SharedSession> onClose;
+    private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+    private final LongAdder blockedInstructionCount = new LongAdder();
+    private final MemoryBudget memoryBudget = MemoryBudget.instance();
+
+    // Guards the bytes of the viewers' accounts and the bytes charged to the budget. Taken with the lock of a viewer's
+    // send queue held, so the monitor of the session (held while closing a viewer's queue) can't be used
+    private final Object memoryLock = new Object();
+    private long chargedBytes = 0;
+
+    private volatile RelayTunnel tunnel;
+    private volatile Viewer controller;
+    private boolean closed = false;
+
+    public SharedSession(final String key, final OutboundConfiguration outboundConfiguration, final Consumer<SharedSession> onClose) {
+        this.key = key;
+        this.onClose = onClose;
+
+        // A viewer's queue must never pause the broadcast: superseded images are dropped instead
+        this.outboundConfiguration = outboundConfiguration.withNonBlockingOverflowPolicy();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    // Returns null if the session has been closed
+    public synchronized Viewer join(final Session session, final SessionMetrics metrics) {
+        if (this.closed) {
+            return null;
+        }
+
+        Viewer viewer = new Viewer(session, metrics);
+        this.viewers.add(viewer);
+        if (this.controller == null) {
+            this.controller = viewer;
+        }
+        if (this.tunnel != null) {
+            viewer.suspendToken.resume();
+        }
+
+        logger.info("Viewer joined shared session {} ({} viewers)", this.key, this.viewers.size());
+        return viewer;
+    }
+
+    public void leave(final Viewer viewer) {
+        boolean last;
+        synchronized (this) {
+            if (!this.viewers.remove(viewer)) {
+                return;
+            }
+            viewer.outboundQueue.close();
+            MetricsService.instance().closeSession(viewer.metrics);
+
+            if (this.controller == viewer) {
+                this.controller = this.viewers.isEmpty() ? null : this.viewers.get(0);
+            }
+            last = this.viewers.isEmpty();
+            if (last) {
+                this.closed = true;
+            }
+        }
+
+        viewer.session.close();
+        logger.info("Viewer left shared session {} ({} viewers)", this.key, this.viewers.size());
+
+        if (last && this.tunnel != null) {
+            this.tunnel.disconnect();
+            // The broadcast thread may be waiting for the memory budget, which other sessions keep full
+            this.memoryBudget.wakeWaiting();
+        }
+    }
+
+    // Called once the tunnel is connected: returns false if all viewers have already left
+    public boolean onConnected(final RelayTunnel tunnel) {
+        synchronized (this) {
+            if (!this.closed) {
+                this.tunnel = tunnel;
+                this.viewers.forEach(viewer -> viewer.suspendToken.resume());
+                return true;
+            }
+        }
+
+        tunnel.disconnect();
+        return false;
+    }
+
+    public void onConnectionFailed() {
+        this.close();
+    }
+
+    public void write(final Viewer viewer, final byte[] payload, final int offset, final int length) {
+        if (!viewer.isController() && WebXInstructionHeader.isInput(WebXInstructionHeader.getType(payload, offset, length))) {
+            this.blockedInstructionCount.increment();
+            return;
+        }
+
+        RelayTunnel tunnel = this.tunnel;
+        if (tunnel == null) {
+            logger.error("Received instruction on unconnected shared session");
+            return;
+        }
+
+        try {
+            byte[] data = (offset == 0 && length == payload.length) ? payload : Arrays.copyOfRange(payload, offset, offset + length);
+            tunnel.write(data);
+            viewer.metrics.recordIn(length);
+
+        } catch (WebXClientException exception) {
+            logger.debug("Connection to WebX server is closed", exception);
+        }
+    }
+
+    @Override
+    public void run() {
+        Histogram readWaitTime = MetricsService.instance().getTunnelReadWaitTime();
+        MemoryBudget memoryBudget = this.memoryBudget;
+        LongSupplier chargedBytes = this::getChargedBytes;
+        BooleanSupplier closed = () -> !this.tunnel.isConnected() || this.viewers.isEmpty();
+        memoryBudget.register();
+        try {
+            while (this.tunnel.isConnected()) {
+                memoryBudget.awaitCapacity(chargedBytes, closed);
+                long readStartTime = System.nanoTime();
+                byte[] messageData = this.tunnel.read();
+                readWaitTime.record(System.nanoTime() - readStartTime);
+                if (messageData == null) {
+                    break;
+                }
+
+                for (Viewer viewer : this.viewers) {
+                    viewer.metrics.recordOut(messageData.length);
+                    if (!viewer.outboundQueue.offer(messageData)) {
+                        logger.warn("Viewer of shared session {} is too slow: disconnecting it", this.key);
+                        this.leave(viewer);
+                    }
+                }
+            }
+
+        } catch (WebXClientException | WebXConnectionInterruptException | WebXDisconnectedException exception) {
+            logger.error("Shared session {} terminated: {}", this.key, exception.getMessage());
+
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        memoryBudget.unregister();
+        this.close();
+    }
+
+    public int getViewerCount() {
+        return this.viewers.size();
+    }
+
+    public long getBlockedInstructionCount() {
+        return this.blockedInstructionCount.sum();
+    }
+
+    private long getChargedBytes() {
+        synchronized (this.memoryLock) {
+            return this.chargedBytes;
+        }
+    }
+
+    // Charges the budget with the change of the largest number of bytes queued for a viewer. A viewer that has left has
+    // released all its bytes
+    private void updateMemory(final ViewerMemory memory, final long bytes) {
+        long chargeBytes;
+        synchronized (this.memoryLock) {
+            memory.queuedBytes += bytes;
+            long maxBytes = memory.queuedBytes;
+            for (Viewer viewer : this.viewers) {
+                maxBytes = Math.max(maxBytes, viewer.memory.queuedBytes);
+            }
+            chargeBytes = maxBytes - this.chargedBytes;
+            this.chargedBytes = maxBytes;
+        }
+
+        if (chargeBytes > 0) {
+            this.memoryBudget.reserve(chargeBytes);
+
+        } else if (chargeBytes < 0) {
+            this.memoryBudget.release(-chargeBytes);
+        }
+    }
+
+    private void close() {
+        synchronized (this) {
+            this.closed = true;
+        }
+
+        this.viewers.forEach(this::leave);
+        if (this.tunnel != null) {
+            this.tunnel.disconnect();
+        }
+        this.onClose.accept(this);
+    }
+
+    // Bytes reserved by the queue of a viewer, guarded by the memory lock
+    private final class ViewerMemory implements MemoryAccount {
+
+        private long queuedBytes = 0;
+
+        @Override
+        public void reserve(final long bytes) {
+            updateMemory(this, bytes);
+        }
+
+        @Override
+        public void release(final long bytes) {
+            updateMemory(this, -bytes);
+        }
+    }
+}
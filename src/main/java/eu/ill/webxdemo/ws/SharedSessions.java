@@ -0,0 +1,87 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webxdemo.OutboundConfiguration;
+import eu.ill.webxdemo.metrics.SessionMetrics;
+import eu.ill.webxdemo.services.ConnectService;
+import eu.ill.webxdemo.services.MetricsService;
+import eu.ill.webxdemo.services.RelayService;
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SharedSessions {
+
+    private static final SharedSessions instance = new SharedSessions();
+
+    private final Map<String, SharedSession> sessions = new ConcurrentHashMap<>();
+
+    private SharedSessions() {
+    }
+
+    public static SharedSessions instance() {
+        return instance;
+    }
+
+    // Joins the shared session with the given key, connecting its tunnel if it is the first viewer.
+    // Returns null if the relay cannot accept another tunnel.
+    public SharedSession.Viewer join(final String key, final Session session, final SessionMetrics metrics, final OutboundConfiguration outboundConfiguration, final Callable<RelayTunnel> connection) {
+        while (true) {
+            SharedSession sharedSession;
+            boolean created = false;
+            synchronized (this) {
+                sharedSession = this.sessions.get(key);
+                if (sharedSession == null) {
+                    if (!RelayService.instance().reserve()) {
+                        return null;
+                    }
+                    sharedSession = new SharedSession(key, outboundConfiguration, closedSession -> this.sessions.remove(closedSession.getKey(), closedSession));
+                    this.sessions.put(key, sharedSession);
+                    created = true;
+                }
+            }
+
+            SharedSession.Viewer viewer = sharedSession.join(session, metrics);
+            if (viewer != null) {
+                if (created) {
+                    this.connect(sharedSession, connection);
+                }
+                return viewer;
+            }
+
+            // The session closed as we joined: remove it and retry with a new one
+            this.sessions.remove(key, sharedSession);
+        }
+    }
+
+    public Collection<SharedSession> getSessions() {
+        return this.sessions.values();
+    }
+
+    private void connect(final SharedSession sharedSession, final Callable<RelayTunnel> connection) {
+        RelayService relayService = RelayService.instance();
+        CompletableFuture<RelayTunnel> future = ConnectService.instance().connect(connection, RelayTunnel::disconnect);
+        if (future == null) {
+            relayService.release();
+            sharedSession.onConnectionFailed();
+            return;
+        }
+
+        future.whenComplete((tunnel, throwable) -> {
+            if (throwable != null) {
+                relayService.release();
+                MetricsService.instance().recordConnectFailure();
+                sharedSession.onConnectionFailed();
+
+            } else if (sharedSession.onConnected(tunnel)) {
+                relayService.execute(sharedSession);
+
+            } else {
+                relayService.release();
+            }
+        });
+    }
+}
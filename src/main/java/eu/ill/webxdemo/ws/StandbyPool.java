@@ -0,0 +1,254 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webx.WebXClientConfiguration;
+import eu.ill.webx.WebXHostConfiguration;
+import eu.ill.webxdemo.services.ConnectService;
+import eu.ill.webxdemo.services.RelayService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Tunnels connected in advance to the standalone WebX Engine, one pool per client version, claimed by new WebSockets.
+// Login sessions cannot be pre-connected as the WebX Router authenticates the user and spawns the session on connection.
+// Client versions are sent by the clients: pools are only kept for the configured versions or, if none are configured,
+// for the first version seen until it goes unclaimed for the maximum age of its tunnels.
+// Each standby tunnel holds a relay slot (counted against --max-tunnels) from its connection, handed over to the WebSocket
+// that claims it. They are not counted in the MemoryBudget: nothing is read from them until they are claimed, and the
+// messages sent by the engine meanwhile (buffered by the WebX client) are bounded by replacing the unused tunnels.
+public class StandbyPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(StandbyPool.class);
+
+    private static final StandbyPool instance = new StandbyPool();
+
+    private static class StandbyTunnel {
+        private final RelayTunnel tunnel;
+        private final long connectionTime;
+
+        private StandbyTunnel(final RelayTunnel tunnel) {
+            this.tunnel = tunnel;
+            this.connectionTime = System.currentTimeMillis();
+        }
+    }
+
+    private static class Pool {
+        private final Queue<StandbyTunnel> tunnels = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final boolean configured;
+        private volatile long claimTime = System.currentTimeMillis();
+
+        private Pool(final boolean configured) {
+            this.configured = configured;
+        }
+    }
+
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+
+    private WebXHostConfiguration hostConfiguration;
+    private TunnelConnector tunnelConnector;
+    private volatile int poolSize = 0;
+    private volatile long maxAgeMs;
+    private volatile boolean versionsConfigured = false;
+    private ScheduledExecutorService scheduler;
+
+    private StandbyPool() {
+    }
+
+    public static StandbyPool instance() {
+        return instance;
+    }
+
+    // The pools of the given client versions are filled now, otherwise the pool is created by the first claim
+    public synchronized void start(final WebXHostConfiguration hostConfiguration, final TunnelConnector tunnelConnector, final int poolSize, final long maxAgeMs, final List<String> clientVersions) {
+        this.hostConfiguration = hostConfiguration;
+        this.tunnelConnector = tunnelConnector;
+        this.maxAgeMs = maxAgeMs;
+        this.versionsConfigured = !clientVersions.isEmpty();
+        clientVersions.forEach(clientVersion -> this.pools.put(clientVersion, new Pool(true)));
+        this.poolSize = poolSize;
+
+        // Replace tunnels before they accumulate too much unread data from the engine
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "webx-standby-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::renew, maxAgeMs / 2, maxAgeMs / 2, TimeUnit.MILLISECONDS);
+        this.pools.forEach(this::refill);
+
+        logger.info("Standby pool started with {} tunnels per client version for {}", poolSize, this.versionsConfigured ? "client versions " + clientVersions : "the first client version");
+    }
+
+    public synchronized void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+        this.poolSize = 0;
+        this.pools.values().forEach(this::empty);
+        this.pools.clear();
+    }
+
+    public boolean isEnabled() {
+        return this.poolSize > 0;
+    }
+
+    // Returns a connected tunnel or null if none is available (the pool is refilled in the background)
+    public RelayTunnel claim(final String clientVersion) {
+        if (!this.isEnabled()) {
+            return null;
+        }
+
+        String key = clientVersion != null ? clientVersion : "";
+        Pool pool = this.getPool(key);
+        if (pool == null) {
+            this.missCount.increment();
+            return null;
+        }
+
+        pool.claimTime = System.currentTimeMillis();
+        RelayTunnel tunnel = null;
+        StandbyTunnel standbyTunnel;
+        while (tunnel == null && (standbyTunnel = pool.tunnels.poll()) != null) {
+            pool.size.decrementAndGet();
+            if (standbyTunnel.tunnel.isConnected() && !this.isExpired(standbyTunnel)) {
+                tunnel = standbyTunnel.tunnel;
+
+            } else {
+                this.discard(standbyTunnel.tunnel);
+            }
+        }
+
+        if (tunnel != null) {
+            this.hitCount.increment();
+        } else {
+            this.missCount.increment();
+        }
+
+        this.refill(key, pool);
+        return tunnel;
+    }
+
+    // Disconnects a tunnel taken from the pool but not used, releasing its relay slot
+    public void discard(final RelayTunnel tunnel) {
+        tunnel.disconnect();
+        RelayService.instance().release();
+    }
+
+    public int getAvailableCount() {
+        return this.pools.values().stream().mapToInt(pool -> pool.tunnels.size()).sum();
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    public long getFailureCount() {
+        return this.failureCount.sum();
+    }
+
+    private Pool getPool(final String key) {
+        Pool pool = this.pools.get(key);
+        if (pool == null && !this.versionsConfigured) {
+            synchronized (this.pools) {
+                if (this.pools.isEmpty()) {
+                    pool = new Pool(false);
+                    this.pools.put(key, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    // The pool size counts connected and connecting tunnels. Tunnels are only connected while the relay has free slots
+    private void refill(final String key, final Pool pool) {
+        RelayService relayService = RelayService.instance();
+        while (pool.size.incrementAndGet() <= this.poolSize) {
+            if (!relayService.tryReserve()) {
+                break;
+            }
+
+            String clientVersion = key.isEmpty() ? null : key;
+            CompletableFuture<RelayTunnel> connection = ConnectService.instance().connect(() -> this.tunnelConnector.connect(this.hostConfiguration, WebXClientConfiguration.ForStandaloneSession(clientVersion), null), RelayTunnel::disconnect);
+            if (connection == null) {
+                pool.size.decrementAndGet();
+                relayService.release();
+                this.failureCount.increment();
+                return;
+            }
+
+            connection.whenComplete((tunnel, throwable) -> {
+                if (throwable != null) {
+                    pool.size.decrementAndGet();
+                    relayService.release();
+                    this.failureCount.increment();
+                    logger.warn("Failed to connect standby tunnel: {}", throwable.getMessage());
+
+                } else if (!this.isEnabled() || this.pools.get(key) != pool) {
+                    // Stopped, or the pool was removed while connecting
+                    pool.size.decrementAndGet();
+                    this.discard(tunnel);
+
+                } else {
+                    pool.tunnels.add(new StandbyTunnel(tunnel));
+                }
+            });
+        }
+        pool.size.decrementAndGet();
+    }
+
+    private void renew() {
+        this.pools.forEach((key, pool) -> {
+            if (!pool.configured && System.currentTimeMillis() - pool.claimTime > this.maxAgeMs) {
+                logger.info("Removing standby pool of client version {}: unclaimed for {}ms", key.isEmpty() ? "(none)" : key, this.maxAgeMs);
+                synchronized (this.pools) {
+                    this.pools.remove(key, pool);
+                }
+                this.empty(pool);
+                return;
+            }
+
+            for (StandbyTunnel standbyTunnel : pool.tunnels) {
+                if ((this.isExpired(standbyTunnel) || !standbyTunnel.tunnel.isConnected()) && pool.tunnels.remove(standbyTunnel)) {
+                    pool.size.decrementAndGet();
+                    this.discard(standbyTunnel.tunnel);
+                }
+            }
+            this.refill(key, pool);
+        });
+    }
+
+    private void empty(final Pool pool) {
+        StandbyTunnel standbyTunnel;
+        while ((standbyTunnel = pool.tunnels.poll()) != null) {
+            pool.size.decrementAndGet();
+            this.discard(standbyTunnel.tunnel);
+        }
+    }
+
+    private boolean isExpired(final StandbyTunnel standbyTunnel) {
+        return System.currentTimeMillis() - standbyTunnel.connectionTime > this.maxAgeMs;
+    }
+}
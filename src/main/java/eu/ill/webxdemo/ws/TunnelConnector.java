@@ -0,0 +1,14 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webx.WebXClientConfiguration;
+import eu.ill.webx.WebXEngineConfiguration;
+import eu.ill.webx.WebXHostConfiguration;
+import eu.ill.webx.exceptions.WebXConnectionException;
+
+@FunctionalInterface
+public interface TunnelConnector {
+
+    RelayTunnel connect(WebXHostConfiguration hostConfiguration,
+                        WebXClientConfiguration clientConfiguration,
+                        WebXEngineConfiguration engineConfiguration) throws WebXConnectionException;
+}
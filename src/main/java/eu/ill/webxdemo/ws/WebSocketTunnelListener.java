@@ -3,18 +3,33 @@ package eu.ill.webxdemo.ws;
 import eu.ill.webx.WebXClientConfiguration;
 import eu.ill.webx.WebXEngineConfiguration;
 import eu.ill.webx.WebXHostConfiguration;
-import eu.ill.webx.WebXTunnel;
-import eu.ill.webx.exceptions.WebXConnectionException;
 import eu.ill.webxdemo.Configuration;
+import eu.ill.webxdemo.OutboundConfiguration;
+import eu.ill.webxdemo.metrics.SessionMetrics;
 import eu.ill.webxdemo.model.Credentials;
+import eu.ill.webxdemo.services.AdmissionService;
 import eu.ill.webxdemo.services.AuthService;
+import eu.ill.webxdemo.services.ClusterService;
+import eu.ill.webxdemo.services.ConnectService;
+import eu.ill.webxdemo.services.DrainService;
+import eu.ill.webxdemo.services.MetricsService;
+import eu.ill.webxdemo.services.RecordingService;
+import eu.ill.webxdemo.services.RelayService;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.SuspendToken;
 import org.eclipse.jetty.websocket.api.WebSocketListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.DataFormatException;
 
 public class WebSocketTunnelListener implements WebSocketListener {
 
@@ -27,37 +42,94 @@ public class WebSocketTunnelListener implements WebSocketListener {
     private static final String HEIGHT_PARAM = "height";
     private static final String KEYBOARD_PARAM = "keyboard";
     private static final String WEBX_CLIENT_VERSION = "client-version";
+    private static final String SHARED_PARAM = "shared";
+    private static final String RESUME_PARAM = "resume";
+    private static final String RESUME_TOKEN_PARAM = "resumetoken";
+    private static final String COMPRESSION_PARAM = "compression";
+    private static final String IDLE_PARAM = "idle";
 
     private final Configuration configuration;
-
-    private ConnectionThread connectionThread;
+    private final TunnelConnector tunnelConnector;
+
+    private volatile Session session;
+    private volatile ConnectionThread connectionThread;
+    private volatile Thread relayThread;
+    private CompletableFuture<RelayTunnel> connection;
+    private volatile SharedSession.Viewer sharedSessionViewer;
+    private volatile AdmissionService.Ticket admissionTicket;
+    private volatile boolean compression = false;
+    private volatile boolean chunking = false;
+    private boolean idleNotified = false;
+    private String sessionId;
+    private boolean resumable = false;
+    private String resumeToken;
+    private boolean sessionRegistered = false;
+    private boolean closed = false;
 
     public WebSocketTunnelListener(final Configuration configuration) {
+        this(configuration, WebXRelayTunnel::connect);
+    }
+
+    public WebSocketTunnelListener(final Configuration configuration, final TunnelConnector tunnelConnector) {
         this.configuration = configuration;
+        this.tunnelConnector = tunnelConnector;
     }
 
     @Override
     public void onWebSocketConnect(final Session session) {
+        if (!DrainService.instance().register(session)) {
+            session.close(StatusCode.SERVICE_RESTART, "Relay is restarting");
+            return;
+        }
+        this.session = session;
+
+        Map<String, List<String>> params = session.getUpgradeRequest().getParameterMap();
+        this.compression = MessageCompression.instance().isEnabled() && "deflate".equals(this.getStringParam(params, COMPRESSION_PARAM));
+        this.chunking = this.isChunkingSupported(this.getStringParam(params, WEBX_CLIENT_VERSION));
+        this.idleNotified = "true".equals(this.getStringParam(params, IDLE_PARAM));
+
+        // Continue a session whose WebSocket has dropped if its tunnel is still open. Clients asking for resumable
+        // sessions are sent a token with which to resume (see issueResumeToken)
+        String resumeToken = this.getStringParam(params, RESUME_TOKEN_PARAM);
+        boolean resumable = ResumableSessions.instance().isEnabled() && ("true".equals(this.getStringParam(params, RESUME_PARAM)) || resumeToken != null);
+        if (resumable && resumeToken != null) {
+            ResumableSessions.ParkedSession parkedSession = ResumableSessions.instance().resume(resumeToken);
+            if (parkedSession != null) {
+                this.resume(session, parkedSession);
+                return;
+            }
+            logger.debug("No session to resume with the resume token: connecting a new session");
+        }
+        synchronized (this) {
+            this.resumable = resumable;
+        }
 
         WebXClientConfiguration clientConfiguration;
         WebXEngineConfiguration engineConfiguration = null;
         WebXHostConfiguration webXConfiguration;
+        String webXHost;
+        String username = null;
+        RelayTunnel standbyTunnel = null;
+        long standbyClaimTime = 0;
 
-        Map<String, List<String>> params = session.getUpgradeRequest().getParameterMap();
         String clientVersion = this.getStringParam(params, WEBX_CLIENT_VERSION);
 
         if (this.configuration.getStandaloneHost() != null && this.configuration.getStandalonePort() != null) {
             String hostname = this.configuration.getStandaloneHost();
             Integer port = this.configuration.getStandalonePort();
+            webXHost = hostname + ":" + port;
             webXConfiguration = new WebXHostConfiguration(hostname, port, true);
 
             clientConfiguration = WebXClientConfiguration.ForStandaloneSession(clientVersion);
+            standbyTunnel = StandbyPool.instance().claim(clientVersion);
+            standbyClaimTime = System.nanoTime();
 
         } else {
 
             // Get all the other params
             Integer port = this.getIntegerParam(params, WEBX_PORT_PARAM);
             String hostname = this.getStringParam(params, WEBX_HOST_PARAM);
+            webXHost = hostname + ":" + port;
             webXConfiguration = new WebXHostConfiguration(hostname, port, false);
 
             String sessionId = this.getStringParam(params, WEBX_SESSION_ID_PARAM);
@@ -68,6 +140,17 @@ public class WebSocketTunnelListener implements WebSocketListener {
                     return;
                 }
                 clientConfiguration = WebXClientConfiguration.ForExistingSession(sessionId, clientVersion);
+                synchronized (this) {
+                    this.sessionId = sessionId;
+                }
+
+                if (this.configuration.isSessionSharing() && "true".equals(this.getStringParam(params, SHARED_PARAM))) {
+                    if (!this.admit(session, null, webXHost)) {
+                        return;
+                    }
+                    this.joinSharedSession(session, webXHost + "/" + sessionId, webXHost, this.createConnection(webXConfiguration, clientConfiguration, null));
+                    return;
+                }
 
             } else {
                 String token = this.getStringParam(params, TOKEN_PARAM);
@@ -77,7 +160,7 @@ public class WebSocketTunnelListener implements WebSocketListener {
                     session.close();
                     return;
                 }
-                String username = credentials.getUsername();
+                username = credentials.getUsername();
                 String password = credentials.getPassword();
 
                 Integer width = this.getIntegerParam(params, WIDTH_PARAM);
@@ -93,35 +176,217 @@ public class WebSocketTunnelListener implements WebSocketListener {
                         clientVersion);
 
                 engineConfiguration = new WebXEngineConfiguration();
-                engineConfiguration.setParameter("logLevel", "debug");
-                engineConfiguration.setParameter("runtimeMaxQualityIndex", "12");
+                engineConfiguration.setParameter("logLevel", configuration.getEngineLogLevel());
+                engineConfiguration.setParameter("runtimeMaxQualityIndex", String.valueOf(configuration.getMaxQualityIndex()));
             }
         }
 
-        try {
-            // Connect to host
-            WebXTunnel tunnel = WebXTunnel.Connect(webXConfiguration, clientConfiguration, engineConfiguration);
+        if (!this.admit(session, username, webXHost)) {
+            if (standbyTunnel != null) {
+                StandbyPool.instance().discard(standbyTunnel);
+            }
+            return;
+        }
 
-            // Create thread to read from tunnel
-            this.connectionThread = new ConnectionThread(tunnel, session);
-            connectionThread.start();
+        // Make sure the relay can accept another tunnel before connecting to the host (a standby tunnel has its slot)
+        RelayService relayService = RelayService.instance();
+        if (standbyTunnel == null && !relayService.reserve()) {
+            session.close(StatusCode.TRY_AGAIN_LATER, "Relay is at maximum capacity");
+            return;
+        }
 
-        } catch (WebXConnectionException exception) {
-            logger.error("Failed to connect to WebX server. Client not created: {}", exception.getMessage());
-            session.close();
+        // Connect to host on the connect executor, suspending reads from the client until the tunnel is available
+        final WebXHostConfiguration hostConfiguration = webXConfiguration;
+        final WebXClientConfiguration connectClientConfiguration = clientConfiguration;
+        final WebXEngineConfiguration connectEngineConfiguration = engineConfiguration;
+        final SuspendToken suspendToken = session.suspend();
+        CompletableFuture<RelayTunnel> connection = standbyTunnel != null ? CompletableFuture.completedFuture(standbyTunnel) : ConnectService.instance().connect(this.createConnection(hostConfiguration, connectClientConfiguration, connectEngineConfiguration), RelayTunnel::disconnect);
+
+        if (connection == null) {
+            relayService.release();
+            session.close(StatusCode.TRY_AGAIN_LATER, "Too many pending connections");
+            return;
         }
 
+        synchronized (this) {
+            this.connection = connection;
+        }
+        final long firstMessageStartTime = standbyTunnel != null ? standbyClaimTime : 0;
+        connection.whenComplete((tunnel, throwable) -> this.onTunnelConnected(session, suspendToken, webXHost, tunnel, throwable, firstMessageStartTime));
+    }
+
+    // Applies the tunnel limits per IP address, user and WebX host. The ticket is released when the WebSocket closes
+    private boolean admit(Session session, String username, String webXHost) {
+        String address = session.getRemoteAddress() != null ? session.getRemoteAddress().getHostString() : null;
+        this.admissionTicket = AdmissionService.instance().admitTunnel(address, username, webXHost);
+        if (this.admissionTicket == null) {
+            session.close(StatusCode.TRY_AGAIN_LATER, "Too many tunnels");
+            return false;
+        }
+        return true;
+    }
+
+    private Callable<RelayTunnel> createConnection(WebXHostConfiguration hostConfiguration, WebXClientConfiguration clientConfiguration, WebXEngineConfiguration engineConfiguration) {
+        return () -> {
+            long connectStartTime = System.nanoTime();
+            RelayTunnel tunnel = this.tunnelConnector.connect(hostConfiguration, clientConfiguration, engineConfiguration);
+            MetricsService.instance().getTunnelConnectTime().record(System.nanoTime() - connectStartTime);
+            return tunnel;
+        };
+    }
+
+    private synchronized void joinSharedSession(Session session, String key, String webXHost, Callable<RelayTunnel> connection) {
+        if (this.closed) {
+            return;
+        }
+
+        SessionMetrics sessionMetrics = MetricsService.instance().openSession(webXHost);
+        this.sharedSessionViewer = SharedSessions.instance().join(key, session, sessionMetrics, this.configuration.getOutboundConfiguration(), connection);
+        if (this.sharedSessionViewer == null) {
+            MetricsService.instance().closeSession(sessionMetrics);
+            session.close(StatusCode.TRY_AGAIN_LATER, "Relay is at maximum capacity");
+            return;
+        }
+        this.sharedSessionViewer.setCompression(this.compression);
+        this.sharedSessionViewer.setChunking(this.chunking);
+        this.registerSession();
+    }
+
+    // The first message start time is that of the claim of a standby tunnel (0 otherwise)
+    private synchronized void onTunnelConnected(Session session, SuspendToken suspendToken, String webXHost, RelayTunnel tunnel, Throwable throwable, long firstMessageStartTime) {
+        RelayService relayService = RelayService.instance();
+        MetricsService metricsService = MetricsService.instance();
+        this.connection = null;
+
+        if (throwable != null) {
+            relayService.release();
+            if (throwable instanceof CancellationException) {
+                logger.debug("Connection to WebX server cancelled");
+
+            } else if (throwable instanceof TimeoutException) {
+                metricsService.recordConnectFailure();
+                logger.error("Timeout connecting to WebX server. Client not created");
+                session.close(StatusCode.TRY_AGAIN_LATER, "Timeout connecting to WebX server");
+
+            } else {
+                metricsService.recordConnectFailure();
+                Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                logger.error("Failed to connect to WebX server. Client not created: {}", cause.getMessage());
+                session.close();
+            }
+            return;
+        }
+
+        if (this.closed) {
+            relayService.release();
+            tunnel.disconnect();
+            return;
+        }
+
+        // Create relay thread to read from tunnel
+        SessionMetrics sessionMetrics = metricsService.openSession(webXHost);
+        QualityController qualityController = this.configuration.isAdaptiveQuality() ? new QualityController(tunnel, sessionMetrics, this.configuration.getMaxQualityIndex()) : null;
+        this.connectionThread = new ConnectionThread(tunnel, session, this.configuration.getOutboundConfiguration(), sessionMetrics, qualityController);
+        this.connectionThread.setRecorder(RecordingService.instance().createRecorder());
+        this.connectionThread.setCompression(this.compression);
+        this.connectionThread.setChunking(this.chunking);
+        if (firstMessageStartTime != 0) {
+            this.connectionThread.timeFirstMessage(metricsService.getStandbyFirstMessageTime(), firstMessageStartTime);
+        }
+        if (this.configuration.getInputCoalescingWindowNanos() > 0) {
+            this.connectionThread.enableInputCoalescing(this.configuration.getInputCoalescingWindowNanos());
+        }
+        if (IdleSessions.instance().isEnabled()) {
+            this.connectionThread.enableIdleTracking(this.configuration.getMaxQualityIndex(), this.idleNotified);
+        }
+        if (this.resumable) {
+            this.connectionThread.enableResume(ResumableSessions.instance().getBufferBytes());
+            this.issueResumeToken();
+        }
+        this.relayThread = relayService.execute(this.connectionThread);
+        this.registerSession();
+        suspendToken.resume();
+    }
+
+    // Takes over the tunnel (and its resources) of a parked session: the messages missed are sent to the new WebSocket
+    private synchronized void resume(Session session, ResumableSessions.ParkedSession parkedSession) {
+        logger.debug("Resuming session with a new WebSocket");
+        this.admissionTicket = parkedSession.getAdmissionTicket();
+        this.sessionId = parkedSession.getSessionId();
+        this.sessionRegistered = this.sessionId != null;
+        this.connectionThread = parkedSession.getConnectionThread();
+        this.relayThread = parkedSession.getRelayThread();
+        this.connectionThread.setCompression(this.compression);
+        this.connectionThread.setChunking(this.chunking);
+        this.connectionThread.attach(session);
+        this.resumable = true;
+        this.issueResumeToken();
+    }
+
+    // Sends a new resume token to the client: the token it used to resume (if any) has been consumed
+    private void issueResumeToken() {
+        this.resumeToken = ResumableSessions.instance().createToken();
+        this.connectionThread.sendText(ResumableSessions.TOKEN_MESSAGE_PREFIX + this.resumeToken);
+    }
+
+    // Keeps the tunnel open for the resume grace period. Returns false if the session cannot be resumed
+    private synchronized boolean park() {
+        if (this.resumeToken == null || this.connectionThread == null || !this.connectionThread.isConnected() || DrainService.instance().isDraining()) {
+            return false;
+        }
+
+        logger.debug("WebSocket dropped: keeping tunnel open to be resumed");
+        ResumableSessions.instance().park(this.resumeToken, new ResumableSessions.ParkedSession(this.connectionThread, this.relayThread, this.admissionTicket, this.sessionRegistered ? this.sessionId : null));
+        this.closed = true;
+        this.admissionTicket = null;
+        this.sessionRegistered = false;
+        this.connectionThread = null;
+        this.relayThread = null;
+        return true;
+    }
+
+    // Records in the session directory that this node hosts the session so that reconnections are routed here
+    private void registerSession() {
+        if (this.sessionId != null) {
+            ClusterService.instance().registerSession(this.sessionId);
+            this.sessionRegistered = true;
+        }
     }
 
     @Override
     public void onWebSocketText(String message) {
+        // Page visibility hints are the only text messages expected
+        if (IdleTracker.VISIBILITY_HIDDEN.equals(message) || IdleTracker.VISIBILITY_VISIBLE.equals(message)) {
+            ConnectionThread connectionThread = this.connectionThread;
+            if (connectionThread != null) {
+                connectionThread.onVisibility(IdleTracker.VISIBILITY_VISIBLE.equals(message));
+            }
+            return;
+        }
+
         throw new UnsupportedOperationException("Text WebSocket messages are not supported.");
     }
 
     @Override
     public void onWebSocketBinary(byte[] payload, int offset, int length) {
-        if (this.connectionThread != null && this.connectionThread.isConnected()) {
-            this.connectionThread.write(payload);
+        if (this.compression && MessageCompression.isCompressed(payload, offset, length)) {
+            try {
+                payload = MessageCompression.instance().decompress(payload, offset, length, this.configuration.getServerConfiguration().getWebSocketMaxBinaryMessageSize());
+                offset = 0;
+                length = payload.length;
+
+            } catch (DataFormatException exception) {
+                logger.warn("Ignoring invalid compressed instruction: {}", exception.getMessage());
+                return;
+            }
+        }
+
+        SharedSession.Viewer viewer = this.sharedSessionViewer;
+        if (viewer != null) {
+            viewer.getSharedSession().write(viewer, payload, offset, length);
+
+        } else if (this.connectionThread != null && this.connectionThread.isConnected()) {
+            this.connectionThread.write(payload, offset, length);
 
         } else {
             logger.error("Received instruction on closed client");
@@ -133,26 +398,87 @@ public class WebSocketTunnelListener implements WebSocketListener {
     public void onWebSocketError(Throwable throwable) {
         logger.debug("WebSocket tunnel closing due to error", throwable);
 
-        this.disconnect();
+        this.disconnect(true);
     }
 
     @Override
     public void onWebSocketClose(int statusCode, String reason) {
         logger.debug("WebSocket closing{}", reason != null ? " with reason " + reason : "");
 
-        this.disconnect();
+        // Only a connection lost without a close handshake (network change, sleep) can be resumed
+        this.disconnect(statusCode == StatusCode.ABNORMAL);
     }
 
-    private void disconnect() {
+    private void disconnect(boolean resumable) {
+        Session session = this.session;
+        if (session != null) {
+            DrainService.instance().unregister(session);
+            this.session = null;
+        }
+
+        if (resumable && this.park()) {
+            return;
+        }
+
+        AdmissionService.Ticket admissionTicket = this.admissionTicket;
+        if (admissionTicket != null) {
+            admissionTicket.release();
+            this.admissionTicket = null;
+        }
+
+        synchronized (this) {
+            this.closed = true;
+            if (this.connection != null) {
+                this.connection.cancel(false);
+            }
+            if (this.sessionRegistered) {
+                ClusterService.instance().unregisterSession(this.sessionId);
+                this.sessionRegistered = false;
+            }
+        }
+
+        SharedSession.Viewer viewer = this.sharedSessionViewer;
+        if (viewer != null) {
+            viewer.getSharedSession().leave(viewer);
+            this.sharedSessionViewer = null;
+        }
+
         if (this.connectionThread != null) {
             this.connectionThread.closeTunnel();
             try {
-                this.connectionThread.join();
+                this.relayThread.join();
 
             } catch (InterruptedException e) {
                 logger.error("Failed to join the connection thread");
             }
             this.connectionThread = null;
+            this.relayThread = null;
+        }
+    }
+
+    // Images are sent in chunks to the clients whose version is at least the configured one: a version is compared
+    // numerically by its dot-separated components (eg 1.10.0 > 1.4.0), ignoring any suffix (eg -SNAPSHOT)
+    private boolean isChunkingSupported(String clientVersion) {
+        OutboundConfiguration outboundConfiguration = this.configuration.getOutboundConfiguration();
+        if (outboundConfiguration.getImageChunkSize() <= 0 || clientVersion == null) {
+            return false;
+        }
+
+        String[] version = clientVersion.split("[-+]", 2)[0].split("\\.");
+        String[] minimumVersion = outboundConfiguration.getImageChunkClientVersion().split("\\.");
+        try {
+            for (int i = 0; i < Math.max(version.length, minimumVersion.length); i++) {
+                int component = i < version.length ? Integer.parseInt(version[i]) : 0;
+                int minimumComponent = i < minimumVersion.length ? Integer.parseInt(minimumVersion[i]) : 0;
+                if (component != minimumComponent) {
+                    return component > minimumComponent;
+                }
+            }
+            return true;
+
+        } catch (NumberFormatException exception) {
+            logger.warn("Unable to parse client version \"{}\": images will not be chunked", clientVersion);
+            return false;
         }
     }
 
@@ -1,29 +1,55 @@
 package eu.ill.webxdemo.ws;
 
 import eu.ill.webxdemo.Configuration;
+import eu.ill.webxdemo.ServerConfiguration;
+import eu.ill.webxdemo.services.AdmissionService;
 import org.eclipse.jetty.websocket.servlet.WebSocketServlet;
 import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
 
-import javax.inject.Inject;
-import javax.inject.Singleton;
+import java.io.IOException;
 
-@Singleton
 public class WebSocketTunnelServlet extends WebSocketServlet {
 
     private final Configuration configuration;
+    private final TunnelConnector tunnelConnector;
 
-    @Inject
     public WebSocketTunnelServlet(final Configuration configuration) {
+        this(configuration, WebXRelayTunnel::connect);
+    }
+
+    // Used to connect tunnels to something other than WebX hosts (eg the replay harness)
+    public WebSocketTunnelServlet(final Configuration configuration, final TunnelConnector tunnelConnector) {
         this.configuration = configuration;
+        this.tunnelConnector = tunnelConnector;
     }
 
     @Override
     public void configure(final WebSocketServletFactory factory) {
 
         // Remove permessage-deflate extension to otherwise messages above 8192B are cut and an unnecessary copy of data is performed
+        // (clients can request compression of the messages that benefit from it instead, see MessageCompression)
         factory.getExtensionFactory().unregister("permessage-deflate");
 
+        ServerConfiguration serverConfiguration = this.configuration.getServerConfiguration();
+        factory.getPolicy().setMaxBinaryMessageSize(serverConfiguration.getWebSocketMaxBinaryMessageSize());
+        factory.getPolicy().setInputBufferSize(serverConfiguration.getWebSocketInputBufferSize());
+        factory.getPolicy().setIdleTimeout(serverConfiguration.getWebSocketIdleTimeoutMs());
+
         // Register WebSocket implementation
-        factory.setCreator((request, response) -> new WebSocketTunnelListener(this.configuration));
+        factory.setCreator((request, response) -> {
+            // Refuse the upgrade of clients reconnecting too often
+            AdmissionService admissionService = AdmissionService.instance();
+            if (!admissionService.admitUpgrade(request.getRemoteAddress())) {
+                try {
+                    response.setHeader("Retry-After", String.valueOf(admissionService.getRetryAfterSeconds(request.getRemoteAddress())));
+                    response.sendError(429, "Too many connections");
+
+                } catch (IOException ignored) {
+                }
+                return null;
+            }
+
+            return new WebSocketTunnelListener(this.configuration, this.tunnelConnector);
+        });
     }
 }
@@ -0,0 +1,80 @@
+package eu.ill.webxdemo.ws;
+
+// Read-only access to the header of the (little-endian) instructions sent by the WebX Client: the session id
+// (16 bytes, set by the relay), the type (uint32), the instruction id (uint32) and the instruction length (uint32)
+public final class WebXInstructionHeader {
+
+    public static final int INSTRUCTION_HEADER_LENGTH = 32;
+
+    private static final int TYPE_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+    private static final int QUALITY_INDEX_OFFSET = INSTRUCTION_HEADER_LENGTH;
+    private static final int BUTTON_MASK_OFFSET = INSTRUCTION_HEADER_LENGTH + 8;
+
+    public static final int CONNECT = 1;
+    public static final int MOUSE = 2;
+    public static final int KEYBOARD = 3;
+    public static final int CURSOR_IMAGE = 4;
+    public static final int SCREEN = 5;
+    public static final int WINDOWS = 6;
+    public static final int IMAGE = 7;
+    public static final int PONG = 8;
+    public static final int QUALITY = 9;
+    public static final int DATA_ACK = 10;
+    public static final int CLIPBOARD = 11;
+    public static final int SHAPE = 12;
+    public static final int SCREEN_RESIZE = 13;
+
+    private WebXInstructionHeader() {
+    }
+
+    public static int getType(final byte[] payload, final int offset, final int length) {
+        if (length < TYPE_OFFSET + 4) {
+            return 0;
+        }
+        return WebXMessageHeader.readInt(payload, offset + TYPE_OFFSET);
+    }
+
+    // Quality instructions carry the quality index (uint32) after the header. Returns 0 if the instruction is too short
+    public static int getQualityIndex(final byte[] payload, final int offset, final int length) {
+        if (length < QUALITY_INDEX_OFFSET + 4) {
+            return 0;
+        }
+        return WebXMessageHeader.readInt(payload, offset + QUALITY_INDEX_OFFSET);
+    }
+
+    // Mouse instructions carry the position (x and y, int32) and the button mask (uint32) after the header. Returns -1
+    // if the instruction is too short
+    public static int getButtonMask(final byte[] payload, final int offset, final int length) {
+        if (length < BUTTON_MASK_OFFSET + 4) {
+            return -1;
+        }
+        return WebXMessageHeader.readInt(payload, offset + BUTTON_MASK_OFFSET) & Integer.MAX_VALUE;
+    }
+
+    // Creates a quality instruction as sent by the WebX Client (the session id is set by the tunnel)
+    public static byte[] createQualityInstruction(final int qualityIndex) {
+        byte[] instruction = new byte[QUALITY_INDEX_OFFSET + 4];
+        writeInt(instruction, TYPE_OFFSET, QUALITY);
+        writeInt(instruction, LENGTH_OFFSET, instruction.length);
+        writeInt(instruction, QUALITY_INDEX_OFFSET, qualityIndex);
+        return instruction;
+    }
+
+    private static void writeInt(final byte[] data, final int offset, final int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+
+    // Instructions that modify the remote desktop (as opposed to requests for data)
+    public static boolean isInput(final int type) {
+        return type == MOUSE || type == KEYBOARD || type == CLIPBOARD || type == SCREEN_RESIZE || type == QUALITY;
+    }
+
+    // Instructions carrying what the user types or copies, which are not recorded
+    public static boolean isPrivate(final int type) {
+        return type == KEYBOARD || type == CLIPBOARD;
+    }
+}
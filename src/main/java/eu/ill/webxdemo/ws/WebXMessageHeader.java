@@ -0,0 +1,72 @@
+package eu.ill.webxdemo.ws;
+
+// Read-only access to the header of the (little-endian) messages sent by the WebX Engine:
+// session id (16 bytes), type (uint32), message id (uint32), buffer length (uint32) and padding.
+// The message payload starts at MESSAGE_HEADER_LENGTH with the command id (the id of the client instruction to which the
+// message replies, 0 for messages sent by the engine unsolicited), image messages continuing with the window id.
+public final class WebXMessageHeader {
+
+    public static final int SESSION_ID_LENGTH = 16;
+    public static final int MESSAGE_HEADER_LENGTH = 32;
+
+    private static final int TYPE_OFFSET = 16;
+    private static final int COMMAND_ID_OFFSET = MESSAGE_HEADER_LENGTH;
+    private static final int WINDOW_ID_OFFSET = MESSAGE_HEADER_LENGTH + 4;
+
+    public static final int CONNECTION = 1;
+    public static final int SCREEN = 2;
+    public static final int WINDOWS = 3;
+    public static final int IMAGE = 4;
+    public static final int SUBIMAGES = 5;
+    public static final int MOUSE = 6;
+    public static final int VOID = 7;
+    public static final int CURSOR_IMAGE = 8;
+    public static final int PING = 9;
+    public static final int QUALITY = 10;
+    public static final int CLIPBOARD = 11;
+    public static final int SHAPE = 12;
+    public static final int SCREEN_RESIZE = 13;
+
+    // Sent by the relay itself: part of a larger message (see OutboundScheduler)
+    public static final int CHUNK = 128;
+
+    private WebXMessageHeader() {
+    }
+
+    public static int getType(final byte[] message) {
+        if (message.length < MESSAGE_HEADER_LENGTH) {
+            return 0;
+        }
+        return readInt(message, TYPE_OFFSET);
+    }
+
+    public static boolean isImage(final int type) {
+        return type == IMAGE || type == SUBIMAGES;
+    }
+
+    // Returns -1 if the message has no command id
+    public static long getCommandId(final byte[] message) {
+        if (message.length < COMMAND_ID_OFFSET + 4) {
+            return -1;
+        }
+        return Integer.toUnsignedLong(readInt(message, COMMAND_ID_OFFSET));
+    }
+
+    public static long getWindowId(final byte[] message) {
+        if (message.length < WINDOW_ID_OFFSET + 4) {
+            return -1;
+        }
+        return Integer.toUnsignedLong(readInt(message, WINDOW_ID_OFFSET));
+    }
+
+    static int readInt(final byte[] data, final int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+
+    static void writeInt(final byte[] data, final int offset, final int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >> 8);
+        data[offset + 2] = (byte) (value >> 16);
+        data[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,45 @@
+package eu.ill.webxdemo.ws;
+
+import eu.ill.webx.WebXClientConfiguration;
+import eu.ill.webx.WebXEngineConfiguration;
+import eu.ill.webx.WebXHostConfiguration;
+import eu.ill.webx.WebXTunnel;
+import eu.ill.webx.exceptions.WebXClientException;
+import eu.ill.webx.exceptions.WebXConnectionException;
+import eu.ill.webx.exceptions.WebXConnectionInterruptException;
+import eu.ill.webx.exceptions.WebXDisconnectedException;
+
+public class WebXRelayTunnel implements RelayTunnel {
+
+    private final WebXTunnel tunnel;
+
+    public WebXRelayTunnel(final WebXTunnel tunnel) {
+        this.tunnel = tunnel;
+    }
+
+    public static RelayTunnel connect(final WebXHostConfiguration hostConfiguration,
+                                      final WebXClientConfiguration clientConfiguration,
+                                      final WebXEngineConfiguration engineConfiguration) throws WebXConnectionException {
+        return new WebXRelayTunnel(WebXTunnel.Connect(hostConfiguration, clientConfiguration, engineConfiguration));
+    }
+
+    @Override
+    public byte[] read() throws WebXClientException, WebXConnectionInterruptException, WebXDisconnectedException {
+        return this.tunnel.read();
+    }
+
+    @Override
+    public void write(final byte[] data) throws WebXClientException {
+        this.tunnel.write(data);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.tunnel.isConnected();
+    }
+
+    @Override
+    public void disconnect() {
+        this.tunnel.disconnect();
+    }
+}